@@ -0,0 +1,167 @@
+package data;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Size, write and read times of order segments and archive months with each codec of the store
+ * the orders are those of passengers booking a few flights each, in segments by passenger as the store keeps them,
+ * the archive rows are daily flights of many daemons, appended month by month in departure order
+ * a read of the orders is readSegment of every segment, a read of a month is its first lookup,
+ * which maps it, inflates it with a codec, and sorts its IDs
+ * run it in an empty directory, it keeps its data there:
+ * java -cp bin:bench-bin data.CodecBench [orders] [archive rows]
+ */
+public class CodecBench {
+
+	private static final int ROUNDS = 5;
+	private static final int EACH = 3; // orders per passenger
+	private static final int DAEMONS = 2000;
+	private static final long DAY = 24 * 3600 * 1000l;
+	private static final byte[] CODECS = { Codec.NONE, Codec.DEFLATE, Codec.GZIP };
+	private static final String[] NAMES = { "none", "deflate", "gzip" };
+
+	private static int found; // kept so the lookups are not optimized away
+
+	public static void main(String[] args) throws Exception {
+		try {
+			run(args);
+		} finally {
+			System.exit(0); // the jobs of the manager would keep it running after an error
+		}
+	}
+
+	private static void run(String[] args) throws Exception {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		int rows = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+		DataManager manager = new DataManager();
+		ArrayList<Segment> orders = orders(count);
+		ArrayList<Archive.Append> months = months(manager, rows);
+		System.out.println(count + " orders in " + orders.size() + " segments, " + rows + " archive rows in "
+				+ months.size() + " months");
+		System.out.println("best of " + ROUNDS + "\torders KB\twrite ms\tread ms\tarchive KB\twrite ms\tread ms");
+		for (int c = 0; c < CODECS.length; c++) {
+			File dir = new File("codec." + NAMES[c]);
+			dir.mkdirs();
+			long write = Long.MAX_VALUE;
+			long read = Long.MAX_VALUE;
+			long[] crcs = new long[orders.size()];
+			for (int round = 0; round < ROUNDS; round++) {
+				long begin = System.nanoTime();
+				for (int i = 0; i < orders.size(); i++) {
+					crcs[i] = Codec.writeSegment(new File(dir, orders.get(i).name), orders.get(i), CODECS[c]);
+				}
+				write = Math.min(write, ms(begin));
+				begin = System.nanoTime();
+				for (int i = 0; i < orders.size(); i++) {
+					found += Codec.readSegment(new File(dir, orders.get(i).name), crcs[i]).records.size();
+				}
+				read = Math.min(read, ms(begin));
+			}
+			long archiveWrite = Long.MAX_VALUE;
+			long archiveRead = Long.MAX_VALUE;
+			Manifest manifest = new Manifest();
+			for (int round = 0; round < ROUNDS; round++) {
+				long begin = System.nanoTime();
+				for (Archive.Append append : months) {
+					Manifest.Entry entry = new Manifest.Entry(append.file, append.records.size(),
+							append.records.get(0).id, append.records.get(append.records.size() - 1).id);
+					entry.crc = Archive.append(dir, append, CODECS[c]);
+					manifest.segments.put(append.file, entry);
+				}
+				archiveWrite = Math.min(archiveWrite, ms(begin));
+				Archive archive = new Archive(manager, dir);
+				archive.open(manifest);
+				begin = System.nanoTime();
+				for (Archive.Append append : months) {
+					found += archive.get(append.records.get(0).id) != null ? 1 : 0;
+				}
+				archiveRead = Math.min(archiveRead, ms(begin));
+			}
+			long orderSize = 0;
+			for (Segment segment : orders) {
+				orderSize += new File(dir, segment.name).length();
+			}
+			long archiveSize = 0;
+			for (Archive.Append append : months) {
+				archiveSize += new File(dir, append.file).length();
+			}
+			System.out.println(NAMES[c] + "\t\t" + orderSize / 1024 + "\t\t" + write + "\t\t" + read + "\t"
+					+ archiveSize / 1024 + "\t\t" + archiveWrite + "\t\t" + archiveRead);
+		}
+		manager.stop();
+		if (found == 0) {
+			System.out.println("Nothing read back");
+		}
+	}
+
+	/**
+	 * orders of count / EACH passengers, created over the last month, some paid and some cancelled
+	 */
+	private static ArrayList<Segment> orders(int count) {
+		Random random = new Random(0);
+		TreeMap<Integer, Segment> segments = new TreeMap<>();
+		long created = new Date().getTime() - 30 * DAY;
+		for (int i = 0; i < count; i++) {
+			Segment.OrderRecord record = new Segment.OrderRecord();
+			record.passenger = i / EACH;
+			record.flight = random.nextInt(count);
+			created += random.nextInt((int) (60 * DAY / count) + 1);
+			record.createDate = created;
+			record.status = random.nextInt(OrderStatus.values().length);
+			record.seat = record.status == OrderStatus.CANCLE.ordinal() ? -1 : 1 + random.nextInt(200);
+			int key = Segment.key(record.passenger);
+			Segment segment = segments.get(key);
+			if (segment == null) {
+				segment = new Segment(Segment.name(Segment.ORDERS, key));
+				segments.put(key, segment);
+			}
+			segment.records.add(record);
+		}
+		return new ArrayList<>(segments.values());
+	}
+
+	/**
+	 * terminated flights of DAEMONS daily daemons, grouped by month, IDs in departure order
+	 */
+	private static ArrayList<Archive.Append> months(DataManager manager, int rows) {
+		ArrayList<City> cities = manager.getCities();
+		Random random = new Random(1);
+		TreeMap<Integer, Archive.Append> months = new TreeMap<>();
+		long first = new Date().getTime() - 400 * DAY;
+		for (int i = 0; i < rows; i++) {
+			int daemon = i % DAEMONS;
+			Segment.FlightRecord record = new Segment.FlightRecord();
+			record.id = i + 1;
+			record.name = "B" + daemon;
+			record.startTime = first + i / DAEMONS * DAY + daemon * 60000l;
+			record.arriveTime = record.startTime + 3600000l + daemon % 7 * 600000l;
+			record.startCity = cities.get(daemon % cities.size()).getCityID();
+			record.arriveCity = cities.get((daemon * 7 + 1) % cities.size()).getCityID();
+			record.price = 500 + daemon % 500;
+			record.seatCapacity = 200;
+			record.distance = 1000 + random.nextInt(50);
+			record.status = FlightStatus.TERMINATE.ordinal();
+			record.isDaemon = true;
+			record.flightDaemon = daemon;
+			int month = Archive.month(record.startTime);
+			Archive.Append append = months.get(month);
+			if (append == null) {
+				append = new Archive.Append();
+				append.month = month;
+				append.file = Segment.name(Archive.TYPE, month);
+				months.put(month, append);
+			}
+			append.records.add(record);
+		}
+		return new ArrayList<>(months.values());
+	}
+
+	private static long ms(long begin) {
+		return (System.nanoTime() - begin) / 1000000;
+	}
+
+}
@@ -0,0 +1,173 @@
+package data;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Random;
+
+import exceptions.StatusUnavailableException;
+
+/**
+ * Lookups by ID through the indexes of DataManager against the scans of the lists they replaced
+ * every occurrence is booked once so the flights are kept in the flights list
+ * run it in an empty directory, it keeps its data there:
+ * java -cp bin:bench-bin data.LookupBench [daemons] [users]
+ */
+public class LookupBench {
+
+	private static final int LOOKUPS = 1000000;
+	private static final int SCANS = 1000; // a scan is slow, fewer of them
+	private static final long DAY = 24 * 3600 * 1000l;
+	private static final int PERIOD = 6 * 3600 * 1000; // four flights a day, the ones on sale are kept
+
+	private static int found; // kept so the lookups are not optimized away
+
+	public static void main(String[] args) throws Exception {
+		int daemons = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		int count = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+		DataManager manager = new DataManager();
+		try {
+			fill(manager, daemons, count);
+			System.out.println(manager.flights.size() + " flights, " + manager.users.size() + " users, "
+					+ manager.cities.size() + " cities");
+			System.out.println("ns per lookup\tindex\tscan");
+			for (int round = 0; round < 2; round++) { // the first one compiles them
+				flights(manager, round == 1);
+				users(manager, round == 1);
+				cities(manager, round == 1);
+			}
+		} finally {
+			manager.stop();
+		}
+		System.exit(found == 0 ? 1 : 0);
+	}
+
+	private static void fill(DataManager manager, int daemons, int count) {
+		ArrayList<City> cities = manager.getCities();
+		long start = new Date().getTime() + DAY;
+		for (int i = 0; i < daemons; i++) {
+			manager.addFlightDaemon("L" + i, new Date(start + i * 60000l), new Date(start + i * 60000l + 7200000l),
+					PERIOD, cities.get(i % cities.size()), cities.get((i + 1) % cities.size()), 500, 100, 1000);
+		}
+		manager.new CreateFlight().run();
+		ArrayList<Passenger> passengers = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			Passenger passenger = manager.addPassenger("lookup" + i, "lookup" + i, "lookup");
+			passengers.add(passenger != null ? passenger : (Passenger) manager.getUserByName("lookup" + i));
+		}
+		int i = 0;
+		for (Flight flight : manager.getFlights()) {
+			try {
+				manager.reserveFlight(passengers.get(i++ % passengers.size()), flight);
+			} catch (StatusUnavailableException e) { /* not on sale */ }
+		}
+	}
+
+	private static void flights(DataManager manager, boolean print) {
+		ArrayList<Flight> flights = manager.flights;
+		int[] ids = ids(flights.size(), new Index.ID<Integer>() {
+
+			@Override
+			public int of(Integer i) {
+				return manager.flights.get(i).getFlightID();
+			}
+		});
+		long begin = System.nanoTime();
+		for (int i = 0; i < LOOKUPS; i++) {
+			found += manager.getFlightByID(ids[i % ids.length]) != null ? 1 : 0;
+		}
+		long index = (System.nanoTime() - begin) / LOOKUPS;
+		begin = System.nanoTime();
+		for (int i = 0; i < SCANS; i++) {
+			int id = ids[i % ids.length];
+			for (Flight flight : flights) {
+				if (flight.getFlightID() == id) {
+					found++;
+					break;
+				}
+			}
+		}
+		long scan = (System.nanoTime() - begin) / SCANS;
+		if (print) {
+			System.out.println("flight\t\t" + index + "\t" + scan);
+		}
+	}
+
+	private static void users(DataManager manager, boolean print) {
+		ArrayList<User> users = manager.users;
+		int[] ids = ids(users.size(), new Index.ID<Integer>() {
+
+			@Override
+			public int of(Integer i) {
+				return manager.users.get(i).getID();
+			}
+		});
+		long begin = System.nanoTime();
+		for (int i = 0; i < LOOKUPS; i++) {
+			found += manager.getUserByID(ids[i % ids.length]) != null ? 1 : 0;
+		}
+		long index = (System.nanoTime() - begin) / LOOKUPS;
+		begin = System.nanoTime();
+		for (int i = 0; i < SCANS; i++) {
+			int id = ids[i % ids.length];
+			for (User user : users) {
+				if (user.getID() == id) {
+					found++;
+					break;
+				}
+			}
+		}
+		long scan = (System.nanoTime() - begin) / SCANS;
+		if (print) {
+			System.out.println("user\t\t" + index + "\t" + scan);
+		}
+	}
+
+	private static void cities(DataManager manager, boolean print) {
+		ArrayList<City> cities = manager.cities;
+		int[] ids = ids(cities.size(), new Index.ID<Integer>() {
+
+			@Override
+			public int of(Integer i) {
+				return manager.cities.get(i).getCityID();
+			}
+		});
+		long begin = System.nanoTime();
+		for (int i = 0; i < LOOKUPS; i++) {
+			found += manager.getCityByID(ids[i % ids.length]) != null ? 1 : 0;
+		}
+		long index = (System.nanoTime() - begin) / LOOKUPS;
+		begin = System.nanoTime();
+		for (int i = 0; i < LOOKUPS; i++) {
+			int id = ids[i % ids.length];
+			for (City city : cities) {
+				if (city.getCityID() == id) {
+					found++;
+					break;
+				}
+			}
+		}
+		long scan = (System.nanoTime() - begin) / LOOKUPS;
+		if (print) {
+			System.out.println("city\t\t" + index + "\t" + scan);
+		}
+	}
+
+	/**
+	 * @return the IDs of the list in a random order
+	 */
+	private static int[] ids(int size, Index.ID<Integer> id) {
+		int[] ids = new int[size];
+		for (int i = 0; i < size; i++) {
+			ids[i] = id.of(i);
+		}
+		Random random = new Random(0);
+		for (int i = size - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int t = ids[i];
+			ids[i] = ids[j];
+			ids[j] = t;
+		}
+		return ids;
+	}
+
+}
@@ -0,0 +1,101 @@
+package data;
+
+import java.util.ArrayList;
+import java.util.Date;
+
+import exceptions.StatusUnavailableException;
+
+/**
+ * Booking throughput on one hot flight, the best of a few rounds for each thread count
+ * every round books a new flight full with passengers of its own and checks nothing was oversold
+ * run it in an empty directory, it keeps its data there:
+ * java -cp bin:bench-bin data.ReserveBench [bookings] [threads...]
+ */
+public class ReserveBench {
+
+	private static final int ROUNDS = 3;
+
+	public static void main(String[] args) throws Exception {
+		int bookings = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		int[] threads = { 1, 2, 4, 8 };
+		if (args.length > 1) {
+			threads = new int[args.length - 1];
+			for (int i = 1; i < args.length; i++) {
+				threads[i - 1] = Integer.parseInt(args[i]);
+			}
+		}
+		DataManager manager = new DataManager();
+		ArrayList<Passenger> passengers = new ArrayList<>();
+		for (int i = 0; i <= bookings; i++) {
+			Passenger passenger = manager.addPassenger("bench" + i, "bench" + i, "bench");
+			passengers.add(passenger != null ? passenger : (Passenger) manager.getUserByName("bench" + i));
+		}
+		Flight warm = hotFlight(manager, bookings + 1);
+		manager.reserveFlight(passengers.get(0), warm);
+		book(manager, warm, passengers, threads[threads.length - 1]); // compiled before the clock counts
+		System.out.println("threads\tbookings/s, best of " + ROUNDS);
+		for (int count : threads) {
+			double best = 0;
+			for (int round = 0; round < ROUNDS; round++) {
+				Flight flight = hotFlight(manager, bookings + 1);
+				manager.reserveFlight(passengers.get(0), flight); // keeps the occurrence before the clock starts
+				best = Math.max(best, book(manager, flight, passengers, count));
+				flight = manager.getFlightByID(flight.getFlightID());
+				if (flight.getRemainingSeats() != 0 || flight.getPassagers().size() != bookings + 1) {
+					System.out.println("oversold or lost: " + flight.getPassagers().size() + " passengers for "
+							+ flight.getSeatCapacity() + " seats, " + flight.getRemainingSeats() + " left");
+				}
+			}
+			System.out.println(count + "\t" + (long) best);
+		}
+		manager.stop();
+		System.exit(0);
+	}
+
+	/**
+	 * a new daemon and its first occurrence, three days from now
+	 */
+	private static Flight hotFlight(DataManager manager, int seats) {
+		ArrayList<City> cities = manager.getCities();
+		long start = new Date().getTime() + 3 * 24 * 3600 * 1000l;
+		String name = "HOT" + start;
+		manager.addFlightDaemon(name, new Date(start), new Date(start + 2 * 3600 * 1000l), 7 * 24 * 3600 * 1000,
+				cities.get(0), cities.get(1), 1000, seats, 1000);
+		manager.new CreateFlight().run();
+		return manager.getFlightsNamed(name).get(0);
+	}
+
+	/**
+	 * @return bookings per second, passengers from 1 on split among the threads
+	 */
+	private static double book(final DataManager manager, final Flight flight, final ArrayList<Passenger> passengers,
+			int count) throws InterruptedException {
+		Thread[] threads = new Thread[count];
+		final int share = (passengers.size() - 1 + count - 1) / count;
+		for (int t = 0; t < count; t++) {
+			final int from = 1 + t * share;
+			threads[t] = new Thread() {
+
+				@Override
+				public void run() {
+					for (int i = from; i < Math.min(from + share, passengers.size()); i++) {
+						try {
+							manager.reserveFlight(passengers.get(i), flight);
+						} catch (StatusUnavailableException e) {
+							System.out.println("Booking failed: " + e.getMessage());
+						}
+					}
+				}
+			};
+		}
+		long begin = System.nanoTime();
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		return (passengers.size() - 1) * 1e9 / (System.nanoTime() - begin);
+	}
+
+}
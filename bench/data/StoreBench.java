@@ -0,0 +1,215 @@
+package data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Random;
+
+import exceptions.StatusUnavailableException;
+
+/**
+ * Save and load times of the store against Java serialization of the same lists in a Data, the old snapshot
+ * the flights kept are the ones booked, the passengers book a few each
+ * the load of the store is a whole DataManager start, the one of serialization only reads the objects back;
+ * serialization writes every object each time, so its save of 1% changed is its save
+ * serialization walks the objects recursively and overflows the default stack with a few thousand
+ * passengers, it runs on a thread with a large stack here
+ * run it in an empty directory, it keeps its data there:
+ * java -cp bin:bench-bin data.StoreBench [passengers] [bookings each]
+ */
+public class StoreBench {
+
+	private static final int ROUNDS = 3;
+	private static final int CITIES = 50;
+	private static final int DAEMONS = 2000;
+	private static final long DAY = 24 * 3600 * 1000l;
+	private static final long STACK = 1l << 30; // bytes, for the serialization thread
+
+	public static void main(String[] args) throws Exception {
+		try {
+			run(args);
+		} finally {
+			System.exit(0); // the jobs of the managers would keep it running after an error
+		}
+	}
+
+	private static void run(String[] args) throws Exception {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		int each = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+		DataManager manager = new DataManager();
+		long begin = System.nanoTime();
+		ArrayList<Passenger> passengers = fill(manager, count, each);
+		System.out.println("built " + manager.flights.size() + " flights, " + manager.users.size() + " users, "
+				+ manager.flightDaemons.size() + " daemons in " + ms(begin) + " ms");
+
+		long save = Long.MAX_VALUE;
+		for (int round = 0; round < ROUNDS; round++) {
+			touchAll(manager);
+			begin = System.nanoTime();
+			manager.saveData();
+			save = Math.min(save, ms(begin));
+		}
+		Random random = new Random(1);
+		long changed = Long.MAX_VALUE;
+		for (int round = 0; round < ROUNDS; round++) {
+			book(manager, passengers, random, count / 100);
+			begin = System.nanoTime();
+			manager.saveData();
+			changed = Math.min(changed, ms(begin));
+		}
+		final File ser = new File("bench.ser");
+		final Data data = new Data();
+		data.readIn(manager.users, manager.flights, manager.cities, manager.flightDaemons);
+		long write = onLargeStack(new Round() {
+
+			@Override
+			void run() throws Exception {
+				ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(ser)));
+				out.writeObject(data);
+				out.close();
+			}
+		});
+		manager.stop();
+
+		long load = Long.MAX_VALUE;
+		for (int round = 0; round < ROUNDS; round++) {
+			begin = System.nanoTime();
+			manager = new DataManager();
+			load = Math.min(load, ms(begin));
+			manager.stop();
+		}
+		long read = onLargeStack(new Round() {
+
+			@Override
+			void run() throws Exception {
+				ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(ser)));
+				in.readObject();
+				in.close();
+			}
+		});
+		System.out.println("best of " + ROUNDS + ", ms\tsave\tsave 1%\tload\tsize KB");
+		System.out.println("store\t\t" + save + "\t" + changed + "\t" + load + "\t" + size(new File("data.store")) / 1024);
+		System.out.println("serialization\t" + write + "\t" + write + "\t" + read + "\t" + ser.length() / 1024);
+	}
+
+	/**
+	 * a timed step of the serialization
+	 */
+	private static abstract class Round {
+		abstract void run() throws Exception;
+	}
+
+	/**
+	 * @return the best time of the rounds, ms
+	 */
+	private static long onLargeStack(final Round round) throws Exception {
+		final long[] best = { Long.MAX_VALUE };
+		final Exception[] error = new Exception[1];
+		Thread thread = new Thread(null, new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					for (int i = 0; i < ROUNDS; i++) {
+						long begin = System.nanoTime();
+						round.run();
+						best[0] = Math.min(best[0], ms(begin));
+					}
+				} catch (Exception e) {
+					error[0] = e;
+				}
+			}
+		}, "serialization", STACK);
+		thread.start();
+		thread.join();
+		if (error[0] != null) {
+			throw error[0];
+		}
+		return best[0];
+	}
+
+	/**
+	 * cities, daemons and their flights, and passengers booking them
+	 */
+	private static ArrayList<Passenger> fill(DataManager manager, int count, int each) {
+		for (int i = manager.cities.size(); i < CITIES; i++) {
+			manager.addCity("City" + i);
+		}
+		ArrayList<City> cities = manager.getCities();
+		long start = new Date().getTime() + DAY;
+		for (int i = 0; i < DAEMONS; i++) {
+			manager.addFlightDaemon("B" + i, new Date(start + i * 60000l), new Date(start + i * 60000l + 7200000l),
+					(int) DAY, cities.get(i % CITIES), cities.get((i * 7 + 1) % CITIES), 500 + i % 500, 200, 1000);
+		}
+		manager.new CreateFlight().run();
+		ArrayList<Passenger> passengers = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			Passenger passenger = manager.addPassenger("bench" + i, "bench" + i, "bench");
+			passengers.add(passenger != null ? passenger : (Passenger) manager.getUserByName("bench" + i));
+		}
+		Random random = new Random(0);
+		for (int i = 0; i < each; i++) {
+			book(manager, passengers, random, count);
+		}
+		return passengers;
+	}
+
+	/**
+	 * some random bookings, a refused one is not tried again
+	 */
+	private static void book(DataManager manager, ArrayList<Passenger> passengers, Random random, int count) {
+		ArrayList<Flight> flights = manager.getFlights();
+		for (int i = 0; i < count; i++) {
+			try {
+				manager.reserveFlight(passengers.get(random.nextInt(passengers.size())),
+						flights.get(random.nextInt(flights.size())));
+			} catch (StatusUnavailableException e) { /* full or booked already */ }
+		}
+	}
+
+	/**
+	 * every entity changed, so a checkpoint writes them all
+	 */
+	private static void touchAll(DataManager manager) {
+		for (User user : manager.users) {
+			user.touch();
+			if (user instanceof Passenger) {
+				for (Order order : ((Passenger) user).orderList) {
+					order.touch();
+				}
+			}
+		}
+		for (Flight flight : manager.flights) {
+			flight.touch();
+		}
+		for (City city : manager.cities) {
+			city.touch();
+		}
+		for (FlightDaemon daemon : manager.flightDaemons) {
+			daemon.touch();
+		}
+	}
+
+	private static long ms(long begin) {
+		return (System.nanoTime() - begin) / 1000000;
+	}
+
+	private static long size(File file) {
+		if (file.isFile()) {
+			return file.length();
+		}
+		long size = 0;
+		File[] files = file.listFiles();
+		for (int i = 0; files != null && i < files.length; i++) {
+			size += size(files[i]);
+		}
+		return size;
+	}
+
+}
@@ -0,0 +1,302 @@
+package data;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import exceptions.StatusUnavailableException;
+
+/**
+ * Bookings, cancels, searches and daemon changes on one DataManager at once, then a check of what they left
+ * no flight sold over its seats, no seat given twice, FULL only when every seat is taken,
+ * and the orders of the passengers and the passengers of the flights agree
+ * run it in an empty directory, it keeps its data there, it exits with 1 if a check fails:
+ * java -cp bin:bench-bin data.Stress [seconds] [bookers] [searchers]
+ */
+public class Stress {
+
+	private static final int PASSENGERS = 2000;
+	private static final int DAEMONS = 20;
+	private static final int SEATS = 10; // few, so flights fill and free again all the time
+	private static final long DAY = 24 * 3600 * 1000l;
+
+	private final DataManager manager = new DataManager();
+	private final ArrayList<Passenger> passengers = new ArrayList<>();
+	private volatile ArrayList<Flight> flights; // the stress flights, searched again now and then
+	private volatile boolean running = true;
+	private final AtomicLong bookings = new AtomicLong();
+	private final AtomicLong refused = new AtomicLong();
+	private final AtomicLong cancels = new AtomicLong();
+	private final AtomicLong searches = new AtomicLong();
+	private final AtomicLong changes = new AtomicLong();
+	private final AtomicInteger errors = new AtomicInteger(); // unexpected exceptions
+	private int failures; // broken checks
+
+	public static void main(String[] args) throws Exception {
+		int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+		int bookers = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+		int searchers = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+		Stress stress = new Stress();
+		stress.setUp();
+		stress.run(seconds, bookers, searchers);
+		stress.check();
+		stress.manager.stop();
+		System.exit(stress.failures == 0 && stress.errors.get() == 0 ? 0 : 1);
+	}
+
+	private void setUp() {
+		for (int i = 0; i < PASSENGERS; i++) {
+			Passenger passenger = manager.addPassenger("stress" + i, "stress" + i, "stress");
+			passengers.add(passenger != null ? passenger : (Passenger) manager.getUserByName("stress" + i));
+		}
+		for (int i = 0; i < DAEMONS; i++) {
+			addDaemon(i);
+		}
+		manager.new CreateFlight().run();
+		flights = manager.getFlightsNamed("STRESS");
+	}
+
+	private FlightDaemon addDaemon(int i) {
+		ArrayList<City> cities = manager.getCities();
+		long start = new Date().getTime() + 3 * DAY + i * 60000l;
+		return manager.addFlightDaemon("STRESS" + i, new Date(start), new Date(start + 2 * 3600 * 1000l), (int) DAY,
+				cities.get(i % cities.size()), cities.get((i + 1) % cities.size()), 100, SEATS, 100);
+	}
+
+	private void run(int seconds, int bookers, int searchers) throws InterruptedException {
+		ArrayList<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < bookers; i++) {
+			threads.add(new Booker(i));
+		}
+		for (int i = 0; i < searchers; i++) {
+			threads.add(new Searcher(i));
+		}
+		threads.add(new Changer());
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		Thread.sleep(seconds * 1000l);
+		running = false;
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		System.out.println(seconds + " s: " + bookings + " bookings, " + refused + " refused, " + cancels + " cancels, "
+				+ searches + " searches, " + changes + " changes, " + errors + " unexpected exceptions");
+	}
+
+	private void error(Throwable e) {
+		if (errors.incrementAndGet() <= 5) {
+			System.out.println("Unexpected: " + e);
+			e.printStackTrace(System.out);
+		}
+	}
+
+	/**
+	 * books a random flight for a random passenger, or cancels one of its orders
+	 */
+	private class Booker extends Thread {
+		private final Random random;
+
+		Booker(int i) {
+			super("booker-" + i);
+			random = new Random(i);
+		}
+
+		@Override
+		public void run() {
+			while (running) {
+				Passenger passenger = passengers.get(random.nextInt(passengers.size()));
+				try {
+					if (random.nextInt(3) == 0) {
+						ArrayList<Order> orders = passenger.getOrderList();
+						int index = orders.isEmpty() ? -1 : random.nextInt(orders.size());
+						if (index >= 0 && !orders.get(index).isCancle()) {
+							manager.cancel(passenger, index);
+							cancels.incrementAndGet();
+						}
+					} else {
+						ArrayList<Flight> flights = Stress.this.flights;
+						manager.reserveFlight(passenger, flights.get(random.nextInt(flights.size())));
+						bookings.incrementAndGet();
+					}
+				} catch (StatusUnavailableException e) {
+					refused.incrementAndGet(); // full, or booked already
+				} catch (RuntimeException e) {
+					error(e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * runs every kind of search and reads what it finds
+	 */
+	private class Searcher extends Thread {
+		private final Random random;
+
+		Searcher(int i) {
+			super("searcher-" + i);
+			random = new Random(100 + i);
+		}
+
+		@Override
+		public void run() {
+			while (running) {
+				try {
+					ArrayList<City> cities = manager.getCities();
+					ArrayList<Flight> found;
+					long now = new Date().getTime();
+					switch (random.nextInt(4)) {
+					case 0:
+						found = manager.getFlightsLeaving(cities.get(random.nextInt(cities.size())),
+								cities.get(random.nextInt(cities.size())), now, now + 30 * DAY);
+						break;
+					case 1:
+						found = manager.getFlightsNamed("STRESS" + random.nextInt(DAEMONS));
+						break;
+					case 2:
+						found = manager.getFlightsLeaving(now, now + 7 * DAY);
+						break;
+					default:
+						found = new ArrayList<>();
+						Flight flight = manager.getFlightByID(flights.get(random.nextInt(flights.size())).getFlightID());
+						if (flight != null) {
+							found.add(flight);
+						}
+						break;
+					}
+					int seats = 0;
+					for (Flight flight : found) {
+						seats += flight.getRemainingSeats() + flight.getFlightName().length();
+					}
+					if (seats < 0) {
+						System.out.println("Negative seats left");
+					}
+					searches.incrementAndGet();
+					if (random.nextInt(50) == 0) {
+						flights = manager.getFlightsNamed("STRESS");
+					}
+				} catch (ConcurrentModificationException e) {
+					error(e);
+				} catch (RuntimeException e) {
+					error(e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * the writers: new daemons, their flights created, prices and capacities changed
+	 */
+	private class Changer extends Thread {
+		private final Random random = new Random(200);
+
+		Changer() {
+			super("changer");
+		}
+
+		@Override
+		public void run() {
+			int added = DAEMONS;
+			while (running) {
+				try {
+					ArrayList<Flight> flights = Stress.this.flights;
+					FlightDaemon daemon = flights.get(random.nextInt(flights.size())).flightDaemon;
+					switch (random.nextInt(4)) {
+					case 0:
+						addDaemon(added++);
+						manager.new CreateFlight().run();
+						break;
+					case 1:
+						if (daemon != null) {
+							manager.changeFlightDaemon(daemon, "capacity", String.valueOf(daemon.getSeatCapacity() + 1));
+						}
+						break;
+					default:
+						if (daemon != null) {
+							manager.changeFlightDaemon(daemon, "price", String.valueOf(100 + random.nextInt(900)));
+						}
+						break;
+					}
+					changes.incrementAndGet();
+					Thread.sleep(1);
+				} catch (InterruptedException e) {
+					return;
+				} catch (RuntimeException e) {
+					error(e);
+				}
+			}
+		}
+	}
+
+	private void fail(String message) {
+		if (++failures <= 10) {
+			System.out.println("FAILED: " + message);
+		}
+	}
+
+	/**
+	 * every thread has ended, nothing changes any more
+	 */
+	private void check() {
+		int booked = 0;
+		int full = 0;
+		for (Flight flight : manager.getFlights()) {
+			Map<Passenger, Integer> seats = flight.getPassagers();
+			if (seats.isEmpty()) {
+				continue;
+			}
+			booked++;
+			int capacity = flight.getSeatCapacity();
+			if (seats.size() > capacity) {
+				fail(flight.getFlightName() + " sold " + seats.size() + " of " + capacity + " seats");
+			}
+			HashSet<Integer> given = new HashSet<>();
+			for (Map.Entry<Passenger, Integer> entry : seats.entrySet()) {
+				int seat = entry.getValue();
+				if (seat < 1 || seat > capacity || !given.add(seat)) {
+					fail(flight.getFlightName() + " gave seat " + seat + " twice or out of " + capacity);
+				}
+				int open = 0;
+				for (Order order : entry.getKey().getOrderList()) {
+					if (order.getFlight() == flight && !order.isCancle()) {
+						open++;
+					}
+				}
+				if (open != 1) {
+					fail(entry.getKey().getUserName() + " is on " + flight.getFlightName() + " with " + open + " orders");
+				}
+			}
+			if (flight.flightStatusIsFull()) {
+				full++;
+			}
+			if (flight.flightStatusIsFull() != (seats.size() >= capacity)) {
+				fail(flight.getFlightName() + " is " + flight.getFlightStatus() + " with " + seats.size() + " of "
+						+ capacity + " seats");
+			}
+		}
+		int orders = 0;
+		for (Passenger passenger : passengers) {
+			for (Order order : passenger.getOrderList()) {
+				if (order.isCancle() || !order.existFlight()) {
+					continue;
+				}
+				orders++;
+				Flight flight = manager.getFlightByID(order.getFlight().getFlightID());
+				if (flight != order.getFlight()) {
+					fail("an order of " + passenger.getUserName() + " is for a flight no longer kept");
+				} else if (!flight.getPassagers().containsKey(passenger)) {
+					fail(passenger.getUserName() + " has an order for " + flight.getFlightName() + " without a seat");
+				}
+			}
+		}
+		System.out.println("checked " + booked + " booked flights (" + full + " full) and " + orders + " open orders: "
+				+ (failures == 0 ? "ok" : failures + " failures"));
+	}
+
+}
@@ -0,0 +1,251 @@
+package main;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Load on the HTTP API from clients on the loopback interface, each a passenger
+ * searching a route, booking one of the flights found and cancelling it again
+ * reports the requests per second and the latencies of each kind, p99 included
+ * without a URL it serves a MainServer of its own on a free port, run it in an empty directory then:
+ * java -cp bin:bench-bin main.HttpLoad [seconds] [clients] [url]
+ */
+public class HttpLoad {
+
+	private static final Pattern ID = Pattern.compile("\"id\":(\\d+),\"name\":\"([^\"]*)\"");
+	private static final Pattern ROUTE = Pattern.compile("\"startCity\":\"([^\"]*)\",\"arriveCity\":\"([^\"]*)\"");
+	private static final Pattern AVAILABLE = Pattern.compile("\\{\"id\":(\\d+),[^{}]*\"status\":\"AVAILABLE\"\\}");
+	private static final Pattern TOKEN = Pattern.compile("\"token\":\"([0-9a-f]+)\"");
+	private static final String[] KINDS = { "search", "reserve", "cancel" };
+
+	private final String base;
+	private final ArrayList<String> routes = new ArrayList<>(); // from=..&to=.. of the daemons
+	private volatile boolean running = true;
+	private final AtomicLong refused = new AtomicLong(); // 409, full or booked already
+	private final AtomicLong errors = new AtomicLong();
+
+	private HttpLoad(String base) {
+		this.base = base;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+		int clients = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+		System.setProperty("http.maxConnections", String.valueOf(clients)); // a kept connection for each
+		MainServer server = null;
+		HttpApi api = null;
+		String base;
+		if (args.length > 2) {
+			base = args[2];
+		} else {
+			server = new MainServer();
+			api = new HttpApi(server);
+			api.start(0);
+			base = "http://127.0.0.1:" + api.getPort();
+		}
+		try {
+			new HttpLoad(base).run(seconds, clients);
+		} finally {
+			if (api != null) {
+				api.stop();
+				server.stop();
+			}
+		}
+		System.exit(0);
+	}
+
+	private void run(int seconds, int clients) throws Exception {
+		HashMap<String, String> cities = new HashMap<>(); // ID by name
+		Matcher matcher = ID.matcher(request("GET", "/cities", null, null).body);
+		while (matcher.find()) {
+			cities.put(matcher.group(2), matcher.group(1));
+		}
+		matcher = ROUTE.matcher(request("GET", "/daemons", null, null).body);
+		while (matcher.find()) {
+			routes.add("from=" + cities.get(matcher.group(1)) + "&to=" + cities.get(matcher.group(2)));
+		}
+		if (routes.isEmpty()) {
+			System.out.println("No daemons to search on " + base);
+			return;
+		}
+		Client[] threads = new Client[clients];
+		String run = Long.toString(System.currentTimeMillis(), 36);
+		for (int i = 0; i < clients; i++) {
+			threads[i] = new Client(i, "load" + run + "_" + i);
+		}
+		for (Client client : threads) {
+			client.login();
+		}
+		long begin = System.nanoTime();
+		for (Client client : threads) {
+			client.start();
+		}
+		Thread.sleep(seconds * 1000l);
+		running = false;
+		for (Client client : threads) {
+			client.join();
+		}
+		double time = (System.nanoTime() - begin) / 1e9;
+		long total = 0;
+		System.out.println(clients + " clients, " + seconds + " s on " + base);
+		System.out.println("kind\tcount\treq/s\tp50 ms\tp99 ms\tmax ms");
+		for (int kind = 0; kind < KINDS.length; kind++) {
+			Latencies all = new Latencies();
+			for (Client client : threads) {
+				all.addAll(client.latencies[kind]);
+			}
+			total += all.size;
+			System.out.println(KINDS[kind] + "\t" + all.size + "\t" + (long) (all.size / time) + "\t" + all.percentile(50)
+					+ "\t" + all.percentile(99) + "\t" + all.percentile(100));
+		}
+		System.out.println("all\t" + total + "\t" + (long) (total / time) + "\t" + refused + " refused, " + errors
+				+ " errors");
+	}
+
+	/**
+	 * a passenger of its own, logged in before the clock starts
+	 */
+	private class Client extends Thread {
+		private final Random random;
+		private final String name;
+		private String token;
+		private int orders; // the index of the next order
+		private final Latencies[] latencies = { new Latencies(), new Latencies(), new Latencies() };
+
+		Client(int i, String name) {
+			super("client-" + i);
+			this.name = name;
+			random = new Random(i);
+		}
+
+		void login() throws IOException {
+			request("POST", "/register", null, "userName=" + name + "&idNumber=" + name + "&password=load");
+			Response response = request("POST", "/login", null, "userName=" + name + "&password=load");
+			Matcher matcher = TOKEN.matcher(response.body);
+			if (!matcher.find()) {
+				throw new IOException("Login failed: " + response.body);
+			}
+			token = matcher.group(1);
+		}
+
+		@Override
+		public void run() {
+			while (running) {
+				try {
+					Response search = timed(0, "GET", "/search?" + routes.get(random.nextInt(routes.size())), null);
+					ArrayList<String> flights = new ArrayList<>();
+					Matcher matcher = AVAILABLE.matcher(search.body);
+					while (matcher.find()) {
+						flights.add(matcher.group(1));
+					}
+					if (flights.isEmpty()) {
+						continue;
+					}
+					Response reserve = timed(1, "POST", "/reserve", "flight=" + flights.get(random.nextInt(flights.size())));
+					if (reserve.status == 200) {
+						timed(2, "POST", "/cancel", "index=" + orders++);
+					}
+				} catch (IOException e) {
+					if (errors.incrementAndGet() <= 5) {
+						System.out.println("Request failed: " + e);
+					}
+				}
+			}
+		}
+
+		private Response timed(int kind, String method, String path, String body) throws IOException {
+			long begin = System.nanoTime();
+			Response response = request(method, path, token, body);
+			latencies[kind].add(System.nanoTime() - begin);
+			if (response.status == 409) {
+				refused.incrementAndGet();
+			} else if (response.status != 200) {
+				throw new IOException(method + " " + path + ": " + response.status + " " + response.body);
+			}
+			return response;
+		}
+	}
+
+	private static class Response {
+		int status;
+		String body;
+	}
+
+	/**
+	 * the body is read to the end, so the connection is kept for the next request
+	 */
+	private Response request(String method, String path, String token, String body) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(base + path).openConnection();
+		connection.setRequestMethod(method);
+		if (token != null) {
+			connection.setRequestProperty(HttpApi.SESSION, token);
+		}
+		if (body != null) {
+			connection.setDoOutput(true);
+			connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+			OutputStream out = connection.getOutputStream();
+			out.write(body.getBytes(StandardCharsets.UTF_8));
+			out.close();
+		}
+		Response response = new Response();
+		response.status = connection.getResponseCode();
+		InputStream in = response.status < 400 ? connection.getInputStream() : connection.getErrorStream();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		if (in != null) {
+			byte[] buffer = new byte[8192];
+			for (int n; (n = in.read(buffer)) > 0;) {
+				bytes.write(buffer, 0, n);
+			}
+			in.close();
+		}
+		response.body = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+		return response;
+	}
+
+	/**
+	 * request times, ns
+	 */
+	private static class Latencies {
+		private long[] times = new long[1024];
+		private int size;
+
+		void add(long time) {
+			if (size == times.length) {
+				times = Arrays.copyOf(times, size * 2);
+			}
+			times[size++] = time;
+		}
+
+		void addAll(Latencies other) {
+			for (int i = 0; i < other.size; i++) {
+				add(other.times[i]);
+			}
+		}
+
+		/**
+		 * @return ms with a decimal, 0 if none
+		 */
+		double percentile(int percent) {
+			if (size == 0) {
+				return 0;
+			}
+			long[] sorted = Arrays.copyOf(times, size);
+			Arrays.sort(sorted);
+			int i = Math.min(size - 1, Math.max(0, (int) Math.ceil(size * percent / 100.0) - 1));
+			return Math.round(sorted[i] / 100000.0) / 10.0;
+		}
+	}
+
+}
@@ -12,6 +12,7 @@ public class Admin extends User {
 		this.userID = User.ID;
 		User.ID++;
 		passHash = hashPass(password);
+		touch();
 	}
 	
 }
@@ -0,0 +1,389 @@
+package data;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+/**
+ * Append-only archive of flights terminated longer than the retention ago
+ * there is one file per month of departure, "archive.yyyymm", holding rows
+ * in the FlightTable layout; a checkpoint only appends to it and the manifest
+ * says how many rows are committed, so rows of a checkpoint that failed are
+ * cut off before the next append
+ * files are mapped when a lookup or a date query first needs them, a file
+ * written with a codec holds compressed blocks of rows and is inflated instead
+ */
+public class Archive {
+
+	public static final String TYPE = "archive";
+
+	private DataManager manager;
+	private File dir;
+	private TreeMap<Integer, Part> parts = new TreeMap<>(); // by month
+	private ArrayList<Segment.FlightRecord> pending = new ArrayList<>(); // archived, not written yet
+	private HashMap<Integer, Flight> loaded = new HashMap<>(); // created so far, by ID
+
+	/**
+	 * one month of the archive
+	 */
+	private static class Part {
+		Manifest.Entry entry;
+		ByteBuffer buffer; // null until mapped
+		int start; // offset of the first row
+		int width;
+		int[] ids; // sorted, with the offset of each row, built on the first lookup
+		int[] rows;
+	}
+
+	/**
+	 * rows to append to one month file
+	 */
+	static class Append {
+		int month;
+		String file;
+		int from; // rows committed before
+		ArrayList<Segment.FlightRecord> records = new ArrayList<>();
+	}
+
+	Archive(DataManager manager, File dir) {
+		this.manager = manager;
+		this.dir = dir;
+	}
+
+	/**
+	 * take the months listed in a manifest, nothing is read yet
+	 */
+	synchronized void open(Manifest manifest) {
+		parts.clear();
+		for (Map.Entry<String, Manifest.Entry> entry : manifest.segments.entrySet()) {
+			if (entry.getKey().startsWith(TYPE + ".")) {
+				Part part = new Part();
+				part.entry = entry.getValue();
+				parts.put(Integer.parseInt(entry.getKey().substring(TYPE.length() + 1)), part);
+			}
+		}
+	}
+
+	/**
+	 * archive a flight, the Flight is kept if something still refers to it
+	 */
+	synchronized void add(Segment.FlightRecord record, Flight flight) {
+		pending.add(record);
+		if (flight != null) {
+			loaded.put(record.id, flight);
+		}
+	}
+
+	/**
+	 * group the archived flights not written yet by month and put the
+	 * grown entries in the manifest of a checkpoint
+	 */
+	synchronized ArrayList<Append> capture(Manifest manifest) {
+		TreeMap<Integer, Append> appends = new TreeMap<>();
+		for (Segment.FlightRecord record : pending) {
+			int month = month(record.startTime);
+			Append append = appends.get(month);
+			if (append == null) {
+				append = new Append();
+				append.month = month;
+				append.file = Segment.name(TYPE, month);
+				Manifest.Entry entry = manifest.segments.get(append.file);
+				append.from = entry == null ? 0 : entry.count;
+				appends.put(month, append);
+			}
+			append.records.add(record);
+		}
+		for (Append append : appends.values()) {
+			Manifest.Entry entry = manifest.segments.get(append.file);
+			int low = entry == null ? Integer.MAX_VALUE : entry.low;
+			int high = entry == null ? Integer.MIN_VALUE : entry.high;
+			for (Segment.FlightRecord record : append.records) {
+				low = Math.min(low, record.id);
+				high = Math.max(high, record.id);
+			}
+			manifest.segments.put(append.file,
+					new Manifest.Entry(append.file, append.from + append.records.size(), low, high));
+		}
+		return new ArrayList<>(appends.values());
+	}
+
+	/**
+	 * append rows to a month file, after cutting off what is beyond the committed rows,
+	 * in the codec the file was started with
+	 * @return CRC32 of the file
+	 */
+	static long append(File dir, Append append) throws IOException {
+		return append(dir, append, Codec.COMPRESSION);
+	}
+
+	/**
+	 * @param codec for a month file this append starts
+	 */
+	static long append(File dir, Append append, byte codec) throws IOException {
+		File file = new File(dir, append.file);
+		if (append.from == 0 || !file.exists()) {
+			Codec.writeSegment(file, new Segment(append.file), codec); // header only, the manifest keeps the count
+		}
+		long committed;
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			codec = Codec.checkSegment(buffer, file);
+			buffer.getInt(); // count
+			int width = buffer.getInt();
+			committed = end(buffer, buffer.position(), width, codec, append.from, file);
+		} finally {
+			channel.close();
+		}
+		RandomAccessFile random = new RandomAccessFile(file, "rw");
+		try {
+			random.setLength(committed);
+		} finally {
+			random.close();
+		}
+		FileOutputStream output = new FileOutputStream(file, true);
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output));
+			Codec.writeBlocks(out, codec, append.records, false);
+			out.flush();
+			output.getFD().sync();
+		} finally {
+			output.close();
+		}
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			return Codec.crc(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), channel.size());
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * the appends are in the manifest now, forget them and the mappings they outgrew
+	 * together they hold the first records of pending, those captured, since
+	 * checkpoints do not overlap and later flights are added after them
+	 */
+	synchronized void commit(Manifest manifest, ArrayList<Append> appends) {
+		int written = 0;
+		for (Append append : appends) {
+			written += append.records.size();
+		}
+		pending.subList(0, Math.min(written, pending.size())).clear();
+		for (Append append : appends) {
+			Part part = new Part();
+			part.entry = manifest.segments.get(append.file);
+			parts.put(append.month, part);
+		}
+		ArrayList<Integer> idle = new ArrayList<>();
+		for (Map.Entry<Integer, Flight> entry : loaded.entrySet()) {
+			if (entry.getValue().getPassagersSize() == 0) {
+				idle.add(entry.getKey());
+			}
+		}
+		for (int id : idle) {
+			loaded.remove(id);
+		}
+	}
+
+	/**
+	 * @return the archived flight with the ID, null if it is not archived
+	 */
+	public synchronized Flight get(int id) {
+		Flight flight = loaded.get(id);
+		if (flight != null) {
+			return flight;
+		}
+		for (Segment.FlightRecord record : pending) {
+			if (record.id == id) {
+				return cache(record);
+			}
+		}
+		for (Part part : parts.values()) {
+			if (id < part.entry.low || id > part.entry.high) {
+				continue;
+			}
+			try {
+				index(part);
+			} catch (IOException e) {
+				System.err.println("Reading archive failed: " + e.getMessage());
+				continue;
+			}
+			int low = 0;
+			int high = part.ids.length - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				if (part.ids[mid] < id) {
+					low = mid + 1;
+				} else if (part.ids[mid] > id) {
+					high = mid - 1;
+				} else {
+					return cache(Segment.FlightRecord.read(part.buffer, part.rows[mid]));
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * archived flights leaving between the two times, only the months in between are read
+	 */
+	public synchronized ArrayList<Flight> search(long from, long to) {
+		ArrayList<Flight> flights = new ArrayList<>();
+		NavigableMap<Integer, Part> range = parts;
+		if (from > Long.MIN_VALUE) {
+			range = range.tailMap(month(from), true);
+		}
+		if (to < Long.MAX_VALUE) {
+			range = range.headMap(month(to), true);
+		}
+		for (Part part : range.values()) {
+			try {
+				map(part);
+			} catch (IOException e) {
+				System.err.println("Reading archive failed: " + e.getMessage());
+				continue;
+			}
+			for (int i = 0, row = part.start; i < part.entry.count; i++, row += part.width) {
+				long start = part.buffer.getLong(row + 4);
+				if (start >= from && start <= to) {
+					flights.add(peek(Segment.FlightRecord.read(part.buffer, row)));
+				}
+			}
+		}
+		for (Segment.FlightRecord record : pending) {
+			if (record.startTime >= from && record.startTime <= to) {
+				flights.add(peek(record));
+			}
+		}
+		return flights;
+	}
+
+	public synchronized int size() {
+		int size = pending.size();
+		for (Part part : parts.values()) {
+			size += part.entry.count;
+		}
+		return size;
+	}
+
+	private Flight cache(Segment.FlightRecord record) {
+		Flight flight = FlightTable.create(manager, record);
+		loaded.put(record.id, flight);
+		return flight;
+	}
+
+	private Flight peek(Segment.FlightRecord record) {
+		Flight flight = loaded.get(record.id);
+		return flight != null ? flight : FlightTable.create(manager, record);
+	}
+
+	private void map(Part part) throws IOException {
+		if (part.buffer != null) {
+			return;
+		}
+		File file = new File(dir, part.entry.file);
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			byte codec = Codec.checkSegment(buffer, file);
+			buffer.getInt(); // count, the manifest has the committed one
+			int width = buffer.getInt();
+			int start = buffer.position();
+			if (width < FlightTable.ROW) {
+				throw new IOException(file + " has a bad row width");
+			}
+			long end = end(buffer, start, width, codec, part.entry.count, file);
+			Codec.check(Codec.crc(buffer, end), part.entry.crc, file);
+			if (codec != Codec.NONE) {
+				ByteBuffer rows = ByteBuffer.allocate(part.entry.count * width);
+				for (int position = start; position < end;) {
+					byte[] compressed = new byte[buffer.getInt(position + 8)];
+					buffer.position(position + 12);
+					buffer.get(compressed);
+					rows.put(Codec.decompress(codec, compressed, buffer.getInt(position + 4)));
+					position += 12 + compressed.length;
+				}
+				buffer = rows;
+				start = 0;
+			}
+			part.width = width;
+			part.start = start;
+			part.buffer = buffer;
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * @return offset just past the first count rows of a month file, which start at the offset
+	 * @throws IOException if the file has fewer rows
+	 */
+	private static long end(ByteBuffer buffer, int start, int width, byte codec, int count, File file)
+			throws IOException {
+		if (codec == Codec.NONE) {
+			if (buffer.limit() - start < (long) count * width) {
+				throw new IOException(file + " is truncated");
+			}
+			return start + (long) count * width;
+		}
+		int rows = 0;
+		int position = start;
+		while (rows < count) {
+			if (buffer.limit() - position < 12) {
+				throw new IOException(file + " is truncated");
+			}
+			rows += buffer.getInt(position);
+			position += 12 + buffer.getInt(position + 8); // rows, length, compressed length
+		}
+		if (rows != count || position > buffer.limit()) {
+			throw new IOException(file + " is truncated or has a bad block");
+		}
+		return position;
+	}
+
+	/**
+	 * rows are appended in departure order, sort their IDs once for lookups
+	 */
+	private void index(Part part) throws IOException {
+		if (part.ids != null) {
+			return;
+		}
+		map(part);
+		long[] pairs = new long[part.entry.count];
+		for (int i = 0, row = part.start; i < pairs.length; i++, row += part.width) {
+			pairs[i] = (long) part.buffer.getInt(row) << 32 | row;
+		}
+		Arrays.sort(pairs);
+		part.ids = new int[pairs.length];
+		part.rows = new int[pairs.length];
+		for (int i = 0; i < pairs.length; i++) {
+			part.ids[i] = (int) (pairs[i] >> 32);
+			part.rows[i] = (int) pairs[i];
+		}
+	}
+
+	/**
+	 * @return yyyymm of a time, in the time zone of Flight.calendar
+	 */
+	static int month(long time) {
+		Calendar calendar = new GregorianCalendar(TimeZone.getTimeZone("GMT+8:00"));
+		calendar.setTimeInMillis(time);
+		return calendar.get(Calendar.YEAR) * 100 + calendar.get(Calendar.MONTH) + 1;
+	}
+
+}
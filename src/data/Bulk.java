@@ -0,0 +1,499 @@
+package data;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Bulk import and export of cities, flight daemons and passengers
+ * a CSV file has one record per line, its kind first:
+ *   city,name
+ *   daemon,name,startTime,arriveTime,period,startCity,arriveCity,price,seatCapacity,distance
+ *   passenger,userName,identityID,password,passHash
+ * a JSON-lines file has one flat object per line with "kind" and the same fields
+ * times are yyyy-mm-dd-hh-mm-ss like ControllerFlight reads them, the period is in days,
+ * cities are given by name or ID, a password is hashed and a passHash is kept as it is
+ * lines are parsed one at a time, the batch is checked as a whole against
+ * the data and applied only when every line is valid, see DataManager.importBatch
+ */
+public class Bulk {
+
+	public static final String CITY = "city";
+	public static final String DAEMON = "daemon";
+	public static final String PASSENGER = "passenger";
+	private static final String[] CITY_FIELDS = { "name" };
+	private static final String[] DAEMON_FIELDS = { "name", "startTime", "arriveTime", "period", "startCity",
+			"arriveCity", "price", "seatCapacity", "distance" };
+	private static final String[] PASSENGER_FIELDS = { "userName", "identityID", "password", "passHash" };
+	private static final long DAY = 24 * 3600 * 1000l;
+
+	private ArrayList<Item> items = new ArrayList<>();
+	private ArrayList<String> errors = new ArrayList<>();
+
+	/**
+	 * one line of a file
+	 */
+	static class Item {
+		int line;
+		String kind;
+		HashMap<String, String> fields = new HashMap<>();
+		City startCity; // resolved by check
+		City arriveCity;
+		boolean skip; // a city that exists already
+
+		String get(String field) {
+			String value = fields.get(field);
+			return value == null ? "" : value;
+		}
+
+		int getInt(String field) {
+			return Integer.parseInt(get(field).trim());
+		}
+	}
+
+	/**
+	 * @return whether the file is read and written as JSON lines, from its extension
+	 */
+	public static boolean isJson(String file) {
+		return file.endsWith(".json") || file.endsWith(".jsonl");
+	}
+
+	/**
+	 * parse a file, syntax errors are kept with their line and nothing is checked against the data yet
+	 */
+	public static Bulk read(Reader reader, boolean json) throws IOException {
+		Bulk bulk = new Bulk();
+		BufferedReader in = new BufferedReader(reader);
+		String text;
+		int line = 0;
+		while ((text = in.readLine()) != null) {
+			line++;
+			if (text.trim().isEmpty() || (!json && text.startsWith("#"))) {
+				continue;
+			}
+			try {
+				Item item = json ? parseJson(text) : parseCsv(text);
+				item.line = line;
+				bulk.items.add(item);
+			} catch (IllegalArgumentException e) {
+				bulk.errors.add("line " + line + ": " + e.getMessage());
+			}
+		}
+		return bulk;
+	}
+
+	public int size() {
+		return items.size();
+	}
+
+	public ArrayList<String> getErrors() {
+		return errors;
+	}
+
+	/**
+	 * check every item against the data and the items before it,
+	 * cities are looked up in maps built once for the batch
+	 * @return whether the batch can be applied
+	 */
+	boolean check(DataManager manager) {
+		HashMap<String, City> byName = new HashMap<>();
+		HashMap<Integer, City> byID = new HashMap<>();
+		for (City city : manager.cities) {
+			byName.put(city.getCityName(), city);
+			byID.put(city.getCityID(), city);
+		}
+		HashSet<String> userNames = new HashSet<>();
+		for (User user : manager.users) {
+			userNames.add(user.getUserName());
+		}
+		HashSet<String> newCities = new HashSet<>();
+		for (Item item : items) {
+			try {
+				switch (item.kind) {
+				case CITY:
+					String name = item.get("name");
+					if (name.isEmpty()) {
+						throw new IllegalArgumentException("city without a name");
+					}
+					item.skip = byName.containsKey(name) || !newCities.add(name);
+					break;
+				case DAEMON:
+					if (!FlightTable.fits(item.get("name")) || item.get("name").isEmpty()) {
+						throw new IllegalArgumentException("flight name empty or longer than " + FlightTable.NAME + " bytes");
+					}
+					Date start = toDate(item.get("startTime"));
+					Date arrive = toDate(item.get("arriveTime"));
+					if (!arrive.after(start)) {
+						throw new IllegalArgumentException("arrive time not after start time");
+					}
+					if (item.getInt("period") <= 0 || item.getInt("period") > Integer.MAX_VALUE / DAY
+							|| item.getInt("price") < 0 || item.getInt("seatCapacity") <= 0 || item.getInt("distance") < 0) {
+						throw new IllegalArgumentException("period, price, seat capacity or distance out of range");
+					}
+					item.startCity = city(item.get("startCity"), byName, byID, newCities);
+					item.arriveCity = city(item.get("arriveCity"), byName, byID, newCities);
+					if (item.startCity != null ? item.startCity == item.arriveCity
+							: item.get("startCity").equals(item.get("arriveCity"))) {
+						throw new IllegalArgumentException("start city is the arrive city");
+					}
+					break;
+				case PASSENGER:
+					if (item.get("userName").isEmpty() || !userNames.add(item.get("userName"))) {
+						throw new IllegalArgumentException("user name empty or taken: " + item.get("userName"));
+					}
+					if (item.get("identityID").length() != 18) {
+						throw new IllegalArgumentException("identity card number must be 18 characters");
+					}
+					if (item.get("password").isEmpty() && item.get("passHash").isEmpty()) {
+						throw new IllegalArgumentException("no password");
+					}
+					break;
+				default:
+					throw new IllegalArgumentException("unknown kind " + item.kind);
+				}
+			} catch (IllegalArgumentException e) { // NumberFormatException as well
+				errors.add("line " + item.line + ": " + e.getMessage());
+			}
+		}
+		return errors.isEmpty();
+	}
+
+	/**
+	 * a city given by name or ID, a city added earlier in the batch is created by then
+	 * and resolved by name when the item is applied
+	 */
+	private static City city(String ref, HashMap<String, City> byName, HashMap<Integer, City> byID,
+			HashSet<String> newCities) {
+		City city = byName.get(ref);
+		if (city == null && newCities.contains(ref)) {
+			return null;
+		}
+		if (city == null) {
+			try {
+				city = byID.get(Integer.parseInt(ref.trim()));
+			} catch (NumberFormatException e) { /* a name */ }
+		}
+		if (city == null) {
+			throw new IllegalArgumentException("no city " + ref);
+		}
+		return city;
+	}
+
+	/**
+	 * apply a checked batch through the mutations of the manager, which holds its lock
+	 */
+	void apply(DataManager manager) {
+		HashMap<String, City> created = new HashMap<>();
+		for (Item item : items) {
+			switch (item.kind) {
+			case CITY:
+				if (!item.skip) {
+					created.put(item.get("name"), manager.addCity(item.get("name")));
+				}
+				break;
+			case DAEMON:
+				City startCity = item.startCity != null ? item.startCity : created.get(item.get("startCity"));
+				City arriveCity = item.arriveCity != null ? item.arriveCity : created.get(item.get("arriveCity"));
+				manager.addFlightDaemon(item.get("name"), toDate(item.get("startTime")), toDate(item.get("arriveTime")),
+						(int) (item.getInt("period") * DAY), startCity, arriveCity, item.getInt("price"),
+						item.getInt("seatCapacity"), item.getInt("distance"));
+				break;
+			case PASSENGER:
+				String passHash = item.get("password").isEmpty() ? item.get("passHash")
+						: User.hashPass(item.get("password"));
+				manager.addHashedPassenger(item.get("identityID"), item.get("userName"), passHash);
+				break;
+			}
+		}
+	}
+
+	/**
+	 * the items of the cities, running daemons and passengers of the manager, taken under its lock
+	 */
+	static Bulk capture(DataManager manager) {
+		Bulk bulk = new Bulk();
+		for (City city : manager.cities) {
+			Item item = bulk.add(CITY);
+			item.fields.put("name", city.getCityName());
+		}
+		for (FlightDaemon daemon : manager.flightDaemons) {
+			if (!daemon.getStatus()) {
+				continue;
+			}
+			Item item = bulk.add(DAEMON);
+			item.fields.put("name", daemon.getFlightName());
+			item.fields.put("startTime", format(daemon.getStartTime()));
+			item.fields.put("arriveTime", format(daemon.getArriveTime()));
+			item.fields.put("period", String.valueOf(daemon.getPeriod() / DAY));
+			item.fields.put("startCity", daemon.getStartCity().getCityName());
+			item.fields.put("arriveCity", daemon.getArriveCity().getCityName());
+			item.fields.put("price", String.valueOf(daemon.getPrice()));
+			item.fields.put("seatCapacity", String.valueOf(daemon.getSeatCapacity()));
+			item.fields.put("distance", String.valueOf(daemon.getDistance()));
+		}
+		for (User user : manager.users) {
+			if (user instanceof Passenger) {
+				Item item = bulk.add(PASSENGER);
+				item.fields.put("userName", user.getUserName());
+				item.fields.put("identityID", ((Passenger) user).getIdentityID());
+				item.fields.put("passHash", user.getPassHash());
+			}
+		}
+		return bulk;
+	}
+
+	private Item add(String kind) {
+		Item item = new Item();
+		item.kind = kind;
+		items.add(item);
+		return item;
+	}
+
+	/**
+	 * write the items one line each, in the order they were captured
+	 */
+	public void write(Writer out, boolean json) throws IOException {
+		for (Item item : items) {
+			String[] fields = fields(item.kind);
+			if (json) {
+				out.write("{\"kind\":\"" + escape(item.kind) + "\"");
+				for (String field : fields) {
+					if (item.fields.get(field) != null) {
+						out.write(",\"" + field + "\":\"" + escape(item.fields.get(field)) + "\"");
+					}
+				}
+				out.write("}\n");
+			} else {
+				out.write(item.kind);
+				for (String field : fields) {
+					out.write(",");
+					out.write(quote(item.get(field)));
+				}
+				out.write("\n");
+			}
+		}
+		out.flush();
+	}
+
+	private static String[] fields(String kind) {
+		switch (kind) {
+		case CITY:
+			return CITY_FIELDS;
+		case DAEMON:
+			return DAEMON_FIELDS;
+		case PASSENGER:
+			return PASSENGER_FIELDS;
+		default:
+			throw new IllegalArgumentException("unknown kind " + kind);
+		}
+	}
+
+	private static Date toDate(String time) {
+		String[] s = time.trim().split("-");
+		if (s.length != 6) {
+			throw new IllegalArgumentException("time must be year-month-date-hr-min-sec: " + time);
+		}
+		return Flight.calendar(Integer.parseInt(s[0]), Integer.parseInt(s[1]), Integer.parseInt(s[2]),
+				Integer.parseInt(s[3]), Integer.parseInt(s[4]), Integer.parseInt(s[5]));
+	}
+
+	private static String format(Date date) {
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-M-d-H-m-s");
+		format.setTimeZone(TimeZone.getTimeZone("GMT+8:00"));
+		return format.format(date);
+	}
+
+	/**
+	 * fields may be quoted with "", a quote inside is doubled
+	 */
+	private static Item parseCsv(String line) {
+		ArrayList<String> values = new ArrayList<>();
+		StringBuilder value = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (quoted) {
+				if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+					value.append('"');
+					i++;
+				} else if (c == '"') {
+					quoted = false;
+				} else {
+					value.append(c);
+				}
+			} else if (c == '"') {
+				quoted = true;
+			} else if (c == ',') {
+				values.add(value.toString());
+				value.setLength(0);
+			} else {
+				value.append(c);
+			}
+		}
+		if (quoted) {
+			throw new IllegalArgumentException("unclosed quote");
+		}
+		values.add(value.toString());
+		Item item = new Item();
+		item.kind = values.get(0).trim();
+		String[] fields = fields(item.kind);
+		if (values.size() - 1 > fields.length) {
+			throw new IllegalArgumentException("too many fields for " + item.kind);
+		}
+		for (int i = 1; i < values.size(); i++) {
+			item.fields.put(fields[i - 1], values.get(i));
+		}
+		return item;
+	}
+
+	private static String quote(String value) {
+		if (value.indexOf(',') < 0 && value.indexOf('"') < 0) {
+			return value;
+		}
+		return "\"" + value.replace("\"", "\"\"") + "\"";
+	}
+
+	/**
+	 * a flat object of strings and numbers, numbers are kept as their text
+	 */
+	private static Item parseJson(String line) {
+		Map<String, String> values = new LinkedHashMap<>();
+		int[] at = { skip(line, 0) };
+		expect(line, at, '{');
+		if (peek(line, at) != '}') {
+			do {
+				String key = string(line, at);
+				expect(line, at, ':');
+				values.put(key, peek(line, at) == '"' ? string(line, at) : number(line, at));
+			} while (next(line, at, ','));
+		}
+		expect(line, at, '}');
+		if (at[0] < line.length()) {
+			throw new IllegalArgumentException("text after the object");
+		}
+		Item item = new Item();
+		item.kind = values.remove("kind");
+		if (item.kind == null) {
+			throw new IllegalArgumentException("no kind");
+		}
+		fields(item.kind);
+		item.fields.putAll(values);
+		return item;
+	}
+
+	private static int skip(String line, int i) {
+		while (i < line.length() && Character.isWhitespace(line.charAt(i))) {
+			i++;
+		}
+		return i;
+	}
+
+	private static char peek(String line, int[] at) {
+		if (at[0] >= line.length()) {
+			throw new IllegalArgumentException("unexpected end of line");
+		}
+		return line.charAt(at[0]);
+	}
+
+	private static void expect(String line, int[] at, char c) {
+		if (peek(line, at) != c) {
+			throw new IllegalArgumentException("expected " + c + " at " + (at[0] + 1));
+		}
+		at[0] = skip(line, at[0] + 1);
+	}
+
+	private static boolean next(String line, int[] at, char c) {
+		if (peek(line, at) == c) {
+			at[0] = skip(line, at[0] + 1);
+			return true;
+		}
+		return false;
+	}
+
+	private static String string(String line, int[] at) {
+		if (peek(line, at) != '"') {
+			throw new IllegalArgumentException("expected a string at " + (at[0] + 1));
+		}
+		StringBuilder value = new StringBuilder();
+		int i = at[0] + 1;
+		for (;; i++) {
+			if (i >= line.length()) {
+				throw new IllegalArgumentException("unclosed string");
+			}
+			char c = line.charAt(i);
+			if (c == '"') {
+				break;
+			}
+			if (c == '\\' && i + 1 < line.length()) {
+				c = line.charAt(++i);
+				switch (c) {
+				case 'n':
+					c = '\n';
+					break;
+				case 't':
+					c = '\t';
+					break;
+				case 'r':
+					c = '\r';
+					break;
+				case 'b':
+					c = '\b';
+					break;
+				case 'f':
+					c = '\f';
+					break;
+				case 'u':
+					if (i + 4 >= line.length()) {
+						throw new IllegalArgumentException("bad escape");
+					}
+					c = (char) Integer.parseInt(line.substring(i + 1, i + 5), 16);
+					i += 4;
+					break;
+				default:
+					break; // " \ and /
+				}
+			}
+			value.append(c);
+		}
+		at[0] = skip(line, i + 1);
+		return value.toString();
+	}
+
+	private static String number(String line, int[] at) {
+		int i = at[0];
+		while (i < line.length() && "+-0123456789.eE".indexOf(line.charAt(i)) >= 0) {
+			i++;
+		}
+		if (i == at[0]) {
+			throw new IllegalArgumentException("expected a string or number at " + (at[0] + 1));
+		}
+		String value = line.substring(at[0], i);
+		at[0] = skip(line, i);
+		return value;
+	}
+
+	private static String escape(String value) {
+		StringBuilder builder = new StringBuilder(value.length() + 8);
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				builder.append('\\').append(c);
+			} else if (c < 0x20) {
+				builder.append(String.format("\\u%04x", (int) c));
+			} else {
+				builder.append(c);
+			}
+		}
+		return builder.toString();
+	}
+
+}
@@ -14,6 +14,7 @@ public class City implements Serializable {
 	private String cityName;
 	protected ArrayList<FlightDaemon> flightsIn; // flights end in this city
 	protected ArrayList<FlightDaemon> flightsOut; // flights start in this city
+	protected transient long version; // Version stamp of the last change
 	
 	public City(String cityName) {
 		flightsIn = new ArrayList<>();
@@ -21,6 +22,11 @@ public class City implements Serializable {
 		this.cityName = cityName;
 		this.cityID = ID;
 		ID++;
+		touch();
+	}
+
+	protected void touch() {
+		version = Version.next();
 	}
 	
 	@Override
@@ -43,6 +49,7 @@ public class City implements Serializable {
 	
 	public void setCityName(String cityName) {
 		this.cityName = cityName;
+		touch();
 	}
 	
 	@SuppressWarnings("unchecked")
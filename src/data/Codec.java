@@ -0,0 +1,500 @@
+package data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Binary format of the store files
+ * a file is [magic int][format version short][kind byte] followed by its content,
+ * a segment goes on with [name][codec byte][record count int],
+ * segment records are length-prefixed so a newer writer may append fields
+ * that an older reader simply skips, flight and archive segments are
+ * fixed width rows mapped by FlightTable and Archive instead
+ * with a codec other than NONE the records are written in blocks compressed
+ * on their own, see writeBlocks; flight tables are never compressed as they are mapped
+ * a flight table goes on with [row width int][live rows int][rows per checksum int],
+ * the terminated rows and then the live ones each sorted by ID, and one CRC32 int per block of rows,
+ * its checksum in the manifest covers the header and those block checksums only, see writeTable
+ */
+public class Codec {
+
+	public static final int MAGIC = 0x46534731; // "FSG1"
+	public static final short VERSION = 5; // 2: archive entries in the manifest, 3: segment checksums, 4: codecs,
+											// 5: flight tables with live rows last and block checksums
+	public static final byte NONE = 0;
+	public static final byte DEFLATE = 1;
+	public static final byte GZIP = 2;
+	public static final byte COMPRESSION = codec(System.getProperty("store.codec", "deflate")); // for new segments
+	private static final int BLOCK = 64 * 1024; // bytes of records compressed together
+	private static final byte SEGMENT = 1;
+	private static final byte MANIFEST = 2;
+
+	private static byte codec(String name) {
+		switch (name) {
+		case "none":
+			return NONE;
+		case "gzip":
+			return GZIP;
+		case "deflate":
+			return DEFLATE;
+		default:
+			System.err.println("Unknown store codec " + name + ", using deflate");
+			return DEFLATE;
+		}
+	}
+
+	/**
+	 * @return CRC32 of the whole file, of the header and block checksums for a flight table
+	 */
+	static long writeSegment(File file, Segment segment) throws IOException {
+		return writeSegment(file, segment, COMPRESSION);
+	}
+
+	/**
+	 * @param codec for the records, a flight table ignores it
+	 */
+	static long writeSegment(File file, Segment segment, byte codec) throws IOException {
+		if (segment.type().equals(Segment.FLIGHTS)) {
+			return writeTable(file, segment);
+		}
+		FileOutputStream output = new FileOutputStream(file);
+		try {
+			CheckedOutputStream checked = new CheckedOutputStream(output, new CRC32());
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(checked));
+			header(out, SEGMENT);
+			out.writeUTF(segment.name);
+			out.writeByte(codec);
+			out.writeInt(segment.records.size());
+			if (segment.isTable()) {
+				// fixed width rows, the row width lets a later version append fields
+				out.writeInt(FlightTable.ROW);
+			}
+			writeBlocks(out, codec, segment.records, !segment.isTable());
+			out.flush();
+			output.getFD().sync();
+			return checked.getChecksum().getValue();
+		} finally {
+			output.close();
+		}
+	}
+
+	/**
+	 * write a flight table with its live rows last, so a load reads only them,
+	 * and a checksum for every FlightTable.BLOCK rows, so a terminated row is checked
+	 * only when it is first read
+	 * @param segment records sorted by ID
+	 * @return CRC32 of the header and the block checksums
+	 */
+	private static long writeTable(File file, Segment segment) throws IOException {
+		ArrayList<Segment.Record> rows = new ArrayList<>(segment.records.size());
+		for (Segment.Record r : segment.records) {
+			if (((Segment.FlightRecord) r).status == FlightStatus.TERMINATE.ordinal()) {
+				rows.add(r);
+			}
+		}
+		int live = segment.records.size() - rows.size();
+		for (Segment.Record r : segment.records) {
+			if (((Segment.FlightRecord) r).status != FlightStatus.TERMINATE.ordinal()) {
+				rows.add(r);
+			}
+		}
+		FileOutputStream output = new FileOutputStream(file);
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output));
+			ByteArrayOutputStream head = new ByteArrayOutputStream(64);
+			DataOutputStream headOut = new DataOutputStream(head);
+			header(headOut, SEGMENT);
+			headOut.writeUTF(segment.name);
+			headOut.writeByte(NONE);
+			headOut.writeInt(rows.size());
+			headOut.writeInt(FlightTable.ROW); // the row width lets a later version append fields
+			headOut.writeInt(live);
+			headOut.writeInt(FlightTable.BLOCK);
+			headOut.flush();
+			head.writeTo(out);
+			ByteArrayOutputStream sums = new ByteArrayOutputStream();
+			DataOutputStream sumsOut = new DataOutputStream(sums);
+			ByteArrayOutputStream row = new ByteArrayOutputStream(FlightTable.ROW);
+			DataOutputStream rowOut = new DataOutputStream(row);
+			CRC32 block = new CRC32();
+			for (int i = 0; i < rows.size(); i++) {
+				row.reset();
+				rows.get(i).write(rowOut);
+				rowOut.flush();
+				block.update(row.toByteArray());
+				row.writeTo(out);
+				if ((i + 1) % FlightTable.BLOCK == 0 || i == rows.size() - 1) {
+					sumsOut.writeInt((int) block.getValue());
+					block.reset();
+				}
+			}
+			sumsOut.flush();
+			sums.writeTo(out);
+			out.flush();
+			output.getFD().sync();
+			CRC32 crc = new CRC32();
+			crc.update(head.toByteArray());
+			crc.update(sums.toByteArray());
+			return crc.getValue();
+		} finally {
+			output.close();
+		}
+	}
+
+	/**
+	 * @param crc CRC32 the file must have, -1 to skip the check
+	 */
+	static Segment readSegment(File file, long crc) throws IOException {
+		CheckedInputStream checked = new CheckedInputStream(new FileInputStream(file), new CRC32());
+		DataInputStream in = new DataInputStream(new BufferedInputStream(checked));
+		try {
+			short version = check(in, SEGMENT, file);
+			Segment segment = new Segment(in.readUTF());
+			final String type = segment.type();
+			if (segment.isTable()) {
+				throw new IOException(file + " is a table of flights, it is mapped instead");
+			}
+			byte codec = version >= 4 ? in.readByte() : NONE;
+			int count = in.readInt();
+			segment.records.ensureCapacity(count);
+			if (codec == NONE) {
+				readRecords(in, type, count, segment.records);
+			} else {
+				ArrayList<Future<ArrayList<Segment.Record>>> blocks = new ArrayList<>();
+				for (int read = 0; read < count;) {
+					final int records = in.readInt();
+					final byte[] block = readBlock(in, codec);
+					read += records;
+					blocks.add(ForkJoinPool.commonPool().submit(new Callable<ArrayList<Segment.Record>>() {
+
+						@Override
+						public ArrayList<Segment.Record> call() throws IOException {
+							ArrayList<Segment.Record> list = new ArrayList<>(records);
+							readRecords(new DataInputStream(new ByteArrayInputStream(block)), type, records, list);
+							return list;
+						}
+					}));
+				}
+				for (Future<ArrayList<Segment.Record>> block : blocks) {
+					segment.records.addAll(join(block));
+				}
+			}
+			if (in.read() != -1) {
+				throw new IOException(file + " has data after its records");
+			}
+			check(checked.getChecksum().getValue(), crc, file);
+			return segment;
+		} finally {
+			in.close();
+		}
+	}
+
+	static void writeManifest(File file, Manifest manifest) throws IOException {
+		FileOutputStream output = new FileOutputStream(file);
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output));
+			header(out, MANIFEST);
+			out.writeLong(manifest.clock);
+			out.writeInt(manifest.journalGeneration);
+			out.writeInt(manifest.userID);
+			out.writeInt(manifest.flightID);
+			out.writeInt(manifest.cityID);
+			out.writeInt(manifest.flightDaemonID);
+			out.writeInt(manifest.segments.size());
+			for (Map.Entry<String, Manifest.Entry> entry : manifest.segments.entrySet()) {
+				out.writeUTF(entry.getKey());
+				out.writeUTF(entry.getValue().file);
+				out.writeInt(entry.getValue().count);
+				out.writeInt(entry.getValue().low);
+				out.writeInt(entry.getValue().high);
+				out.writeLong(entry.getValue().crc);
+			}
+			out.flush();
+			output.getFD().sync();
+		} finally {
+			output.close();
+		}
+	}
+
+	static Manifest readManifest(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			short version = check(in, MANIFEST, file);
+			Manifest manifest = new Manifest();
+			manifest.clock = in.readLong();
+			manifest.journalGeneration = in.readInt();
+			manifest.userID = in.readInt();
+			manifest.flightID = in.readInt();
+			manifest.cityID = in.readInt();
+			manifest.flightDaemonID = in.readInt();
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				String name = in.readUTF();
+				String segment = in.readUTF();
+				int records = in.readInt();
+				Manifest.Entry entry = new Manifest.Entry(segment, records);
+				if (version >= 2) {
+					entry.low = in.readInt();
+					entry.high = in.readInt();
+				}
+				if (version >= 3) {
+					entry.crc = in.readLong();
+				}
+				manifest.segments.put(name, entry);
+			}
+			return manifest;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * write records in blocks of about BLOCK bytes, with a codec every block is
+	 * [records int][length int][compressed length int][compressed bytes]
+	 * and can be inflated without the others
+	 * @param prefixed whether each record gets a length prefix, rows of a table do not
+	 */
+	static void writeBlocks(DataOutputStream out, byte codec, List<? extends Segment.Record> records, boolean prefixed)
+			throws IOException {
+		if (codec == NONE && !prefixed) {
+			for (Segment.Record r : records) {
+				r.write(out);
+			}
+			return;
+		}
+		ByteArrayOutputStream block = new ByteArrayOutputStream(codec == NONE ? 128 : BLOCK + 1024);
+		DataOutputStream blockOut = new DataOutputStream(block);
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream(128);
+		DataOutputStream record = new DataOutputStream(buffer);
+		int count = 0;
+		for (Segment.Record r : records) {
+			buffer.reset();
+			r.write(record);
+			record.flush();
+			if (prefixed) {
+				blockOut.writeInt(buffer.size());
+			}
+			buffer.writeTo(blockOut);
+			count++;
+			if (codec == NONE) {
+				block.writeTo(out); // no blocks without a codec
+				block.reset();
+				count = 0;
+			} else if (block.size() >= BLOCK) {
+				writeBlock(out, codec, count, block);
+				count = 0;
+			}
+		}
+		if (count > 0) {
+			writeBlock(out, codec, count, block);
+		}
+	}
+
+	private static void writeBlock(DataOutputStream out, byte codec, int count, ByteArrayOutputStream block)
+			throws IOException {
+		byte[] raw = block.toByteArray();
+		byte[] compressed = compress(codec, raw);
+		out.writeInt(count);
+		out.writeInt(raw.length);
+		out.writeInt(compressed.length);
+		out.write(compressed);
+		block.reset();
+	}
+
+	/**
+	 * read the lengths and bytes of a block written by writeBlocks, its record count already read
+	 * @return the inflated bytes
+	 */
+	static byte[] readBlock(DataInputStream in, byte codec) throws IOException {
+		int length = in.readInt();
+		byte[] compressed = new byte[in.readInt()];
+		in.readFully(compressed);
+		return decompress(codec, compressed, length);
+	}
+
+	private static void readRecords(DataInputStream in, String type, int count, ArrayList<Segment.Record> records)
+			throws IOException {
+		byte[] bytes = new byte[128];
+		for (int i = 0; i < count; i++) {
+			int length = in.readInt();
+			if (length > bytes.length) {
+				bytes = new byte[Math.max(length, bytes.length * 2)];
+			}
+			in.readFully(bytes, 0, length);
+			DataInputStream record = new DataInputStream(new ByteArrayInputStream(bytes, 0, length));
+			records.add(Segment.read(type, record));
+		}
+	}
+
+	private static <T> T join(Future<T> future) throws IOException {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		}
+	}
+
+	static byte[] compress(byte codec, byte[] raw) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(raw.length / 4 + 64);
+		if (codec == GZIP) {
+			GZIPOutputStream out = new GZIPOutputStream(bytes);
+			out.write(raw);
+			out.close();
+		} else {
+			Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+			DeflaterOutputStream out = new DeflaterOutputStream(bytes, deflater);
+			out.write(raw);
+			out.close();
+			deflater.end();
+		}
+		return bytes.toByteArray();
+	}
+
+	static byte[] decompress(byte codec, byte[] compressed, int length) throws IOException {
+		byte[] raw = new byte[length];
+		InputStream in = new ByteArrayInputStream(compressed);
+		Inflater inflater = null;
+		if (codec == GZIP) {
+			in = new GZIPInputStream(in);
+		} else if (codec == DEFLATE) {
+			inflater = new Inflater();
+			in = new InflaterInputStream(in, inflater);
+		} else {
+			throw new IOException("unknown codec " + codec);
+		}
+		try {
+			new DataInputStream(in).readFully(raw);
+			if (in.read() != -1) {
+				throw new IOException("block longer than its length");
+			}
+		} finally {
+			in.close();
+			if (inflater != null) {
+				inflater.end();
+			}
+		}
+		return raw;
+	}
+
+	/**
+	 * strings may be null, a flag byte comes first
+	 */
+	static void writeString(DataOutputStream out, String string) throws IOException {
+		out.writeBoolean(string != null);
+		if (string != null) {
+			out.writeUTF(string);
+		}
+	}
+
+	static String readString(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	/**
+	 * @return CRC32 of the first bytes of a buffer
+	 */
+	static long crc(ByteBuffer buffer, long length) {
+		return crc(buffer, 0, length);
+	}
+
+	/**
+	 * @return CRC32 of the bytes of a buffer between the two offsets
+	 */
+	static long crc(ByteBuffer buffer, long from, long to) {
+		ByteBuffer bytes = buffer.duplicate();
+		bytes.limit((int) to);
+		bytes.position((int) from);
+		CRC32 crc = new CRC32();
+		crc.update(bytes);
+		return crc.getValue();
+	}
+
+	/**
+	 * @param expected -1 when the manifest has no checksum for the file
+	 */
+	static void check(long crc, long expected, File file) throws IOException {
+		if (expected >= 0 && crc != expected) {
+			throw new IOException(file + " fails its checksum");
+		}
+	}
+
+	/**
+	 * check the header of a mapped segment file and skip its name,
+	 * the buffer is left at the record count
+	 * @return codec of the file
+	 */
+	static byte checkSegment(ByteBuffer buffer, File file) throws IOException {
+		if (buffer.remaining() < 7 || buffer.getInt() != MAGIC) {
+			throw new IOException(file + " is not a store file");
+		}
+		short version = buffer.getShort();
+		if (version > VERSION) {
+			throw new IOException(file + " has format version " + version + ", newer than " + VERSION);
+		}
+		if (buffer.get() != SEGMENT) {
+			throw new IOException(file + " has an unexpected kind");
+		}
+		buffer.position(buffer.position() + 2 + (buffer.getShort(buffer.position()) & 0xffff));
+		return version >= 4 ? buffer.get() : NONE;
+	}
+
+	/**
+	 * @return format version of a mapped file whose header was checked
+	 */
+	static short version(ByteBuffer buffer) {
+		return buffer.getShort(4);
+	}
+
+	private static void header(DataOutputStream out, byte kind) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeShort(VERSION);
+		out.writeByte(kind);
+	}
+
+	/**
+	 * @return format version of the file
+	 */
+	private static short check(DataInputStream in, byte kind, File file) throws IOException {
+		if (in.readInt() != MAGIC) {
+			throw new IOException(file + " is not a store file");
+		}
+		short version = in.readShort();
+		if (version > VERSION) {
+			throw new IOException(file + " has format version " + version + ", newer than " + VERSION);
+		}
+		if (in.readByte() != kind) {
+			throw new IOException(file + " has an unexpected kind");
+		}
+		return version;
+	}
+
+}
@@ -12,6 +12,11 @@ public class Data implements Serializable {
 	public ArrayList<Flight> flights;
 	public ArrayList<City> cities;
 	public ArrayList<FlightDaemon> flightDaemons;
+	private int userID;
+	private int flightID;
+	private int cityID;
+	private int flightDaemonID;
+	private int journalGeneration; // first journal generation not in this snapshot
 	
 	public void readIn(ArrayList<User> users, ArrayList<Flight> flights, ArrayList<City> cities,
 			ArrayList<FlightDaemon> flightDaemons) {
@@ -19,6 +24,41 @@ public class Data implements Serializable {
 		this.flights = flights;
 		this.cities = cities;
 		this.flightDaemons = flightDaemons;
+		userID = User.ID;
+		flightID = Flight.ID;
+		cityID = City.ID;
+		flightDaemonID = FlightDaemon.ID;
+	}
+	
+	public int getJournalGeneration() {
+		return journalGeneration;
+	}
+
+	public void setJournalGeneration(int journalGeneration) {
+		this.journalGeneration = journalGeneration;
+	}
+	
+	/**
+	 * set the ID counters back to where they were when saved
+	 * snapshots without counters fall back to the largest ID + 1
+	 */
+	public void restoreID() {
+		User.ID = userID;
+		Flight.ID = flightID;
+		City.ID = cityID;
+		FlightDaemon.ID = flightDaemonID;
+		for (User user : users) {
+			User.ID = Math.max(User.ID, user.getID() + 1);
+		}
+		for (Flight flight : flights) {
+			Flight.ID = Math.max(Flight.ID, flight.getFlightID() + 1);
+		}
+		for (City city : cities) {
+			City.ID = Math.max(City.ID, city.getCityID() + 1);
+		}
+		for (FlightDaemon daemon : flightDaemons) {
+			FlightDaemon.ID = Math.max(FlightDaemon.ID, daemon.getFlightDaemonID() + 1);
+		}
 	}
 
 	public ArrayList<ArrayList<?>> readOut() {
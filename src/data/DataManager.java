@@ -3,121 +3,227 @@ package data;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+import exceptions.StatusUnavailableException;
 
 /** 
  * This is to provide a access to write file
  * use constructor DataManager(MainServer server) to trace
- * use saveData() to save to file
+ * use saveData() to save to file, checkpoint() to save in the background
  */
 public class DataManager {
 	
 	// DONE(Dong) This class is all of my job :(
-	public ArrayList<User> users;
-	public ArrayList<Flight> flights;
-	public ArrayList<City> cities;
-	public ArrayList<FlightDaemon> flightDaemons;
-	public static final long CHECKING_INTERVAL = 1000l; // 1 second
+	ArrayList<User> users; // the lists are only used under the lock, see getUsers() and the others
+	ArrayList<Flight> flights;
+	ArrayList<City> cities;
+	ArrayList<FlightDaemon> flightDaemons;
 	public static final long DAY_OF_CREATE = 30*24*3600*1000l; // 30 days
 	public static final long INTERVAL_TO_CREATE = 3600*1000l; // 1 hour
 	public static final long TIME_TO_TERMINATE = 2*3600*1000l; // 2 hours
 	public static final long TIME_TO_PUBLISH = 15*24*3600*1000l; // 15 days
+	public static final long JOURNAL_LIMIT = 4*1024*1024l; // 4 MB, then checkpoint
+	public static final long CHECKPOINT_INTERVAL = 5*60*1000l; // 5 minutes
+	public static final long TIME_TO_ARCHIVE = Long.getLong("archive.retention.days", 30)*24*3600*1000l; // after departure
 //	private final String filename = "data.xml";
-	private final String filename = "data";
+	private final String filename = "data"; // single-file snapshot, read once to move to the store
+	private final String journalname = "data.journal";
+	private final String storename = "data.store";
 	private File file;
 //	private Doc doc;
-	private Timer timer;
+	final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(); // searches and bookings share it, changes and jobs hold it alone
+	private Jobs jobs; // the background work, see Jobs
+	private Journal journal;
+	private Store store;
+	private boolean replaying;
+	private volatile boolean checkpointing;
+	FlightTable history; // terminated flights left in the store
+	Archive archive; // flights terminated before the retention
+	private Index<User> userIndex; // the lists by ID, see reindex()
+	private Index<Flight> flightIndex;
+	private Index<City> cityIndex;
+	private Index<FlightDaemon> daemonIndex;
+	private Index<FlightDaemon> occurrenceIndex; // daemons by the IDs of their occurrences
+	private HashMap<String, ArrayList<User>> userNames; // the users with each name, several only if stored before names were unique
+	private Schedule schedule; // flights by departure
+	private Deadlines deadlines; // status changes of the flights by time
 	Data data;
 	
-	class ChangeFlight extends TimerTask {
-
+	class CreateFlight implements Runnable {
+		
 		@Override
 		public void run() {
-			Date now = new Date();
-			for (Flight flight : flights) {
-				if (flight.isDaemon()) {
-					if (flight.getStartTime().getTime() - now.getTime() <= TIME_TO_TERMINATE) {
-						flight.flightStatus = FlightStatus.TERMINATE;
-						flight.setDaemon(false);
-					} else if (flight.getStartTime().getTime() - now.getTime() <= TIME_TO_PUBLISH) {
-						if (flight.flightStatus == FlightStatus.UNPUBLISHED) {
-							flight.flightStatus = FlightStatus.AVAILABLE;							
-						}
-					} 
-				}				
+			lock.writeLock().lock();
+			try {
+				tick();
+			} finally {
+				lock.writeLock().unlock();
 			}
 		}
 		
-	}
-	
-	class CreateFlight extends TimerTask {
-		
-		public void createFlight(FlightDaemon flightDaemon, long i) {
-			Flight flight = new Flight(
-					flightDaemon.getFlightName(), 
-					new Date(i), 
-					new Date(i + flightDaemon.getArriveTime().getTime() - flightDaemon.getStartTime().getTime()), 
-					flightDaemon.getStartCity(), 
-					flightDaemon.getArriveCity(), 
-					flightDaemon.getPrice(), 
-					flightDaemon.getSeatCapacity(), 
-					flightDaemon.getDistance()
-				);
-				flight.setDaemon(true);
-				flights.add(flight);
-				flightDaemon.children.add(flight);
-		}
-		
-		@Override
-		public void run() {
+		private void tick() {
 			for (FlightDaemon flightDaemon : flightDaemons) {
 				if (!flightDaemon.status) {
-					break;
+					continue;
 				}
 				long now = new Date().getTime();
+				dropTerminated(flightDaemon, now);
 				long end = now + DAY_OF_CREATE;
 				if (end < flightDaemon.getStartTime().getTime()) {
 					continue;
 				}
-				for (long i = flightDaemon.getStartTime().getTime(); i < end; i+=flightDaemon.getPeriod()) {
-					boolean isCreated = false;
-					for (Flight flight : flightDaemon.children) {
-						if (flight.getStartTime().getTime() == i) {
-							isCreated = true;
-							break;
-						}
-					}
-					if (!isCreated) {
+				// flights before the watermark are created, terminated ones are not in children once stored
+				long i = Math.max(flightDaemon.getStartTime().getTime(), flightDaemon.createdUntil);
+				long begin = now + TIME_TO_TERMINATE;
+				if (i < begin) {
+					i += (begin - i + flightDaemon.getPeriod() - 1) / flightDaemon.getPeriod() * flightDaemon.getPeriod();
+				}
+				for (; i < end; i+=flightDaemon.getPeriod()) {
+					if (!flightDaemon.hasFlight(i)) {
 						createFlight(flightDaemon, i);
 					}
 				}
+				flightDaemon.createdUntil = i;
+			}
+		}
+		
+	}
+	
+	class SyncJournal implements Runnable {
+
+		@Override
+		public void run() {
+			try {
+				journal.sync();
+				if (journal.size() > JOURNAL_LIMIT) {
+					checkpoint();
+				}
+			} catch (IOException e) {
+				System.err.println("Syncing journal failed: " + e.getMessage());
+			}
+		}
+		
+	}
+	
+	class SaveData implements Runnable {
+
+		@Override
+		public void run() {
+			checkpointing = true;
+			try {
+				writeData(captureData());
+			} catch (IOException e) {
+				System.err.println("Checkpoint failed: " + e.getMessage());
+			} finally {
+				checkpointing = false;
 			}
 		}
 		
 	}
 	
 	public void stop() {
-		timer.cancel();
+		jobs.stop();
 		try {
 			saveData();
 		} catch (IOException e) {
 			System.out.println("Saving data faild, continue to stop...");
 		}
+		try {
+			journal.close();
+		} catch (IOException e) {
+			System.out.println("Closing journal faild, continue to stop...");
+		}
 	}
 	
+	/**
+	 * write a checkpoint in the calling thread
+	 */
 	public void saveData() throws IOException {
-		data.readIn(users, flights, cities, flightDaemons);
-		ObjectOutputStream stream = new ObjectOutputStream(new FileOutputStream(file));
-		stream.writeObject(data);
-		stream.flush();
-		stream.close();
+		writeData(captureData());
+	}
+	
+	/**
+	 * write a checkpoint in the background as the checkpoint job, requests go on meanwhile
+	 * and only wait for the in-memory capture of the changed segments
+	 */
+	public void checkpoint() {
+		if (checkpointing) {
+			return;
+		}
+		checkpointing = true;
+		if (!jobs.get("checkpoint").trigger()) {
+			checkpointing = false;
+		}
+	}
+	
+	/**
+	 * copy the records of the changed segments into memory
+	 * and switch the journal to a new generation in the same critical section
+	 */
+	private Store.Checkpoint captureData() throws IOException {
+		lock.writeLock().lock();
+		try {
+			archiveFlights(new Date().getTime() - TIME_TO_ARCHIVE);
+			return store.capture(this, journal.rotate());
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * move flights terminated and leaving before the cutoff to the archive,
+	 * they are written there by the checkpoint that also drops them from the flight segments
+	 */
+	private void archiveFlights(long cutoff) {
+		final HashSet<Flight> archived = new HashSet<>();
+		Iterator<Flight> iterator = flights.iterator();
+		while (iterator.hasNext()) {
+			Flight flight = iterator.next();
+			if (flight.flightStatusIsTerminate() && flight.getStartTime().getTime() < cutoff) {
+				iterator.remove();
+				flightIndex.remove(flight.getFlightID(), flight);
+				schedule.remove(flight);
+				archived.add(flight);
+				archive.add(Segment.record(flight), flight);
+			}
+		}
+		if (!archived.isEmpty()) {
+			for (FlightDaemon daemon : flightDaemons) {
+				if (daemon.children.removeIf(new Predicate<Flight>() {
+
+					@Override
+					public boolean test(Flight t) {
+						return archived.contains(t);
+					}
+				})) {
+					daemon.forgetChildren();
+				}
+			}
+		}
+		history.archive(cutoff, archive);
+	}
+	
+	/**
+	 * write the changed segments, the journal generations before the checkpoint
+	 * and the old single-file snapshot are deleted once the manifest is switched
+	 */
+	private void writeData(Store.Checkpoint checkpoint) throws IOException {
+		store.write(checkpoint);
+		journal.delete(checkpoint.getGeneration());
+		if (file.exists()) {
+			file.delete();
+		}
 	}
 
 	public DataManager() {
@@ -130,20 +236,24 @@ public class DataManager {
 		} catch (ClassNotFoundException e) {
 			e.printStackTrace();
 		}
-		timer = new Timer(false);
-		timer.schedule(new ChangeFlight(), CHECKING_INTERVAL, CHECKING_INTERVAL);
-		timer.schedule(new CreateFlight(), 0, INTERVAL_TO_CREATE);
+		jobs = new Jobs();
+		deadlines.start(jobs);
+		jobs.add("create-flights", 0, INTERVAL_TO_CREATE, new CreateFlight());
+		jobs.add("sync-journal", Journal.GROUP_INTERVAL, Journal.GROUP_INTERVAL, new SyncJournal());
+		jobs.add("checkpoint", CHECKPOINT_INTERVAL, CHECKPOINT_INTERVAL, new SaveData());
 	}
 	
 	public void init() throws IOException, ClassNotFoundException {
 		file = new File(filename);
-		if (!file.exists()) {
-			file.createNewFile();
-			data = new Data();
+		journal = new Journal(journalname);
+		store = new Store(storename);
+		if (!store.exists() && !file.exists()) {
 			users = new ArrayList<>();
 			flightDaemons = new ArrayList<>();
 			flights = new ArrayList<>();
 			cities = new ArrayList<>();
+			history = new FlightTable(this);
+			archive = new Archive(this, new File(storename));
 			Admin admin = new Admin("Admin", "admin");
 			users.add(admin);
 			City shenz = new City("Shenzhen");
@@ -196,20 +306,51 @@ public class DataManager {
 			flightDaemons.add(flight12);
 			flightDaemons.add(flight14);
 			flightDaemons.add(flight15);
+			reindex();
+			journal.delete(Integer.MAX_VALUE); // left from another data file
+			journal.open(0);
+			saveData(); // base snapshot for the journal
 		} else {
 			readData();
 		}
 	}
 
+	/**
+	 * load the store, or the old single-file snapshot if there is no store yet,
+	 * then replay the journal written after it
+	 */
 	public void readData() throws FileNotFoundException, IOException, ClassNotFoundException {
-		ObjectInputStream stream = new ObjectInputStream(new FileInputStream(file));
-		data = (Data) stream.readObject();
-		stream.close();
-		ArrayList<ArrayList<?>> list = data.readOut();
-		users = readDataUsers(list);
-		cities = readDataCities(list);
-		flights = readDataFlights(list);
-		flightDaemons = readDataDaemons(list);
+		int generation;
+		if (store.exists()) {
+			store.load(this);
+			generation = store.getGeneration();
+		} else {
+			ObjectInputStream stream = new ObjectInputStream(new FileInputStream(file));
+			data = (Data) stream.readObject();
+			stream.close();
+			ArrayList<ArrayList<?>> list = data.readOut();
+			users = readDataUsers(list);
+			cities = readDataCities(list);
+			flights = readDataFlights(list);
+			history = new FlightTable(this);
+			archive = new Archive(this, new File(storename));
+			flightDaemons = readDataDaemons(list);
+			data.restoreID();
+			for (FlightDaemon daemon : flightDaemons) {
+				daemon.occurrences = new Occurrences(); // not in the old snapshot
+				for (Flight flight : daemon.children) {
+					flight.flightDaemon = daemon;
+				}
+			}
+			generation = data.getJournalGeneration();
+		}
+		reindex();
+		replaying = true;
+		try {
+			journal.open(journal.replay(generation, this));
+		} finally {
+			replaying = false;
+		}
 	}
 	
 	@SuppressWarnings("unchecked")
@@ -232,51 +373,840 @@ public class DataManager {
 		return (ArrayList<FlightDaemon>) list.get(3);
 	}
 	
-	public User validateUser(String userName, String pass) {
+	/**
+	 * build the ID indexes from the lists, the mutations keep them in step afterwards
+	 */
+	private void reindex() {
+		userIndex = Index.of(users, new Index.ID<User>() {
+
+			@Override
+			public int of(User item) {
+				return item.getID();
+			}
+		});
+		flightIndex = Index.of(flights, new Index.ID<Flight>() {
+
+			@Override
+			public int of(Flight item) {
+				return item.getFlightID();
+			}
+		});
+		cityIndex = Index.of(cities, new Index.ID<City>() {
+
+			@Override
+			public int of(City item) {
+				return item.getCityID();
+			}
+		});
+		daemonIndex = Index.of(flightDaemons, new Index.ID<FlightDaemon>() {
+
+			@Override
+			public int of(FlightDaemon item) {
+				return item.getFlightDaemonID();
+			}
+		});
+		occurrenceIndex = new Index<>();
+		for (FlightDaemon daemon : flightDaemons) {
+			for (int i = 0; i < daemon.occurrences.size(); i++) {
+				occurrenceIndex.put(daemon.occurrences.id(i), daemon);
+			}
+		}
+		deadlines = new Deadlines(this);
+		schedule = new Schedule(deadlines);
+		for (Flight flight : flights) {
+			flight.follow();
+			schedule.add(flight);
+		}
+		for (FlightDaemon daemon : flightDaemons) {
+			schedule.add(daemon);
+		}
+		userNames = new HashMap<>();
 		for (User user : users) {
-			if (user.getUserName().equals(userName) && user.getPassHash().equals(User.hashPass(pass))) {
-				return user;
+			indexName(user);
+		}
+		for (Map.Entry<String, ArrayList<User>> entry : userNames.entrySet()) {
+			if (entry.getValue().size() > 1) {
+				System.err.println("User name " + entry.getKey() + " is shared by " + entry.getValue().size()
+						+ " users, each logs in with its own password");
 			}
 		}
-		return null;
 	}
 
+	private void indexName(User user) {
+		ArrayList<User> named = userNames.get(user.getUserName());
+		if (named == null) {
+			named = new ArrayList<>(1);
+			userNames.put(user.getUserName(), named);
+		}
+		named.add(user);
+	}
+
+	/**
+	 * take a user name out of the index, another user may have it as well
+	 * if it was stored before names were unique
+	 */
+	private void unindexName(User user) {
+		ArrayList<User> named = userNames.get(user.getUserName());
+		if (named != null && named.remove(user) && named.isEmpty()) {
+			userNames.remove(user.getUserName());
+		}
+	}
+
+	/**
+	 * the password is hashed once, outside the lock
+	 */
+	public User validateUser(String userName, String pass) {
+		String passHash = User.hashPass(pass);
+		if (passHash == null) {
+			return null;
+		}
+		lock.readLock().lock();
+		try {
+			ArrayList<User> named = userNames.get(userName);
+			for (int i = 0; named != null && i < named.size(); i++) {
+				if (passHash.equals(named.get(i).getPassHash())) {
+					return named.get(i);
+				}
+			}
+			return null;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return flights leaving between the two times, both included, in departure order
+	 */
+	public ArrayList<Flight> getFlightsLeaving(long from, long to) {
+		lock.readLock().lock();
+		try {
+			ArrayList<Flight> flights = schedule.between(from, to);
+			addOccurrences(flights, from, to, flightDaemons);
+			Collections.sort(flights, Schedule.BY_DEPARTURE);
+			return flights;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return flights from one city to another leaving between the two times,
+	 * in departure order, none if a city is null
+	 */
+	public ArrayList<Flight> getFlightsLeaving(City startCity, City arriveCity, long from, long to) {
+		lock.readLock().lock();
+		try {
+			if (startCity == null || arriveCity == null) {
+				return new ArrayList<>();
+			}
+			ArrayList<Flight> flights = schedule.between(startCity, arriveCity, from, to);
+			addOccurrences(flights, from, to, schedule.daemons(startCity, arriveCity));
+			Collections.sort(flights, Schedule.BY_DEPARTURE);
+			return flights;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return flights whose name contains the text, ignoring case, in ID order
+	 */
+	public ArrayList<Flight> getFlightsNamed(String text) {
+		lock.readLock().lock();
+		try {
+			ArrayList<Flight> flights = schedule.named(text);
+			addOccurrences(flights, Long.MIN_VALUE, Long.MAX_VALUE, schedule.daemonsNamed(text));
+			Collections.sort(flights, Schedule.BY_ID);
+			return flights;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the flights and the occurrences of the daemons not terminated yet, in ID order
+	 */
+	public ArrayList<Flight> getFlights() {
+		lock.readLock().lock();
+		try {
+			ArrayList<Flight> flights = new ArrayList<>(this.flights);
+			addOccurrences(flights, Long.MIN_VALUE, Long.MAX_VALUE, flightDaemons);
+			Collections.sort(flights, Schedule.BY_ID);
+			return flights;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * add the occurrences of the daemons that leave between the two times,
+	 * the terminated ones are left out as they are dropped soon
+	 * @param daemons all of them, or those the schedule found for a route or name
+	 */
+	private void addOccurrences(ArrayList<Flight> flights, long from, long to, Iterable<FlightDaemon> daemons) {
+		long now = new Date().getTime();
+		long begin = Math.max(from, now + TIME_TO_TERMINATE + 1);
+		for (FlightDaemon daemon : daemons) {
+			if (daemon.occurrences.size() > 0) {
+				for (int i = daemon.occurrences.from(begin); i < daemon.occurrences.size()
+						&& daemon.occurrences.start(i) <= to; i++) {
+					flights.add(daemon.occurrence(i, now));
+				}
+			}
+		}
+	}
+
+	public User getUserByName(String userName) {
+		lock.readLock().lock();
+		try {
+			ArrayList<User> named = userNames.get(userName);
+			return named == null ? null : named.get(0); // the first one if the name is shared
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * an occurrence of a daemon is built each time, see materialize()
+	 */
 	public Flight getFlightByID(int flightID) {
-		// DONE(Zhu) searchFlightByID
-		for (Flight flight : flights) {
-			if(flight.getFlightID() == flightID){
-				return flight;
+		lock.readLock().lock();
+		try {
+			// DONE(Zhu) searchFlightByID
+			Flight flight = flightIndex.get(flightID);
+			if (flight == null) {
+				FlightDaemon daemon = occurrenceIndex.get(flightID);
+				int i = daemon == null ? -1 : daemon.occurrences.indexOf(flightID);
+				if (i >= 0) {
+					flight = daemon.occurrence(i, new Date().getTime());
+				}
+			}
+			if (flight == null) {
+				flight = history.get(flightID);
 			}
+			return flight != null ? flight : archive.get(flightID);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return a copy of the cities, taken under the lock
+	 */
+	public ArrayList<City> getCities() {
+		lock.readLock().lock();
+		try {
+			return new ArrayList<>(cities);
+		} finally {
+			lock.readLock().unlock();
 		}
-		return null;
+	}
+
+	/**
+	 * @return a copy of the daemons, taken under the lock
+	 */
+	public ArrayList<FlightDaemon> getFlightDaemons() {
+		lock.readLock().lock();
+		try {
+			return new ArrayList<>(flightDaemons);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return a copy of the users, taken under the lock
+	 */
+	public ArrayList<User> getUsers() {
+		lock.readLock().lock();
+		try {
+			return new ArrayList<>(users);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * terminated flights of the store, not in flights
+	 */
+	public FlightTable getHistory() {
+		return history;
+	}
+
+	public Archive getArchive() {
+		return archive;
+	}
+
+	public Jobs getJobs() {
+		return jobs;
 	}
 	
 	public User getUserByID(int userID) {
 		// DONE(Zhu) searchUserByID
-		for (User user : users) {
-			if(user.getID() == userID){
-				return user;
-			}
-		}
-		return null;
+		return userIndex.get(userID);
 	}
 	
 	public City getCityByID(int cityID) {
 		// DONE(Zhu) searchCityByID
-		for (City city : cities) {
-			if (city.getCityID() == cityID) {
-				return city;
+		return cityIndex.get(cityID);
+	}
+
+	public FlightDaemon getFlightDaemonByID(int flightID) {
+		return daemonIndex.get(flightID);
+	}
+
+	/*
+	 * Mutations, every change made through MainServer comes here
+	 * so that it is written to the journal after it has been applied
+	 * a full group is written and forced by the sync-journal job, not by the thread logging it
+	 */
+	private void log(byte type, Object... args) {
+		if (replaying) {
+			return;
+		}
+		try {
+			if (journal.append(type, args) && jobs != null) {
+				jobs.get("sync-journal").trigger();
 			}
+		} catch (IOException e) {
+			System.err.println("Writing journal failed: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * @return null if the user name is taken
+	 */
+	public Passenger addPassenger(String idNumber, String userName, String password) {
+		lock.writeLock().lock();
+		try {
+			return addHashedPassenger(idNumber, userName, User.hashPass(password));
+		} finally {
+			lock.writeLock().unlock();
 		}
-		return null;
 	}
 
-	public FlightDaemon getFlightDaemonByID(int flightID) {
-		for (FlightDaemon daemon : flightDaemons) {
-			if (daemon.getFlightDaemonID() == flightID) {
-				return daemon;
+	/**
+	 * add a passenger whose password is hashed already
+	 */
+	Passenger addHashedPassenger(String idNumber, String userName, String passHash) {
+		lock.writeLock().lock();
+		try {
+			if (!replaying && userNames.containsKey(userName)) {
+				return null;
+			}
+			Passenger passenger = new Passenger(idNumber, userName, null);
+			passenger.passHash = passHash;
+			users.add(passenger);
+			userIndex.put(passenger.getID(), passenger);
+			indexName(passenger);
+			log(Journal.ADD_PASSENGER, passenger.getID(), idNumber, userName, passenger.getPassHash());
+			return passenger;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * @return null if the user name is taken
+	 */
+	public Admin addAdmin(String userName, String password) {
+		lock.writeLock().lock();
+		try {
+			if (!replaying && userNames.containsKey(userName)) {
+				return null;
+			}
+			Admin admin = new Admin(userName, password);
+			users.add(admin);
+			userIndex.put(admin.getID(), admin);
+			indexName(admin);
+			log(Journal.ADD_ADMIN, admin.getID(), userName, admin.getPassHash());
+			return admin;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * check a bulk batch and apply it as one journal batch, nothing is applied if a line is invalid
+	 * @return whether it was applied, see bulk.getErrors() otherwise
+	 */
+	public boolean importBatch(Bulk bulk) {
+		lock.writeLock().lock();
+		try {
+			if (!bulk.getErrors().isEmpty() || !bulk.check(this)) {
+				return false;
+			}
+			try {
+				journal.begin();
+			} catch (IOException e) {
+				bulk.getErrors().add("Writing journal failed: " + e.getMessage());
+				return false;
+			}
+			try {
+				bulk.apply(this);
+			} finally {
+				try {
+					journal.commit();
+				} catch (IOException e) {
+					System.err.println("Writing journal failed: " + e.getMessage());
+				}
+			}
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * cities, running daemons and passengers to export, copied under the lock and written by the caller
+	 */
+	public Bulk exportBatch() {
+		lock.readLock().lock();
+		try {
+			return Bulk.capture(this);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public void removeUser(User user) {
+		lock.writeLock().lock();
+		try {
+			if (user instanceof Passenger) {
+				for (Order order : ((Passenger) user).getOrderList()) {
+					order.remove();
+				}
+			}
+			if (users.remove(user)) {
+				userIndex.remove(user.getID(), user);
+				unindexName(user);
+				log(Journal.REMOVE_USER, user.getID());
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * @return false if another user has the name
+	 */
+	public boolean setUserName(User user, String userName) {
+		lock.writeLock().lock();
+		try {
+			ArrayList<User> named = userNames.get(userName);
+			if (!replaying && named != null && (named.size() > 1 || named.get(0) != user)) {
+				return false;
 			}
+			unindexName(user);
+			user.setUserName(userName);
+			indexName(user);
+			log(Journal.USER_NAME, user.getID(), userName);
+			return true;
+		} finally {
+			lock.writeLock().unlock();
 		}
-		return null;
-	}	
+	}
+	
+	public void changePass(User user, String newPass) {
+		lock.writeLock().lock();
+		try {
+			user.changePass(newPass);
+			log(Journal.USER_PASS, user.getID(), user.getPassHash());
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	public City addCity(String cityName) {
+		lock.writeLock().lock();
+		try {
+			City city = new City(cityName);
+			cities.add(city);
+			cityIndex.put(city.getCityID(), city);
+			log(Journal.ADD_CITY, city.getCityID(), cityName);
+			return city;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	public void removeCity(City city) {
+		lock.writeLock().lock();
+		try {
+			if (cities.remove(city)) {
+				cityIndex.remove(city.getCityID(), city);
+				log(Journal.REMOVE_CITY, city.getCityID());
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	public void setCityName(City city, String cityName) {
+		lock.writeLock().lock();
+		try {
+			city.setCityName(cityName);
+			log(Journal.CITY_NAME, city.getCityID(), cityName);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	public FlightDaemon addFlightDaemon(String flightName, Date startTime, Date arriveTime, int period, City startCity,
+			City arriveCity, int price, int seatCapacity, int distance) {
+		lock.writeLock().lock();
+		try {
+			FlightDaemon daemon = new FlightDaemon(flightName, startTime, arriveTime, period, startCity, arriveCity, price,
+					seatCapacity, distance);
+			flightDaemons.add(daemon);
+			daemonIndex.put(daemon.getFlightDaemonID(), daemon);
+			schedule.add(daemon);
+			log(Journal.ADD_DAEMON, daemon.getFlightDaemonID(), flightName, startTime.getTime(), arriveTime.getTime(),
+					period, startCity.getCityID(), arriveCity.getCityID(), price, seatCapacity, distance);
+			return daemon;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * delete the daemon and its UNPUBLISHED flights
+	 */
+	public void removeFlightDaemon(FlightDaemon daemon) {
+		lock.writeLock().lock();
+		try {
+			materializePublished(daemon);
+			for (int i = 0; i < daemon.occurrences.size(); i++) {
+				occurrenceIndex.remove(daemon.occurrences.id(i), daemon);
+			}
+			daemon.occurrences.clear();
+			ArrayList<Flight> children = daemon.getChildren();
+			flights.removeIf(new Predicate<Flight>() {
+
+				@Override
+				public boolean test(Flight t) {
+					if (children.contains(t) && t.getFlightStatus() == FlightStatus.UNPUBLISHED) {
+						flightIndex.remove(t.getFlightID(), t);
+						schedule.remove(t);
+						return true;
+					}
+					return false;
+				}
+			});
+			daemon.removeFlight();
+			schedule.remove(daemon);
+			log(Journal.REMOVE_DAEMON, daemon.getFlightDaemonID());
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * change one field of a daemon, the same fields as ControllerFlight offers
+	 * @param field name|starttime|arrivetime|startcity|arrivecity|price|capacity|distance
+	 * @param value new name, epoch millis, city ID or number
+	 * @throws NumberFormatException when value or field is not valid
+	 */
+	public void changeFlightDaemon(FlightDaemon daemon, String field, String value) {
+		lock.writeLock().lock();
+		try {
+			if (!field.equals("price") && !field.equals("distance")) {
+				materializePublished(daemon); // a published flight keeps the rest
+			}
+			switch (field) {
+			case "name":
+				daemon.setFlightName(value);
+				break;
+			case "starttime":
+				daemon.setStartTime(new Date(Long.parseLong(value)));
+				break;
+			case "arrivetime":
+				daemon.setArriveTime(new Date(Long.parseLong(value)));
+				break;
+			case "startcity":
+				daemon.setStartCity(getCityByID(Integer.parseInt(value)));
+				break;
+			case "arrivecity":
+				daemon.setArriveCity(getCityByID(Integer.parseInt(value)));
+				break;
+			case "price":
+				daemon.setPrice(Integer.parseInt(value));
+				break;
+			case "capacity":
+				daemon.setSeatCapacity(Integer.parseInt(value));
+				break;
+			case "distance":
+				daemon.setDistance(Integer.parseInt(value));
+				break;
+			default:
+				throw new NumberFormatException("unknown field " + field);
+			}
+			schedule.add(daemon); // its name or route may have changed
+			log(Journal.CHANGE_DAEMON, daemon.getFlightDaemonID(), field, value);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * add an occurrence of the daemon leaving at the time, the flight is not built until needed
+	 */
+	public void createFlight(FlightDaemon flightDaemon, long i) {
+		lock.writeLock().lock();
+		try {
+			int id = Flight.ID++;
+			flightDaemon.occurrences.add(i, id);
+			flightDaemon.touch();
+			occurrenceIndex.put(id, flightDaemon);
+			log(Journal.CREATE_FLIGHT, id, flightDaemon.getFlightDaemonID(), i);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * turn an occurrence of a daemon into a flight of the flights list, before it is booked or changed
+	 * the journal keeps the status it had, the replay may run long after
+	 * @return the flight kept, or the flight given if it is not an occurrence
+	 */
+	private Flight materialize(Flight flight, FlightStatus status) {
+		if (flightIndex.get(flight.getFlightID()) != null) {
+			return flightIndex.get(flight.getFlightID()); // kept since the occurrence was built
+		}
+		FlightDaemon daemon = occurrenceIndex.get(flight.getFlightID());
+		int i = daemon == null ? -1 : daemon.occurrences.indexOf(flight.getFlightID());
+		if (i < 0) {
+			return flight;
+		}
+		Flight kept = daemon.occurrence(i, new Date().getTime());
+		kept.flightStatus = status;
+		kept.setDaemon(status != FlightStatus.TERMINATE);
+		daemon.occurrences.remove(i);
+		daemon.touch();
+		occurrenceIndex.remove(kept.getFlightID(), daemon);
+		flights.add(kept);
+		flightIndex.put(kept.getFlightID(), kept);
+		schedule.add(kept);
+		daemon.addChild(kept);
+		log(Journal.MATERIALIZE, kept.getFlightID(), status.ordinal());
+		return kept;
+	}
+
+	/**
+	 * keep the published occurrences of the daemon before it changes, they keep what a published flight keeps
+	 * the replay finds them kept already
+	 */
+	private void materializePublished(FlightDaemon daemon) {
+		if (replaying) {
+			return;
+		}
+		long now = new Date().getTime();
+		dropTerminated(daemon, now);
+		while (daemon.occurrences.size() > 0
+				&& Occurrences.status(daemon.occurrences.start(0), now) == FlightStatus.AVAILABLE) {
+			materialize(daemon.occurrence(0, now), FlightStatus.AVAILABLE);
+		}
+	}
+
+	/**
+	 * occurrences nobody booked are dropped once terminated
+	 */
+	private void dropTerminated(FlightDaemon daemon, long now) {
+		while (daemon.occurrences.size() > 0
+				&& Occurrences.status(daemon.occurrences.start(0), now) == FlightStatus.TERMINATE) {
+			occurrenceIndex.remove(daemon.occurrences.id(0), daemon);
+			daemon.occurrences.remove(0);
+			daemon.touch();
+		}
+	}
+
+	/**
+	 * publish a flight of a daemon or terminate it when its time has come, called by Deadlines
+	 */
+	void checkFlightStatus(Flight flight, long now) {
+		lock.writeLock().lock();
+		try {
+			if (flight.isDaemon()) {
+				if (flight.getStartTime().getTime() - now <= TIME_TO_TERMINATE) {
+					changeFlightStatus(flight, FlightStatus.TERMINATE);
+				} else if (flight.getStartTime().getTime() - now <= TIME_TO_PUBLISH) {
+					if (flight.flightStatus == FlightStatus.UNPUBLISHED) {
+						changeFlightStatus(flight, FlightStatus.AVAILABLE);
+					}
+				}
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * the status changes made by the server, by deleteFlight and by publish
+	 */
+	public void changeFlightStatus(Flight flight, FlightStatus status) {
+		lock.writeLock().lock();
+		try {
+			flight.flightStatus = status;
+			flight.touch();
+			if (status == FlightStatus.TERMINATE) {
+				flight.setDaemon(false);
+			}
+			log(Journal.FLIGHT_STATUS, flight.getFlightID(), status.ordinal());
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	public void deleteFlight(Flight flight) {
+		lock.writeLock().lock();
+		try {
+			flight = materialize(flight, flight.getFlightStatus());
+			flight.delete();
+			log(Journal.FLIGHT_STATUS, flight.getFlightID(), flight.flightStatus.ordinal());
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * an occurrence is refused like every flight of a daemon, so it is not kept
+	 */
+	public void publishFlight(Flight flight) throws StatusUnavailableException {
+		lock.writeLock().lock();
+		try {
+			flight.publish();
+			log(Journal.FLIGHT_STATUS, flight.getFlightID(), flight.flightStatus.ordinal());
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * bookings of flights kept already share the read lock, the seat is claimed by the flight, see Flight.addPassenger
+	 * an occurrence is kept under the write lock first, once for the flight
+	 * the passenger is held so its orders are in the order of the journal
+	 */
+	public void reserveFlight(Passenger passenger, Flight flight) throws StatusUnavailableException {
+		if (!flight.flightStatusIsAvaliable()) {
+			throw new StatusUnavailableException(flight.getFlightStatus());
+		}
+		lock.readLock().lock();
+		try {
+			Flight kept = flightIndex.get(flight.getFlightID());
+			if (kept == null) {
+				lock.readLock().unlock();
+				lock.writeLock().lock();
+				try {
+					kept = materialize(flight, flight.getFlightStatus());
+				} finally {
+					lock.readLock().lock(); // taken before the write lock is let go, nothing changes meanwhile
+					lock.writeLock().unlock();
+				}
+			}
+			synchronized (passenger) {
+				Order order = passenger.reserveFlight(kept);
+				log(Journal.RESERVE, passenger.getID(), kept.getFlightID(), kept.getPassagers().get(passenger),
+						order.getCreatDate().getTime());
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	public void pay(Passenger passenger, int index) throws StatusUnavailableException {
+		lock.writeLock().lock();
+		try {
+			passenger.getOrderList().get(index).pay();
+			log(Journal.PAY, passenger.getID(), index);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	public boolean cancel(Passenger passenger, int index) throws StatusUnavailableException {
+		lock.writeLock().lock();
+		try {
+			boolean re = passenger.getOrderList().get(index).cancle();
+			log(Journal.CANCEL, passenger.getID(), index);
+			return re;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * apply a journal record again, IDs are taken from the record
+	 */
+	void redo(byte type, Object[] args) {
+		try {
+			switch (type) {
+			case Journal.ADD_PASSENGER:
+				User.ID = (Integer) args[0];
+				addPassenger((String) args[1], (String) args[2], null).passHash = (String) args[3];
+				break;
+			case Journal.ADD_ADMIN:
+				User.ID = (Integer) args[0];
+				addAdmin((String) args[1], null).passHash = (String) args[2];
+				break;
+			case Journal.REMOVE_USER:
+				removeUser(getUserByID((Integer) args[0]));
+				break;
+			case Journal.USER_NAME:
+				setUserName(getUserByID((Integer) args[0]), (String) args[1]);
+				break;
+			case Journal.USER_PASS:
+				getUserByID((Integer) args[0]).passHash = (String) args[1];
+				break;
+			case Journal.ADD_CITY:
+				City.ID = (Integer) args[0];
+				addCity((String) args[1]);
+				break;
+			case Journal.REMOVE_CITY:
+				removeCity(getCityByID((Integer) args[0]));
+				break;
+			case Journal.CITY_NAME:
+				setCityName(getCityByID((Integer) args[0]), (String) args[1]);
+				break;
+			case Journal.ADD_DAEMON:
+				FlightDaemon.ID = (Integer) args[0];
+				addFlightDaemon((String) args[1], new Date((Long) args[2]), new Date((Long) args[3]), (Integer) args[4],
+						getCityByID((Integer) args[5]), getCityByID((Integer) args[6]), (Integer) args[7],
+						(Integer) args[8], (Integer) args[9]);
+				break;
+			case Journal.REMOVE_DAEMON:
+				removeFlightDaemon(getFlightDaemonByID((Integer) args[0]));
+				break;
+			case Journal.CHANGE_DAEMON:
+				changeFlightDaemon(getFlightDaemonByID((Integer) args[0]), (String) args[1], (String) args[2]);
+				break;
+			case Journal.CREATE_FLIGHT:
+				Flight.ID = (Integer) args[0];
+				createFlight(getFlightDaemonByID((Integer) args[1]), (Long) args[2]);
+				break;
+			case Journal.MATERIALIZE:
+				materialize(getFlightByID((Integer) args[0]), FlightStatus.values()[(Integer) args[1]]);
+				break;
+			case Journal.FLIGHT_STATUS: // journals older than MATERIALIZE change occurrences too
+				changeFlightStatus(materialize(getFlightByID((Integer) args[0]), FlightStatus.values()[(Integer) args[1]]),
+						FlightStatus.values()[(Integer) args[1]]);
+				break;
+			case Journal.RESERVE: // journals older than the order date book at the time of the replay
+				((Passenger) getUserByID((Integer) args[0])).reserveFlight(
+						materialize(getFlightByID((Integer) args[1]), FlightStatus.AVAILABLE), (Integer) args[2],
+						new Date(args.length > 3 ? (Long) args[3] : new Date().getTime()));
+				break;
+			case Journal.PAY:
+				pay((Passenger) getUserByID((Integer) args[0]), (Integer) args[1]);
+				break;
+			case Journal.CANCEL:
+				cancel((Passenger) getUserByID((Integer) args[0]), (Integer) args[1]);
+				break;
+			default:
+				System.err.println("Unknown journal record " + type);
+				break;
+			}
+		} catch (StatusUnavailableException | RuntimeException e) {
+			System.err.println("Replaying journal record " + type + " failed: " + e.getMessage());
+		}
+	}
 }
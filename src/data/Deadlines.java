@@ -0,0 +1,146 @@
+package data;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.PriorityQueue;
+
+/**
+ * The next status change of each daemon flight, in the order they are due
+ * an UNPUBLISHED flight is due TIME_TO_PUBLISH before it leaves, a published one TIME_TO_TERMINATE before
+ * the deadlines job only runs at the first deadline, so nothing runs between two changes
+ * Schedule adds a flight again when its start time changes, only the last deadline of a flight counts,
+ * the ones it replaced are counted and the queue is rebuilt without them once they are half of it
+ */
+class Deadlines {
+
+	private DataManager manager;
+	private static final int COMPACT = 1024; // replaced deadlines kept at least before a rebuild
+	private PriorityQueue<Deadline> queue = new PriorityQueue<>();
+	private Index<Deadline> last = new Index<>(); // the deadline that counts, by flight ID
+	private int stale = 0; // deadlines in the queue that a later one replaced
+	private Jobs.Job job; // null until started
+	private long wakeup = Long.MAX_VALUE; // when job runs
+
+	private static class Deadline implements Comparable<Deadline> {
+		final long time;
+		final Flight flight;
+
+		Deadline(long time, Flight flight) {
+			this.time = time;
+			this.flight = flight;
+		}
+
+		@Override
+		public int compareTo(Deadline o) {
+			return Long.compare(time, o.time);
+		}
+	}
+
+	Deadlines(DataManager manager) {
+		this.manager = manager;
+	}
+
+	/**
+	 * set the next deadline of the flight, if the server still changes its status
+	 */
+	synchronized void add(Flight flight) {
+		Deadline old = last.get(flight.getFlightID());
+		if (!flight.isDaemon() || flight.flightStatusIsTerminate()) {
+			last.remove(flight.getFlightID(), old);
+			replaced(old);
+			return;
+		}
+		long time = flight.getStartTime().getTime()
+				- (flight.flightStatusIsUnpublished() ? DataManager.TIME_TO_PUBLISH : DataManager.TIME_TO_TERMINATE);
+		Deadline deadline = new Deadline(time, flight);
+		queue.add(deadline);
+		last.put(flight.getFlightID(), deadline);
+		replaced(old);
+		if (time < wakeup) {
+			wake(time);
+		}
+	}
+
+	/**
+	 * begin to change the flights as a job, the ones already due at once
+	 */
+	synchronized void start(Jobs jobs) {
+		job = jobs.add("deadlines", 0, 0, new Runnable() {
+
+			@Override
+			public void run() {
+				fire();
+			}
+		});
+		if (!queue.isEmpty()) {
+			wake(queue.peek().time);
+		}
+	}
+
+	/**
+	 * count a deadline left in the queue that does not count anymore
+	 */
+	private void replaced(Deadline old) {
+		if (old == null) {
+			return;
+		}
+		stale++;
+		if (stale > COMPACT && stale > queue.size() / 2) {
+			ArrayList<Deadline> live = new ArrayList<>(queue.size() - stale);
+			for (Deadline deadline : queue) {
+				if (last.get(deadline.flight.getFlightID()) == deadline) {
+					live.add(deadline);
+				}
+			}
+			queue = new PriorityQueue<>(live);
+			stale = 0;
+		}
+	}
+
+	private void wake(long time) {
+		if (job == null) {
+			return;
+		}
+		wakeup = time;
+		job.at(time);
+	}
+
+	/**
+	 * change the flights that are due, under the write lock of the manager like the other jobs
+	 */
+	private void fire() {
+		manager.lock.writeLock().lock();
+		try {
+			long now = new Date().getTime();
+			ArrayList<Deadline> due = new ArrayList<>();
+			synchronized (this) {
+				while (!queue.isEmpty() && queue.peek().time <= now) {
+					Deadline deadline = queue.poll();
+					if (last.get(deadline.flight.getFlightID()) == deadline) {
+						last.remove(deadline.flight.getFlightID(), deadline); // out of the queue, add sets the next
+						due.add(deadline);
+					} else {
+						stale--;
+					}
+				}
+				wakeup = Long.MAX_VALUE;
+			}
+			for (Deadline deadline : due) {
+				Flight flight = deadline.flight;
+				if (flight.schedule == null) {
+					continue; // removed from the flights
+				}
+				manager.checkFlightStatus(flight, now);
+				add(flight);
+			}
+			synchronized (this) {
+				if (wakeup == Long.MAX_VALUE && !queue.isEmpty()) {
+					wake(queue.peek().time);
+				}
+			}
+		} finally {
+			manager.lock.writeLock().unlock();
+		}
+	}
+
+}
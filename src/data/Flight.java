@@ -1,13 +1,16 @@
 package data;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.Calendar;
-import java.util.Collection;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
-import java.util.Random;
 import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
 
 import exceptions.StatusUnavailableException;
 
@@ -19,37 +22,181 @@ public class Flight implements Serializable {
 	private static final long serialVersionUID = -4984381831014139467L;
 	public static int ID = 0;
 	private int flightID;
-	private String flightName;
-	protected FlightStatus flightStatus;
-	private HashMap<Passenger, Integer> passagers;
-	private FlightData data = new FlightData();
+	protected volatile FlightStatus flightStatus; // bookings set FULL holding only the read lock of DataManager
+	private ConcurrentHashMap<Passenger, Integer> passagers;
+	private transient volatile Seats seats; // the seats taken, built from passagers when null, see seats()
+	private Date startTime;
+	private FlightTemplate template; // its own values, null to use the template of flightDaemon
 	private boolean isDaemon;
+	protected FlightDaemon flightDaemon; // the daemon creating it, null if none
+	protected transient long version; // Version stamp of the last change
+	transient Schedule schedule; // the schedule the flight is filed in, null if none
+	// the old single-file snapshot has a FlightData of each flight, see readObject
+	private static final ObjectStreamField[] serialPersistentFields = {
+			new ObjectStreamField("flightID", int.class),
+			new ObjectStreamField("flightName", String.class),
+			new ObjectStreamField("flightStatus", FlightStatus.class),
+			new ObjectStreamField("passagers", HashMap.class),
+			new ObjectStreamField("data", FlightData.class),
+			new ObjectStreamField("isDaemon", boolean.class),
+			new ObjectStreamField("flightDaemon", FlightDaemon.class) };
 	
 	public Flight(String flightName, Date startTime, Date arriveTime, City startCity, City arriveCity, int price,
 			int seatCapacity, int distance) {
-		passagers = new HashMap<>();
-		this.flightName = flightName;
-		this.data.setStartTime(startTime);
-		this.data.setArriveTime(arriveTime);
-		this.data.setStartCity(startCity);
-		this.data.setArriveCity(arriveCity);
-		this.data.setPrice(price);
-		this.data.setSeatCapacity(seatCapacity);
-		this.data.setDistance(distance);
+		passagers = new ConcurrentHashMap<>();
+		this.startTime = startTime;
+		this.template = new FlightTemplate(flightName, arriveTime.getTime() - startTime.getTime(), startCity,
+				arriveCity, price, seatCapacity, distance);
 		this.flightStatus = FlightStatus.UNPUBLISHED;
 		isDaemon = true;
 		flightID = Flight.ID;
 		ID++;
+		touch();
 	}
-	
+
+	/**
+	 * rebuild a stored flight, it keeps its ID and Flight.ID is left alone
+	 */
+	Flight(int flightID, String flightName, Date startTime, Date arriveTime, City startCity, City arriveCity,
+			int price, int seatCapacity, int distance, FlightStatus flightStatus, boolean isDaemon) {
+		passagers = new ConcurrentHashMap<>();
+		this.startTime = startTime;
+		this.template = new FlightTemplate(flightName, arriveTime.getTime() - startTime.getTime(), startCity,
+				arriveCity, price, seatCapacity, distance);
+		this.flightStatus = flightStatus;
+		this.isDaemon = isDaemon;
+		this.flightID = flightID;
+	}
+
+	/**
+	 * a flight of the daemon using its template, it keeps its ID and Flight.ID is left alone
+	 */
+	Flight(int flightID, Date startTime, FlightDaemon flightDaemon, FlightStatus flightStatus) {
+		passagers = new ConcurrentHashMap<>();
+		this.startTime = startTime;
+		this.flightDaemon = flightDaemon;
+		this.flightStatus = flightStatus;
+		this.isDaemon = true;
+		this.flightID = flightID;
+	}
+
+	protected void touch() {
+		version = Version.next();
+	}
+
+	FlightTemplate template() {
+		return template != null ? template : flightDaemon.template();
+	}
+
+	/**
+	 * @return whether it uses the template of its daemon
+	 */
+	boolean follows() {
+		return template == null;
+	}
+
+	/**
+	 * keep the template, its own from now on
+	 */
+	void keep(FlightTemplate template) {
+		this.template = template;
+		touch();
+	}
+
+	/**
+	 * use the template of the daemon again if it has the same values
+	 */
+	void follow() {
+		if (template != null && flightDaemon != null && template.sameAs(flightDaemon.template())) {
+			template = null;
+		}
+	}
+
+	/**
+	 * file it again after the daemon changed a value the schedule uses
+	 */
+	void refile() {
+		if (schedule != null) {
+			schedule.add(this);
+		}
+	}
+
+	/**
+	 * move a flight following the daemon with the start time of the daemon, the template has the new duration
+	 */
+	void shift(long shift) {
+		startTime = new Date(startTime.getTime() + shift);
+		touch();
+		refile();
+	}
+
 	@Override
 	public String toString() {
-		return data.toString(flightID, flightName, passagers.size(), flightStatus);
+		FlightTemplate template = template();
+		return 
+			String.valueOf(flightID) + "\t" +
+			template.flightName + "\t" + 
+			((template.startCity.toString().length() < 8) ? (template.startCity.toString() + "\t") : template.startCity.toString()) + "\t" +
+			((template.arriveCity.toString().length() < 8) ? (template.arriveCity.toString() + "\t") : template.arriveCity.toString()) + "\t" +
+			getStartTime().toString() + "\t" +
+			getArriveTime().toString() + "\t" +
+			String.valueOf(template.price) + "\t" +
+			String.valueOf(getRemainingSeats()) + "\t" +
+			flightStatus.name();
 	}
 	
 	@Override
 	public int hashCode() {
-        return data.hashCode(flightName, flightStatus);
+		FlightTemplate template = template();
+        int hashCode = 1;
+        hashCode = 31*hashCode + template.flightName.hashCode();
+        hashCode = 31*hashCode + template.startCity.hashCode();
+        hashCode = 31*hashCode + getStartTime().hashCode();
+        hashCode = 31*hashCode + template.arriveCity.hashCode();
+        hashCode = 31*hashCode + getArriveTime().hashCode();
+        hashCode = 31*hashCode + ((Integer)template.price).hashCode();
+        hashCode = 31*hashCode + flightStatus.hashCode();
+        hashCode = 31*hashCode + ((Integer)template.seatCapacity).hashCode();
+        return hashCode;
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		ObjectInputStream.GetField fields = in.readFields();
+		FlightData data = (FlightData) fields.get("data", null);
+		flightID = fields.get("flightID", 0);
+		flightStatus = (FlightStatus) fields.get("flightStatus", null);
+		passagers = new ConcurrentHashMap<>(cast(fields.get("passagers", null)));
+		startTime = data.getStartTime();
+		template = new FlightTemplate((String) fields.get("flightName", null),
+				data.getArriveTime().getTime() - data.getStartTime().getTime(), data.getStartCity(),
+				data.getArriveCity(), data.getPrice(), data.getSeatCapacity(), data.getDistance());
+		isDaemon = fields.get("isDaemon", false);
+		flightDaemon = (FlightDaemon) fields.get("flightDaemon", null);
+	}
+
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		FlightData data = new FlightData();
+		data.setStartTime(getStartTime());
+		data.setArriveTime(getArriveTime());
+		data.setStartCity(getStartCity());
+		data.setArriveCity(getArriveCity());
+		data.setPrice(getPrice());
+		data.setSeatCapacity(getSeatCapacity());
+		data.setDistance(getDistance());
+		ObjectOutputStream.PutField fields = out.putFields();
+		fields.put("flightID", flightID);
+		fields.put("flightName", getFlightName());
+		fields.put("flightStatus", flightStatus);
+		fields.put("passagers", new HashMap<>(passagers)); // the store keeps a HashMap
+		fields.put("data", data);
+		fields.put("isDaemon", isDaemon);
+		fields.put("flightDaemon", flightDaemon);
+		out.writeFields();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static HashMap<Passenger, Integer> cast(Object passagers) {
+		return (HashMap<Passenger, Integer>) passagers;
 	}
 	
 	public boolean flightStatusIsAvaliable() {
@@ -96,95 +243,110 @@ public class Flight implements Serializable {
 	}
 	
 	public String getFlightName() {
-		return flightName;
+		return template().flightName;
 	}
 	
 	public void setFlightName(String flightName) throws StatusUnavailableException {
 		if(flightStatusIsUnpublished()){
-			this.flightName = flightName;
+			keep(template().withFlightName(flightName));
+			refile();
 		}else{
 			throw new StatusUnavailableException(flightStatus);
 		}
 	}
 
 	public Date getStartTime() {
-		return data.getStartTime();
+		return startTime;
 	}
 
+	/**
+	 * the arrive time stays, so the flight keeps a template of its own with the new duration
+	 */
 	public void setStartTime(Date startTime) throws StatusUnavailableException {
 		if(flightStatusIsUnpublished()){
-			this.data.setStartTime(startTime);
+			FlightTemplate template = template();
+			long arriveTime = this.startTime.getTime() + template.duration;
+			this.startTime = startTime;
+			keep(template.withDuration(arriveTime - startTime.getTime()));
+			refile();
+			if (flightDaemon != null) {
+				flightDaemon.forgetChildren();
+			}
 		}else{
 			throw new StatusUnavailableException(flightStatus);
 		}
 	}
 
 	public Date getArriveTime() {
-		return data.getArriveTime();
+		return new Date(startTime.getTime() + template().duration);
 	}
 
 	public int getDistance() {
-		return data.getDistance();
+		return template().distance;
 	}
 	
 	public void setDistance(int distance) {
-		this.data.setDistance(distance);
+		keep(template().withDistance(distance));
 	}
 	
 	public void setArriveTime(Date arriveTime) throws StatusUnavailableException {
 		if(flightStatusIsUnpublished()){
-			this.data.setArriveTime(arriveTime);
+			keep(template().withDuration(arriveTime.getTime() - startTime.getTime()));
 		}else{
 			throw new StatusUnavailableException(flightStatus);
 		}
 	}
 
 	public City getStartCity() {
-		return data.getStartCity();
+		return template().startCity;
 	}
 
 	public void setStartCity(City startCity) throws StatusUnavailableException {
 		if(flightStatusIsUnpublished()){
-			this.data.setStartCity(startCity);
+			keep(template().withStartCity(startCity));
+			refile();
 		}else{
 			throw new StatusUnavailableException(flightStatus);
 		}
 	}
 
 	public City getArriveCity() {
-		return data.getArriveCity();
+		return template().arriveCity;
 	}
 
 	public void setArriveCity(City arriveCity) throws StatusUnavailableException {
 		if(flightStatusIsUnpublished()){
-			this.data.setArriveCity(arriveCity);
+			keep(template().withArriveCity(arriveCity));
+			refile();
 		}else{
 			throw new StatusUnavailableException(flightStatus);
 		}
 	}
 
 	public int getPrice() {
-		return data.getPrice();
+		return template().price;
 	}
 
 	public void setPrice(int price) throws StatusUnavailableException {
 		if(!flightStatusIsTerminate()){
-			this.data.setPrice(price);
+			keep(template().withPrice(price));
 		}else{
 			throw new StatusUnavailableException(flightStatus);
 		}
 	}
 
 	public int getSeatCapacity() {
-		return data.getSeatCapacity();
+		return template().seatCapacity;
 	}
 
 	public void setSeatCapacity(int seatCapacity) throws StatusUnavailableException {
 		if(!flightStatusIsTerminate()){
 			// DONE(Zhu) you should consider more in changing seat capacity
            if(flightStatusIsFull() &&
-        		   this.data.getSeatCapacity() < seatCapacity){
-        	   this.data.setSeatCapacity(seatCapacity);
+        		   getSeatCapacity() < seatCapacity){
+        	   keep(template().withSeatCapacity(seatCapacity));
+        	   seats();
+        	   reopen();
            }else{
         	   throw new StatusUnavailableException("Set Failed!");
            }    
@@ -201,12 +363,11 @@ public class Flight implements Serializable {
 	 * read only, use add/remove to operate
 	 * @return a clone of field passengers
 	 */
-	@SuppressWarnings("unchecked")
 	public HashMap<Passenger, Integer> passagers() {
-		return (HashMap<Passenger, Integer>) passagers.clone();
+		return new HashMap<>(passagers);
 	}
 	
-	protected HashMap<Passenger, Integer> getPassagers() {
+	protected ConcurrentHashMap<Passenger, Integer> getPassagers() {
 		return passagers;
 	}
 
@@ -218,15 +379,82 @@ public class Flight implements Serializable {
 			 * and check for status
 			 */
 			if (flightStatusIsAvaliable()) {
-				passagers.put(passenger, seat);
-				if (getPassagersSize() == data.getSeatCapacity()) {
+				putPassenger(passenger, seat);
+				if (getPassagersSize() == getSeatCapacity()) {
 					flightStatus = FlightStatus.FULL;
 				}
+				touch();
 			} else {
 				throw new StatusUnavailableException(flightStatus);
 			}
 		} else {
-			passagers.put(passenger, seat);			
+			putPassenger(passenger, seat);
+			touch();
+		}
+	}
+
+	/**
+	 * give the passenger the seat, the seat it had before is free again
+	 */
+	void putPassenger(Passenger passenger, int seat) {
+		Seats seats = seats();
+		Integer old = passagers.put(passenger, seat);
+		if (old != null) {
+			seats.release(old);
+		}
+		seats.take(seat);
+	}
+
+	/**
+	 * @return false if the passenger has no seat
+	 */
+	boolean takePassenger(Passenger passenger) {
+		Integer seat = passagers.remove(passenger);
+		if (seat == null) {
+			return false;
+		}
+		seats().release(seat);
+		return true;
+	}
+
+	/**
+	 * @return the seats, built again when the capacity changed
+	 * the capacity only changes under the write lock of DataManager, so no booking claims in the old ones
+	 */
+	private Seats seats() {
+		Seats seats = this.seats;
+		if (seats == null || seats.capacity() != getSeatCapacity()) {
+			synchronized (this) { // bookings of a flight not booked yet build them at once
+				seats = this.seats;
+				if (seats == null || seats.capacity() != getSeatCapacity()) {
+					seats = new Seats(getSeatCapacity());
+					for (int seat : passagers.values()) {
+						seats.take(seat);
+					}
+					this.seats = seats;
+				}
+			}
+		}
+		return seats;
+	}
+
+	/**
+	 * build the seats again after the capacity of the daemon changed, under the write lock of DataManager
+	 */
+	void fitSeats() {
+		if (seats != null) {
+			seats();
+		}
+		reopen();
+	}
+
+	/**
+	 * a FULL flight with seats free again after its capacity grew takes bookings again
+	 */
+	private void reopen() {
+		if (flightStatusIsFull() && getPassagersSize() < getSeatCapacity()) {
+			flightStatus = FlightStatus.AVAILABLE;
+			touch();
 		}
 	}
 	
@@ -234,8 +462,28 @@ public class Flight implements Serializable {
 		addPassenger(passenger, seat, false);
 	}
 	
+	/**
+	 * book the first free seat, the seat is claimed at once
+	 * so bookings of the flight may run together holding only the read lock of DataManager
+	 * the last seat taken makes it FULL, it is AVAILABLE again only under the write lock
+	 */
 	protected void addPassenger(Passenger passenger) throws StatusUnavailableException {
-		addPassenger(passenger, getAvailableSeat());
+		if (!flightStatusIsAvaliable()) {
+			throw new StatusUnavailableException(flightStatus);
+		}
+		Seats seats = seats();
+		int seat = seats.claim();
+		if (seat < 0) {
+			throw new StatusUnavailableException(FlightStatus.FULL);
+		}
+		Integer old = passagers.put(passenger, seat);
+		if (old != null) {
+			seats.release(old);
+		}
+		if (seats.taken() >= getSeatCapacity()) {
+			flightStatus = FlightStatus.FULL;
+		}
+		touch();
 	}
 	
 	/**
@@ -250,12 +498,13 @@ public class Flight implements Serializable {
 		 * XXX(Zhu) needs review
 		 */
 		if(!flightStatusIsTerminate()) {
-			if (passagers.remove(passenger) != null) {
-				if (getPassagersSize() < data.getSeatCapacity() && flightStatusIsFull()) {
+			if (takePassenger(passenger)) {
+				if (getPassagersSize() < getSeatCapacity() && flightStatusIsFull()) {
 					flightStatus = FlightStatus.AVAILABLE;
-				} else if (getPassagersSize() == data.getSeatCapacity()) {
+				} else if (getPassagersSize() == getSeatCapacity()) {
 					flightStatus = FlightStatus.FULL;
 				}
+				touch();
 				return true;
 			} else {
 				return false;
@@ -270,22 +519,27 @@ public class Flight implements Serializable {
 		}
 		if (flightStatusIsUnpublished()) {
 			flightStatus = FlightStatus.AVAILABLE;
+			touch();
 		} else {
 			throw new StatusUnavailableException(flightStatus);
 		}
 	}
 
+	/**
+	 * @return the first free seat, -1 if none
+	 */
 	public int getAvailableSeat() {
-		Collection<Integer> seat = passagers.values();
-		if (seat.size() == data.getSeatCapacity()) {
+		if (getPassagersSize() >= getSeatCapacity()) {
 			return -1;
 		}
-		Random random = new Random(this.hashCode() * this.hashCode());
-		int result;
-		do {
-			result = random.nextInt(data.getSeatCapacity()) + 1;			
-		} while (seat.contains(result));
-		return result;
+		return seats().first();
+	}
+
+	/**
+	 * @return the seats not taken
+	 */
+	public int getRemainingSeats() {
+		return getSeatCapacity() - passagers.size();
 	}
 
 	protected boolean isDaemon() {
@@ -294,11 +548,17 @@ public class Flight implements Serializable {
 
 	protected void setDaemon(boolean isDaemon) {
 		this.isDaemon = isDaemon;
+		touch();
+	}
+	
+	public FlightDaemon getFlightDaemon() {
+		return flightDaemon;
 	}
 
 	public void delete() {
 		isDaemon = false;
 		flightStatus = FlightStatus.TERMINATE;
+		touch();
 	}
 	
 }
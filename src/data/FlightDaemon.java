@@ -3,6 +3,7 @@ package data;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.function.Predicate;
 
 import exceptions.StatusUnavailableException;
@@ -17,8 +18,13 @@ public class FlightDaemon implements Serializable{
 	private int flightDaemonID;
 	private String flightName;
 	private FlightDaemonData data = new FlightDaemonData();
+	private transient FlightTemplate template; // built again when null
 	protected boolean status;
 	protected ArrayList<Flight> children;
+	private transient HashMap<Long, Flight> childrenByStart; // built again when null
+	protected transient long createdUntil; // flights are created before this time, 0 to check from the start
+	transient Occurrences occurrences = new Occurrences(); // flights not booked yet, see Occurrences
+	protected transient long version; // Version stamp of the last change
 
 	public FlightDaemon(String flightName, Date startTime, Date arriveTime, int period, City startCity, City arriveCity, int price,
 			int seatCapacity, int distance) {
@@ -37,6 +43,11 @@ public class FlightDaemon implements Serializable{
 		ID++;
 		startCity.flightsOut.add(this);
 		arriveCity.flightsIn.add(this);
+		touch();
+	}
+
+	protected void touch() {
+		version = Version.next();
 	}
 
 	@Override
@@ -79,49 +90,77 @@ public class FlightDaemon implements Serializable{
 
 	public void setFlightDaemonID(int flightDaemonID) {
 		this.flightDaemonID = flightDaemonID;
+		touch();
 	}
 
 	public String getFlightName() {
 		return flightName;
 	}
 
-	public void setFlightName(String flightName) {
+	public void setFlightName(final String flightName) {
+		change(new Change() {
+
+			@Override
+			boolean takenBy(Flight flight) {
+				return flight.flightStatusIsUnpublished();
+			}
+
+			@Override
+			void apply(Flight flight) throws StatusUnavailableException {
+				flight.setFlightName(flightName);
+			}
+		});
 		this.flightName = flightName;
-		for (Flight flight : children) {
-			try {
-				if (flight.isDaemon()) {
-					flight.setFlightName(flightName);
-				}
-			} catch (StatusUnavailableException e) { /* ignored */ }
-		}
+		changed(true);
 	}
 
 	public Date getStartTime() {
 		return data.getStartTime();
 	}
 	
+	/**
+	 * the UNPUBLISHED flights move with it, the arrive times stay
+	 */
 	public void setStartTime(Date startTime) {
 		long shift = startTime.getTime() - this.data.getStartTime().getTime();
-		this.data.setStartTime(startTime);
+		FlightTemplate old = template();
 		for (Flight flight : children) {
-			if (flightIsDaemon(flight)) {
+			if (flight.follows()) {
+				if (flightIsDaemon(flight) && flight.flightStatusIsUnpublished()) {
+					flight.shift(shift);
+				} else {
+					flight.keep(old);
+				}
+			} else if (flightIsDaemon(flight)) {
 				setFlightStartTime(flight, new Date(getFlightStartTime(flight) + shift));
 			}
 		}
+		this.data.setStartTime(startTime);
+		changed(false);
+		forgetChildren();
+		occurrences.shift(shift); // all UNPUBLISHED, DataManager has kept the published ones as flights
 	}
 
 	public Date getArriveTime() {
 		return data.getArriveTime();
 	}
 
-	public void setArriveTime(Date arriveTime) {
-		long shift = arriveTime.getTime() - this.data.getArriveTime().getTime();		
-		this.data.setArriveTime(arriveTime);
-		for (Flight flight : children) {
-			if (flightIsDaemon(flight)) {
-				setFlightArriveTime(flight, new Date(getFlightArriveTime(flight) + shift));
+	public void setArriveTime(final Date arriveTime) {
+		final long shift = arriveTime.getTime() - this.data.getArriveTime().getTime();		
+		change(new Change() {
+
+			@Override
+			boolean takenBy(Flight flight) {
+				return flight.flightStatusIsUnpublished();
 			}
-		}
+
+			@Override
+			void apply(Flight flight) throws StatusUnavailableException {
+				flight.setArriveTime(new Date(getFlightArriveTime(flight) + shift));
+			}
+		});
+		this.data.setArriveTime(arriveTime);
+		changed(false);
 	}
 
 	public int getPeriod() {
@@ -130,65 +169,96 @@ public class FlightDaemon implements Serializable{
 
 	public void setPeriod(int period) {
 		this.data.setPeriod(period);
+		touch();
+		forgetChildren();
 	}
 
 	public City getStartCity() {
 		return data.getStartCity();
 	}
 
-	public void setStartCity(City startCity) {
+	public void setStartCity(final City startCity) {
+		change(new Change() {
+
+			@Override
+			boolean takenBy(Flight flight) {
+				return flight.flightStatusIsUnpublished();
+			}
+
+			@Override
+			void apply(Flight flight) throws StatusUnavailableException {
+				flight.setStartCity(startCity);
+			}
+		});
 		this.data.setStartCity(startCity);
-		for (Flight flight : children) {
-			try {
-				if (flight.isDaemon()) {
-					flight.setStartCity(startCity);
-				}
-			} catch (StatusUnavailableException e) { /* ignored */ }
-		}
+		changed(true);
 	}
 
 	public City getArriveCity() {
 		return data.getArriveCity();
 	}
 
-	public void setArriveCity(City arriveCity) {
+	public void setArriveCity(final City arriveCity) {
+		change(new Change() {
+
+			@Override
+			boolean takenBy(Flight flight) {
+				return flight.flightStatusIsUnpublished();
+			}
+
+			@Override
+			void apply(Flight flight) throws StatusUnavailableException {
+				flight.setArriveCity(arriveCity);
+			}
+		});
 		this.data.setArriveCity(arriveCity);
-		for (Flight flight : children) {
-			try {
-				if (flight.isDaemon()) {
-					flight.setArriveCity(arriveCity);
-				}
-			} catch (StatusUnavailableException e) { /* ignored */ }
-		}
+		changed(true);
 	}
 
 	public int getPrice() {
 		return data.getPrice();
 	}
 
-	public void setPrice(int price) {
+	public void setPrice(final int price) {
+		change(new Change() {
+
+			@Override
+			boolean takenBy(Flight flight) {
+				return !flight.flightStatusIsTerminate();
+			}
+
+			@Override
+			void apply(Flight flight) throws StatusUnavailableException {
+				flight.setPrice(price);
+			}
+		});
 		this.data.setPrice(price);
-		for (Flight flight : children) {
-			try {
-				if (flight.isDaemon()) {
-					flight.setPrice(price);
-				}
-			} catch (StatusUnavailableException e) { /* ignored */ }
-		}
+		changed(false);
 	}
 
 	public int getSeatCapacity() {
 		return data.getSeatCapacity();
 	}
 
-	public void setSeatCapacity(int seatCapacity) {
+	public void setSeatCapacity(final int seatCapacity) {
+		change(new Change() {
+
+			@Override
+			boolean takenBy(Flight flight) {
+				return flight.flightStatusIsFull() && flight.getSeatCapacity() < seatCapacity;
+			}
+
+			@Override
+			void apply(Flight flight) throws StatusUnavailableException {
+				flight.setSeatCapacity(seatCapacity);
+			}
+		});
 		this.data.setSeatCapacity(seatCapacity);
+		changed(false);
 		for (Flight flight : children) {
-			try {
-				if (flight.isDaemon()) {
-					flight.setSeatCapacity(seatCapacity);
-				}
-			} catch (StatusUnavailableException e) { /* ignored */ }
+			if (flight.follows()) {
+				flight.fitSeats();
+			}
 		}
 	}
 
@@ -196,11 +266,82 @@ public class FlightDaemon implements Serializable{
 		return data.getDistance();
 	}
 
-	public void setDistance(int distance) {
+	public void setDistance(final int distance) {
+		change(new Change() {
+
+			@Override
+			boolean takenBy(Flight flight) {
+				return true;
+			}
+
+			@Override
+			void apply(Flight flight) {
+				flight.setDistance(distance);
+			}
+		});
 		this.data.setDistance(distance);
+		changed(false);
+	}
+
+	/**
+	 * @return what its flights have in common as the daemon is now, see FlightTemplate
+	 */
+	FlightTemplate template() {
+		if (template == null) {
+			template = new FlightTemplate(flightName, data.getArriveTime().getTime() - data.getStartTime().getTime(),
+					data.getStartCity(), data.getArriveCity(), data.getPrice(), data.getSeatCapacity(), data.getDistance());
+		}
+		return template;
+	}
+
+	/**
+	 * a change of the daemon, a flight takes it or not as its own setter would
+	 */
+	private abstract class Change {
+
+		/**
+		 * @return whether a flight of the daemon following its template takes the change
+		 */
+		abstract boolean takenBy(Flight flight);
+
+		/**
+		 * give the change to a flight of the daemon with a template of its own
+		 */
+		abstract void apply(Flight flight) throws StatusUnavailableException;
+	}
+
+	/**
+	 * called before the change, the flights following the template that would refuse it keep the old template
+	 * the ones taking it get it with the new template of the daemon, nothing is copied for them
+	 */
+	private void change(Change change) {
+		FlightTemplate old = template();
 		for (Flight flight : children) {
-			if (flight.isDaemon()) {
-				flight.setDistance(distance);
+			if (flight.follows()) {
+				if (!flightIsDaemon(flight) || !change.takenBy(flight)) {
+					flight.keep(old);
+				}
+			} else if (flightIsDaemon(flight)) {
+				try {
+					change.apply(flight);
+				} catch (StatusUnavailableException e) { /* ignored */ }
+			}
+		}
+	}
+
+	/**
+	 * called after the change, the flights following the template are stamped for the store
+	 * @param refile whether the schedule has to file them again, for names and cities
+	 */
+	private void changed(boolean refile) {
+		template = null;
+		touch();
+		for (Flight flight : children) {
+			if (flight.follows()) {
+				flight.touch();
+				if (refile) {
+					flight.refile();
+				}
 			}
 		}
 	}
@@ -214,6 +355,50 @@ public class FlightDaemon implements Serializable{
 		return (ArrayList<Flight>) children.clone();
 	}
 
+	/**
+	 * @return whether a flight leaving at the time is created, booked or not
+	 */
+	boolean hasFlight(long startTime) {
+		return getChild(startTime) != null || occurrences.contains(startTime);
+	}
+
+	/**
+	 * build the flight of an occurrence as it is at the time, it is not kept anywhere
+	 */
+	Flight occurrence(int i, long now) {
+		long startTime = occurrences.start(i);
+		return new Flight(occurrences.id(i), new Date(startTime), this, Occurrences.status(startTime, now));
+	}
+
+	/**
+	 * @return the child leaving at the time, or null
+	 */
+	Flight getChild(long startTime) {
+		if (childrenByStart == null) {
+			childrenByStart = new HashMap<>();
+			for (Flight flight : children) {
+				childrenByStart.put(flight.getStartTime().getTime(), flight);
+			}
+		}
+		return childrenByStart.get(startTime);
+	}
+
+	void addChild(Flight flight) {
+		children.add(flight);
+		if (childrenByStart != null) {
+			childrenByStart.put(flight.getStartTime().getTime(), flight);
+		}
+	}
+
+	/**
+	 * after the children or their start times change, they are looked up
+	 * and checked again from the start by the next CreateFlight
+	 */
+	void forgetChildren() {
+		childrenByStart = null;
+		createdUntil = 0;
+	}
+
 	public void removeFlight() {
 		children.removeIf(new Predicate<Flight>() {
 			
@@ -223,6 +408,8 @@ public class FlightDaemon implements Serializable{
 			}
 		});
 		status = false;
+		touch();
+		forgetChildren();
 	}
 
 }
@@ -1,8 +1,13 @@
 package data;
 
+import java.io.Serializable;
 import java.util.Date;
 
-public class FlightDaemonData {
+public class FlightDaemonData implements Serializable {
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = -3318841652089411326L;
 	private Date startTime;
 	private Date arriveTime;
 	private int period;
@@ -1,8 +1,16 @@
 package data;
 
+import java.io.Serializable;
 import java.util.Date;
 
-public class FlightData {
+/**
+ * The values of a flight as the old single-file snapshot has them, see Flight.readObject
+ */
+public class FlightData implements Serializable {
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 4107365120858318447L;
 	private Date startTime;
 	private Date arriveTime;
 	private City startCity;
@@ -69,30 +77,4 @@ public class FlightData {
 	public void setDistance(int distance) {
 		this.distance = distance;
 	}
-	
-	public int hashCode(String flightName, FlightStatus flightStatus) {
-        int hashCode = 1;
-        hashCode = 31*hashCode + flightName.hashCode();
-        hashCode = 31*hashCode + getStartCity().hashCode();
-        hashCode = 31*hashCode + getStartTime().hashCode();
-        hashCode = 31*hashCode + getArriveCity().hashCode();
-        hashCode = 31*hashCode + getArriveTime().hashCode();
-        hashCode = 31*hashCode + ((Integer)getPrice()).hashCode();
-        hashCode = 31*hashCode + flightStatus.hashCode();
-        hashCode = 31*hashCode + ((Integer)getSeatCapacity()).hashCode();
-        return hashCode;
-	}
-	
-	public String toString(int flightID, String flightName, int passagersSize, FlightStatus flightStatus) {
-		return 
-			String.valueOf(flightID) + "\t" +
-			flightName + "\t" + 
-			((getStartCity().toString().length() < 8) ? (getStartCity().toString() + "\t") : getStartCity().toString()) + "\t" +
-			((getArriveCity().toString().length() < 8) ? (getArriveCity().toString() + "\t") : getArriveCity().toString()) + "\t" +
-			getStartTime().toString() + "\t" +
-			getArriveTime().toString() + "\t" +
-			String.valueOf(getPrice()) + "\t" +
-			String.valueOf(getSeatCapacity() - passagersSize) + "\t" +
-			flightStatus.name();
-	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,392 @@
+package data;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Terminated flights of the store, read in place from memory-mapped segment files
+ * a flights segment holds fixed width rows sorted by ID:
+ * [id int][startTime long][arriveTime long][startCity int][arriveCity int][price int][seatCapacity int]
+ * [distance int][status byte][isDaemon byte][flightDaemon int][name length short][name NAME bytes]
+ * on load only the rows of running flights become Flight objects,
+ * a terminated one is created the first time it is asked for
+ * the live rows are written last, so a load reads only them and the header;
+ * a block of terminated rows is checked against its checksum when one of them is first read
+ */
+public class FlightTable implements Iterable<Flight> {
+
+	public static final int NAME = 32; // bytes of UTF-8 kept for the name
+	public static final int ROW = 80;
+	public static final int BLOCK = 64; // rows under one checksum, 5 KB
+	private static final int START = 4; // offset of the start time in a row
+	private static final int STATUS = 40; // offset of the status byte
+
+	private DataManager manager;
+	private TreeMap<Integer, Part> parts = new TreeMap<>(); // by segment key
+	private HashMap<Integer, Flight> loaded = new HashMap<>(); // created so far, by ID
+
+	/**
+	 * the terminated rows of one mapped segment
+	 */
+	private static class Part {
+		ByteBuffer buffer;
+		int[] rows; // offsets, in ID order, null while they are the first size rows of the file
+		int size;
+		int start; // offset of the first row
+		int width;
+		int block; // rows under one checksum, 0 if the file was checked whole
+		int sums; // offset of the block checksums
+		BitSet checked; // blocks found good so far
+	}
+
+	FlightTable(DataManager manager) {
+		this.manager = manager;
+	}
+
+	/**
+	 * map a flights segment, keep its terminated rows, segments may be mapped in parallel
+	 * @param crc CRC32 the file must have, -1 to skip the check
+	 * @return records of the other rows, to be loaded now
+	 */
+	ArrayList<Segment.Record> map(int key, File file, long crc) throws IOException {
+		MappedByteBuffer buffer;
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			channel.close(); // the mapping stays valid
+		}
+		if (Codec.checkSegment(buffer, file) != Codec.NONE) {
+			throw new IOException(file + " is compressed, flight tables are mapped as they are");
+		}
+		int count = buffer.getInt();
+		int width = buffer.getInt();
+		Part part = new Part();
+		part.buffer = buffer;
+		part.width = width;
+		ArrayList<Segment.Record> records = new ArrayList<>();
+		if (Codec.version(buffer) < 5) {
+			// rows in ID order only, checked whole and scanned for the live ones
+			Codec.check(Codec.crc(buffer, buffer.limit()), crc, file);
+			if (width < ROW || buffer.remaining() < (long) count * width) {
+				throw new IOException(file + " is truncated or has a bad row width");
+			}
+			part.rows = new int[count];
+			int offset = buffer.position();
+			for (int i = 0; i < count; i++, offset += width) {
+				if (buffer.get(offset + STATUS) == FlightStatus.TERMINATE.ordinal()) {
+					part.rows[part.size++] = offset;
+				} else {
+					records.add(Segment.FlightRecord.read(buffer, offset));
+				}
+			}
+			part.rows = Arrays.copyOf(part.rows, part.size);
+		} else {
+			int live = buffer.getInt();
+			part.block = buffer.getInt();
+			part.start = buffer.position();
+			long sums = part.start + (long) count * width;
+			if (width < ROW || live < 0 || live > count || part.block <= 0
+					|| buffer.limit() != sums + 4L * ((count + part.block - 1) / part.block)) {
+				throw new IOException(file + " is truncated or has a bad header");
+			}
+			part.sums = (int) sums;
+			CRC32 head = new CRC32();
+			head.update(bytes(buffer, 0, part.start));
+			head.update(bytes(buffer, part.sums, buffer.limit()));
+			Codec.check(head.getValue(), crc, file);
+			part.size = count - live;
+			part.checked = new BitSet();
+			for (int i = part.size, offset = part.start + i * width; i < count; i++, offset += width) {
+				if (!verify(part, offset)) {
+					throw new IOException(file + " fails the checksum of a block");
+				}
+				records.add(Segment.FlightRecord.read(buffer, offset));
+			}
+		}
+		if (part.size > 0) {
+			synchronized (this) {
+				parts.put(key, part);
+			}
+		}
+		return records;
+	}
+
+	/**
+	 * @return number of rows kept for a segment, created or not
+	 */
+	synchronized int size(int key) {
+		Part part = parts.get(key);
+		return part == null ? 0 : part.size;
+	}
+
+	synchronized Collection<Integer> keys() {
+		return new ArrayList<>(parts.keySet());
+	}
+
+	public synchronized int size() {
+		int size = 0;
+		for (Part part : parts.values()) {
+			size += part.size;
+		}
+		return size;
+	}
+
+	/**
+	 * @return a view of the bytes of a buffer between the two offsets
+	 */
+	private static ByteBuffer bytes(ByteBuffer buffer, int from, int to) {
+		ByteBuffer bytes = buffer.duplicate();
+		bytes.limit(to);
+		bytes.position(from);
+		return bytes;
+	}
+
+	/**
+	 * @return offset of the row at an index of a part
+	 */
+	private static int row(Part part, int index) {
+		return part.rows == null ? part.start + index * part.width : part.rows[index];
+	}
+
+	private static int block(Part part, int offset) {
+		return (offset - part.start) / part.width / part.block;
+	}
+
+	/**
+	 * @return whether the block of a row is good, checked the first time
+	 */
+	private static boolean verify(Part part, int offset) {
+		if (part.block == 0) {
+			return true;
+		}
+		int block = block(part, offset);
+		if (part.checked.get(block)) {
+			return true;
+		}
+		int from = part.start + block * part.block * part.width;
+		CRC32 crc = new CRC32();
+		crc.update(bytes(part.buffer, from, Math.min(part.sums, from + part.block * part.width)));
+		if ((int) crc.getValue() != part.buffer.getInt(part.sums + 4 * block)) {
+			return false;
+		}
+		part.checked.set(block);
+		return true;
+	}
+
+	/**
+	 * check the block of a row before it is read, the rows of a damaged block are dropped
+	 * like a damaged segment, and the next checkpoint writes the segment without them
+	 * @return whether the row can be read
+	 */
+	private boolean check(Part part, int offset) {
+		if (verify(part, offset)) {
+			return true;
+		}
+		int block = block(part, offset);
+		int[] rows = new int[part.size];
+		int size = 0;
+		for (int i = 0; i < part.size; i++) {
+			int row = row(part, i);
+			if (block(part, row) != block) {
+				rows[size++] = row;
+			}
+		}
+		System.err.println("A block of stored flights fails its checksum, " + (part.size - size)
+				+ " terminated flights are dropped");
+		part.rows = rows;
+		part.size = size;
+		return false;
+	}
+
+	/**
+	 * check every block of a part before its rows are all read
+	 */
+	private synchronized void checkAll(Part part) {
+		for (int i = 0; i < part.size; i++) {
+			if (!check(part, row(part, i))) {
+				i--; // the rows of the block are gone, the next one is at the same index
+			}
+		}
+	}
+
+	/**
+	 * @return the terminated flight with the ID, null if it is not in the table
+	 */
+	public synchronized Flight get(int id) {
+		Flight flight = loaded.get(id);
+		if (flight != null) {
+			return flight;
+		}
+		Part part = parts.get(Segment.key(id));
+		if (part == null) {
+			return null;
+		}
+		int low = 0;
+		int high = part.size - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int midID = part.buffer.getInt(row(part, mid));
+			if (midID < id) {
+				low = mid + 1;
+			} else if (midID > id) {
+				high = mid - 1;
+			} else {
+				if (!check(part, row(part, mid))) {
+					return null;
+				}
+				flight = create(Segment.FlightRecord.read(part.buffer, row(part, mid)));
+				loaded.put(id, flight);
+				return flight;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * hand the rows of flights leaving before the cutoff over to the archive
+	 */
+	synchronized void archive(long cutoff, Archive archive) {
+		Iterator<Part> iterator = parts.values().iterator();
+		while (iterator.hasNext()) {
+			Part part = iterator.next();
+			checkAll(part);
+			int[] rows = part.rows != null ? part.rows : new int[part.size];
+			int size = 0;
+			for (int i = 0; i < part.size; i++) {
+				int row = row(part, i);
+				if (part.buffer.getLong(row + START) < cutoff) {
+					Flight flight = loaded.remove(part.buffer.getInt(row));
+					archive.add(flight != null ? Segment.record(flight) : Segment.FlightRecord.read(part.buffer, row),
+							flight);
+				} else {
+					rows[size++] = row;
+				}
+			}
+			if (size < part.size) {
+				part.rows = rows;
+			}
+			part.size = size;
+			if (size == 0) {
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * flights created from the table so far, they may have changed since
+	 */
+	synchronized ArrayList<Flight> loaded() {
+		return new ArrayList<>(loaded.values());
+	}
+
+	/**
+	 * add a record for every row kept for a segment, so it can be written again
+	 */
+	synchronized void records(int key, ArrayList<Segment.Record> records) {
+		Part part = parts.get(key);
+		if (part == null) {
+			return;
+		}
+		checkAll(part);
+		for (int i = 0; i < part.size; i++) {
+			int row = row(part, i);
+			Flight flight = loaded.get(part.buffer.getInt(row));
+			records.add(flight != null ? Segment.record(flight) : Segment.FlightRecord.read(part.buffer, row));
+		}
+	}
+
+	/**
+	 * every terminated flight in ID order, the ones not created yet are
+	 * only made for the caller and not kept
+	 */
+	@Override
+	public Iterator<Flight> iterator() {
+		final Iterator<Map.Entry<Integer, Part>> entries;
+		synchronized (this) {
+			entries = new ArrayList<>(parts.entrySet()).iterator();
+		}
+		return new Iterator<Flight>() {
+			private Part part;
+			private int index;
+
+			@Override
+			public boolean hasNext() {
+				while ((part == null || index >= part.size) && entries.hasNext()) {
+					part = entries.next().getValue();
+					checkAll(part);
+					index = 0;
+				}
+				return part != null && index < part.size;
+			}
+
+			@Override
+			public Flight next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return peek(part, index++);
+			}
+		};
+	}
+
+	private synchronized Flight peek(Part part, int index) {
+		int row = row(part, index);
+		Flight flight = loaded.get(part.buffer.getInt(row));
+		return flight != null ? flight : create(Segment.FlightRecord.read(part.buffer, row));
+	}
+
+	private Flight create(Segment.FlightRecord record) {
+		return create(manager, record);
+	}
+
+	/**
+	 * a Flight for a stored row, linked to the cities and daemon of the manager
+	 */
+	static Flight create(DataManager manager, Segment.FlightRecord record) {
+		Flight flight = record.toFlight(manager.getCityByID(record.startCity), manager.getCityByID(record.arriveCity));
+		flight.flightDaemon = manager.getFlightDaemonByID(record.flightDaemon);
+		return flight;
+	}
+
+	/**
+	 * UTF-8 bytes of a name for a row, cut to NAME bytes on a character boundary
+	 */
+	static byte[] encodeName(String name) {
+		if (name == null) {
+			return new byte[0];
+		}
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length <= NAME) {
+			return bytes;
+		}
+		int length = NAME;
+		while (length > 0 && (bytes[length] & 0xc0) == 0x80) {
+			length--; // do not split a character
+		}
+		return Arrays.copyOf(bytes, length);
+	}
+
+	/**
+	 * @return whether a flight name is stored whole
+	 */
+	public static boolean fits(String name) {
+		return name == null || name.getBytes(StandardCharsets.UTF_8).length <= NAME;
+	}
+
+}
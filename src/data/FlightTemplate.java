@@ -0,0 +1,64 @@
+package data;
+
+/**
+ * What the flights of a daemon have in common, never changed once built
+ * a flight uses the template of its daemon until it has to keep values of its own,
+ * then it keeps the template it had, a change builds a new one, see FlightDaemon.change
+ * so a change of the daemon is one new template for all the flights following it
+ */
+final class FlightTemplate {
+
+	final String flightName;
+	final long duration; // arrive time - start time
+	final City startCity;
+	final City arriveCity;
+	final int price;
+	final int seatCapacity;
+	final int distance;
+
+	FlightTemplate(String flightName, long duration, City startCity, City arriveCity, int price, int seatCapacity,
+			int distance) {
+		this.flightName = flightName;
+		this.duration = duration;
+		this.startCity = startCity;
+		this.arriveCity = arriveCity;
+		this.price = price;
+		this.seatCapacity = seatCapacity;
+		this.distance = distance;
+	}
+
+	FlightTemplate withFlightName(String flightName) {
+		return new FlightTemplate(flightName, duration, startCity, arriveCity, price, seatCapacity, distance);
+	}
+
+	FlightTemplate withDuration(long duration) {
+		return new FlightTemplate(flightName, duration, startCity, arriveCity, price, seatCapacity, distance);
+	}
+
+	FlightTemplate withStartCity(City startCity) {
+		return new FlightTemplate(flightName, duration, startCity, arriveCity, price, seatCapacity, distance);
+	}
+
+	FlightTemplate withArriveCity(City arriveCity) {
+		return new FlightTemplate(flightName, duration, startCity, arriveCity, price, seatCapacity, distance);
+	}
+
+	FlightTemplate withPrice(int price) {
+		return new FlightTemplate(flightName, duration, startCity, arriveCity, price, seatCapacity, distance);
+	}
+
+	FlightTemplate withSeatCapacity(int seatCapacity) {
+		return new FlightTemplate(flightName, duration, startCity, arriveCity, price, seatCapacity, distance);
+	}
+
+	FlightTemplate withDistance(int distance) {
+		return new FlightTemplate(flightName, duration, startCity, arriveCity, price, seatCapacity, distance);
+	}
+
+	boolean sameAs(FlightTemplate o) {
+		return o != null && duration == o.duration && startCity == o.startCity && arriveCity == o.arriveCity
+				&& price == o.price && seatCapacity == o.seatCapacity && distance == o.distance
+				&& (flightName == null ? o.flightName == null : flightName.equals(o.flightName));
+	}
+
+}
@@ -0,0 +1,61 @@
+package data;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Entities by ID, the IDs are counters from 0 so an array is enough
+ * DataManager keeps one for each of its lists and changes them together
+ */
+class Index<T> {
+
+	/**
+	 * read without a lock, so every write publishes the array again once it is filled
+	 */
+	private volatile Object[] items = new Object[16];
+
+	void put(int id, T item) {
+		if (id < 0) {
+			return;
+		}
+		Object[] items = this.items;
+		if (id >= items.length) {
+			items = Arrays.copyOf(items, Math.max(id + 1, items.length * 2));
+		}
+		items[id] = item;
+		this.items = items;
+	}
+
+	@SuppressWarnings("unchecked")
+	T get(int id) {
+		Object[] items = this.items;
+		return id >= 0 && id < items.length ? (T) items[id] : null;
+	}
+
+	/**
+	 * remove the item, unless another one took its ID
+	 */
+	void remove(int id, T item) {
+		Object[] items = this.items;
+		if (get(id) == item && item != null) {
+			items[id] = null;
+			this.items = items;
+		}
+	}
+
+	static <T> Index<T> of(Collection<T> list, ID<T> id) {
+		Index<T> index = new Index<>();
+		for (T item : list) {
+			index.put(id.of(item), item);
+		}
+		return index;
+	}
+
+	/**
+	 * the ID of an entity
+	 */
+	interface ID<T> {
+		int of(T item);
+	}
+
+}
@@ -0,0 +1,211 @@
+package data;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The background jobs of the server by name, run on a small pool of threads
+ * a job runs every period after its last run ends, at a time it is given, see Job.at,
+ * or at once when triggered; it never runs twice at once
+ * a job that throws is counted and runs again the next time, the other jobs go on
+ */
+public class Jobs {
+
+	public static final int THREADS = 3; // a checkpoint may hold one for a while
+	private ScheduledThreadPoolExecutor executor;
+	private LinkedHashMap<String, Job> jobs = new LinkedHashMap<>();
+
+	public class Job {
+		private final String name;
+		private final Runnable task;
+		private final long period; // 0 if it only runs when given a time or triggered
+		private final Object running = new Object(); // held during a run
+		private ScheduledFuture<?> next; // the run set by at(), null if none
+		private int runs;
+		private int failures;
+		private long lastTime; // run time of the last run, ms
+		private long maxTime;
+		private long totalTime;
+		private long lastLag; // how late the last run began, ms
+		private long maxLag;
+		private String lastError; // null if none yet
+
+		private Job(String name, long period, Runnable task) {
+			this.name = name;
+			this.period = period;
+			this.task = task;
+		}
+
+		/**
+		 * one run, meant to begin at the time
+		 */
+		private class Run implements Runnable {
+			private long due;
+
+			Run(long due) {
+				this.due = due;
+			}
+
+			@Override
+			public void run() {
+				due = Job.this.run(due) + period; // runs with a period are set again after the end
+			}
+		}
+
+		/**
+		 * @return when the run ended
+		 */
+		private long run(long due) {
+			synchronized (running) {
+				long begin = System.currentTimeMillis();
+				String error = null;
+				try {
+					task.run();
+				} catch (Throwable e) {
+					error = e.toString();
+					System.err.println("Job " + name + " failed: " + error);
+				}
+				long end = System.currentTimeMillis();
+				synchronized (this) {
+					runs++;
+					if (error != null) {
+						failures++;
+						lastError = error;
+					}
+					lastTime = end - begin;
+					maxTime = Math.max(maxTime, lastTime);
+					totalTime += lastTime;
+					lastLag = Math.max(0, begin - due);
+					maxLag = Math.max(maxLag, lastLag);
+				}
+				return end;
+			}
+		}
+
+		/**
+		 * run once at the time, instead of the time given before
+		 */
+		public synchronized void at(long time) {
+			if (next != null) {
+				next.cancel(false);
+			}
+			try {
+				next = executor.schedule(new Run(time), Math.max(0, time - System.currentTimeMillis()),
+						TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException e) { // stopped
+				next = null;
+			}
+		}
+
+		/**
+		 * run once now, after a run already going on
+		 * @return false if the jobs are stopped
+		 */
+		public boolean trigger() {
+			try {
+				executor.execute(new Run(System.currentTimeMillis()));
+				return true;
+			} catch (RejectedExecutionException e) {
+				return false;
+			}
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return ms, 0 if it only runs when given a time or triggered
+		 */
+		public long getPeriod() {
+			return period;
+		}
+
+		public synchronized int getRuns() {
+			return runs;
+		}
+
+		public synchronized int getFailures() {
+			return failures;
+		}
+
+		/**
+		 * @return run time of the last run, ms
+		 */
+		public synchronized long getLastTime() {
+			return lastTime;
+		}
+
+		public synchronized long getMaxTime() {
+			return maxTime;
+		}
+
+		/**
+		 * @return null if none yet
+		 */
+		public synchronized String getLastError() {
+			return lastError;
+		}
+
+		@Override
+		public synchronized String toString() {
+			return name + "\t" + (period == 0 ? "-" : String.valueOf(period)) + "\t" + runs + "\t" + failures
+					+ "\t" + lastTime + "\t" + maxTime + "\t" + (runs == 0 ? 0 : totalTime / runs) + "\t" + lastLag
+					+ "\t" + maxLag + "\t" + (lastError == null ? "" : lastError);
+		}
+	}
+
+	public Jobs() {
+		executor = new ScheduledThreadPoolExecutor(THREADS, new ThreadFactory() {
+			private int count = 0;
+
+			@Override
+			public synchronized Thread newThread(Runnable r) {
+				return new Thread(r, "job-" + ++count);
+			}
+		});
+		executor.setRemoveOnCancelPolicy(true); // Deadlines sets its run again and again
+		executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+	}
+
+	/**
+	 * @param delay before the first run, ms
+	 * @param period between the end of a run and the next, ms, 0 to only run when given a time or triggered
+	 */
+	public synchronized Job add(String name, long delay, long period, Runnable task) {
+		Job job = new Job(name, period, task);
+		jobs.put(name, job);
+		if (period > 0) {
+			executor.scheduleWithFixedDelay(job.new Run(System.currentTimeMillis() + delay), delay, period,
+					TimeUnit.MILLISECONDS);
+		}
+		return job;
+	}
+
+	/**
+	 * @return the job with the name, null if none
+	 */
+	public synchronized Job get(String name) {
+		return jobs.get(name);
+	}
+
+	public synchronized ArrayList<Job> list() {
+		return new ArrayList<>(jobs.values());
+	}
+
+	/**
+	 * no more runs, the ones going on are waited for a minute at most
+	 */
+	public void stop() {
+		executor.shutdown();
+		try {
+			executor.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) { /* stop anyway */ }
+	}
+
+}
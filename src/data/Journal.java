@@ -0,0 +1,332 @@
+package data;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead journal of the mutations applied to DataManager
+ * each record is [length][crc32][type][argc][tagged args...]
+ * the journal is split into generations (prefix.0, prefix.1, ...), a snapshot
+ * rotates to a new generation and covers every generation before it
+ * use append() to log a mutation, sync() to write the queued records and force them to disk,
+ * replay() to apply the records written after the last snapshot
+ * append() only queues the record, so bookings logging at once do not wait for each other
+ * records between begin() and commit() are replayed only if the commit was written
+ */
+public class Journal {
+
+	public static final byte ADD_PASSENGER = 1;
+	public static final byte ADD_ADMIN = 2;
+	public static final byte REMOVE_USER = 3;
+	public static final byte USER_NAME = 4;
+	public static final byte USER_PASS = 5;
+	public static final byte ADD_CITY = 6;
+	public static final byte REMOVE_CITY = 7;
+	public static final byte CITY_NAME = 8;
+	public static final byte ADD_DAEMON = 9;
+	public static final byte REMOVE_DAEMON = 10;
+	public static final byte CHANGE_DAEMON = 11;
+	public static final byte CREATE_FLIGHT = 12;
+	public static final byte FLIGHT_STATUS = 13;
+	public static final byte RESERVE = 14;
+	public static final byte PAY = 15;
+	public static final byte CANCEL = 16;
+	public static final byte BEGIN = 17;
+	public static final byte COMMIT = 18;
+	public static final byte MATERIALIZE = 19;
+
+	public static final int GROUP_SIZE = 64; // records per fsync
+	public static final long GROUP_INTERVAL = 200l; // 0.2 second
+
+	private static final byte TAG_NULL = 0;
+	private static final byte TAG_INT = 1;
+	private static final byte TAG_LONG = 2;
+	private static final byte TAG_STRING = 3;
+
+	private String prefix;
+	private int generation;
+	private FileOutputStream output;
+	private FileChannel channel;
+	private int pending;
+	private volatile boolean batch; // between begin() and commit(), no group fsync
+	private final ConcurrentLinkedQueue<ByteBuffer> queue = new ConcurrentLinkedQueue<>(); // appended, not written yet
+	private final AtomicInteger appended = new AtomicInteger();
+
+	public Journal(String prefix) {
+		this.prefix = prefix;
+	}
+	
+	private File file(int generation) {
+		return new File(prefix + "." + generation);
+	}
+
+	public synchronized void open(int generation) throws IOException {
+		this.generation = generation;
+		output = new FileOutputStream(file(generation), true);
+		channel = output.getChannel();
+		pending = 0;
+	}
+	
+	public synchronized int getGeneration() {
+		return generation;
+	}
+	
+	/**
+	 * @return bytes written, not counting the queued records
+	 */
+	public synchronized long size() throws IOException {
+		return channel == null ? 0 : channel.size();
+	}
+	
+	/**
+	 * seal the current generation and continue in a new one
+	 * under the write lock of DataManager, so every record appended before is in the sealed one
+	 * @return the new generation
+	 */
+	public synchronized int rotate() throws IOException {
+		close();
+		open(generation + 1);
+		return generation;
+	}
+	
+	/**
+	 * delete the generations before the given one, they are in a snapshot now
+	 */
+	public void delete(int before) {
+		for (int generation : generations()) {
+			if (generation < before) {
+				file(generation).delete();
+			}
+		}
+	}
+	
+	private int[] generations() {
+		File dir = new File(prefix).getAbsoluteFile().getParentFile();
+		String name = new File(prefix).getName() + ".";
+		String[] files = dir.list();
+		int[] result = new int[files == null ? 0 : files.length];
+		int count = 0;
+		for (int i = 0; i < result.length; i++) {
+			if (files[i].startsWith(name)) {
+				try {
+					result[count] = Integer.parseInt(files[i].substring(name.length()));
+					count++;
+				} catch (NumberFormatException e) { /* not a journal */ }
+			}
+		}
+		result = Arrays.copyOf(result, count);
+		Arrays.sort(result);
+		return result;
+	}
+
+	/**
+	 * queue one record, it reaches the OS and the disk with its group at the next sync()
+	 * the records are written in the order they were queued
+	 * @param args Integer, Long, String or null
+	 * @return true if the record fills a group, sync() should run soon then
+	 */
+	public boolean append(byte type, Object... args) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream(64);
+		DataOutputStream stream = new DataOutputStream(body);
+		stream.writeByte(type);
+		stream.writeByte(args.length);
+		for (Object arg : args) {
+			if (arg == null) {
+				stream.writeByte(TAG_NULL);
+			} else if (arg instanceof Integer) {
+				stream.writeByte(TAG_INT);
+				stream.writeInt((Integer) arg);
+			} else if (arg instanceof Long) {
+				stream.writeByte(TAG_LONG);
+				stream.writeLong((Long) arg);
+			} else {
+				stream.writeByte(TAG_STRING);
+				stream.writeUTF(arg.toString());
+			}
+		}
+		byte[] bytes = body.toByteArray();
+		CRC32 crc = new CRC32();
+		crc.update(bytes);
+		ByteBuffer record = ByteBuffer.allocate(8 + bytes.length);
+		record.putInt(bytes.length);
+		record.putInt((int) crc.getValue());
+		record.put(bytes);
+		record.flip();
+		queue.offer(record);
+		return appended.incrementAndGet() % GROUP_SIZE == 0 && !batch;
+	}
+
+	/**
+	 * write the queued records, a group at a time
+	 */
+	private void drain() throws IOException {
+		ByteBuffer[] records = new ByteBuffer[GROUP_SIZE];
+		int count;
+		do {
+			count = 0;
+			long length = 0;
+			ByteBuffer record;
+			while (count < records.length && (record = queue.poll()) != null) {
+				records[count++] = record;
+				length += record.remaining();
+			}
+			while (length > 0) {
+				length -= channel.write(records, 0, count);
+			}
+			pending += count;
+		} while (count == records.length);
+	}
+
+	/**
+	 * start a batch, its records are replayed all together or not at all
+	 */
+	public synchronized void begin() throws IOException {
+		append(BEGIN);
+		batch = true;
+	}
+
+	/**
+	 * end a batch and force it to disk
+	 */
+	public synchronized void commit() throws IOException {
+		batch = false;
+		append(COMMIT);
+		sync();
+	}
+
+	public synchronized void sync() throws IOException {
+		if (channel == null) {
+			return;
+		}
+		drain();
+		if (pending > 0) {
+			channel.force(false);
+			pending = 0;
+		}
+	}
+
+	public synchronized void close() throws IOException {
+		if (channel != null) {
+			sync();
+			output.close();
+			channel = null;
+		}
+	}
+
+	/**
+	 * apply the records of generation from and later to manager in order
+	 * @return the last generation found, to be opened for appending
+	 */
+	public int replay(int from, DataManager manager) throws IOException {
+		int last = from;
+		for (int generation : generations()) {
+			if (generation >= from) {
+				replay(file(generation), manager);
+				last = generation;
+			}
+		}
+		return last;
+	}
+
+	/**
+	 * apply every complete record of one file to manager in order
+	 * a torn or corrupted tail (crash during append) is cut off, with the batch it interrupted
+	 * @return number of records replayed
+	 */
+	private int replay(File file, DataManager manager) throws IOException {
+		int count = 0;
+		long valid = 0;
+		long begin = -1; // offset of the open batch
+		ArrayList<byte[]> batch = new ArrayList<>();
+		DataInputStream stream = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			while (true) {
+				int length;
+				try {
+					length = stream.readInt();
+				} catch (EOFException e) {
+					break;
+				}
+				int checksum = stream.readInt();
+				if (length < 2 || length > file.length()) {
+					break;
+				}
+				byte[] bytes = new byte[length];
+				stream.readFully(bytes);
+				CRC32 crc = new CRC32();
+				crc.update(bytes);
+				if ((int) crc.getValue() != checksum) {
+					break;
+				}
+				if (bytes[0] == BEGIN) {
+					begin = valid;
+				} else if (bytes[0] == COMMIT) {
+					for (byte[] record : batch) {
+						manager.redo(record[0], readArgs(record));
+					}
+					count += batch.size();
+					batch.clear();
+					begin = -1;
+				} else if (begin >= 0) {
+					batch.add(bytes);
+				} else {
+					manager.redo(bytes[0], readArgs(bytes));
+					count++;
+				}
+				valid += 8 + length;
+			}
+		} catch (EOFException e) {
+			/* torn record, truncated below */
+		} finally {
+			stream.close();
+		}
+		if (begin >= 0) {
+			valid = begin;
+		}
+		if (valid < file.length()) {
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			raf.setLength(valid);
+			raf.close();
+		}
+		return count;
+	}
+
+	private static Object[] readArgs(byte[] bytes) throws IOException {
+		DataInputStream stream = new DataInputStream(new ByteArrayInputStream(bytes, 1, bytes.length - 1));
+		Object[] args = new Object[stream.readUnsignedByte()];
+		for (int i = 0; i < args.length; i++) {
+			switch (stream.readByte()) {
+			case TAG_INT:
+				args[i] = stream.readInt();
+				break;
+			case TAG_LONG:
+				args[i] = stream.readLong();
+				break;
+			case TAG_STRING:
+				args[i] = stream.readUTF();
+				break;
+			default:
+				args[i] = null;
+				break;
+			}
+		}
+		return args;
+	}
+
+}
@@ -0,0 +1,50 @@
+package data;
+
+import java.util.TreeMap;
+
+/**
+ * Table of contents of the store, replaced atomically by every checkpoint
+ * maps segment name to the file holding it and its record count
+ */
+public class Manifest {
+
+	long clock; // Version stamp the segments are up to
+	int journalGeneration; // first journal generation not in the store
+	int userID;
+	int flightID;
+	int cityID;
+	int flightDaemonID;
+	TreeMap<String, Entry> segments = new TreeMap<>();
+
+	static class Entry {
+		String file;
+		int count;
+		int low; // lowest and highest flight ID, for archive segments
+		int high;
+		long crc = -1; // CRC32 of the file, -1 if unknown
+
+		Entry(String file, int count) {
+			this.file = file;
+			this.count = count;
+		}
+
+		Entry(String file, int count, int low, int high) {
+			this(file, count);
+			this.low = low;
+			this.high = high;
+		}
+	}
+
+	Manifest copy() {
+		Manifest manifest = new Manifest();
+		manifest.clock = clock;
+		manifest.journalGeneration = journalGeneration;
+		manifest.userID = userID;
+		manifest.flightID = flightID;
+		manifest.cityID = cityID;
+		manifest.flightDaemonID = flightDaemonID;
+		manifest.segments.putAll(segments);
+		return manifest;
+	}
+
+}
@@ -0,0 +1,126 @@
+package data;
+
+import java.util.Arrays;
+
+/**
+ * The flights of a daemon nobody has booked yet, kept as start time and ID only
+ * a Flight is built from the daemon each time one is shown, see FlightDaemon.occurrence,
+ * and kept for good once it is booked or changed, see DataManager.materialize
+ * sorted by start time, a daemon has about DAY_OF_CREATE / period of them so arrays are enough
+ */
+class Occurrences {
+
+	private long[] starts;
+	private int[] ids;
+	private int size;
+
+	Occurrences() {
+		this(new long[0], new int[0]);
+	}
+
+	/**
+	 * @param starts sorted, as saved by starts()
+	 */
+	Occurrences(long[] starts, int[] ids) {
+		this.starts = starts;
+		this.ids = ids;
+		this.size = starts.length;
+	}
+
+	/**
+	 * the status the server gives a flight of a daemon at the time, see Deadlines
+	 */
+	static FlightStatus status(long startTime, long now) {
+		if (startTime - now <= DataManager.TIME_TO_TERMINATE) {
+			return FlightStatus.TERMINATE;
+		}
+		return startTime - now <= DataManager.TIME_TO_PUBLISH ? FlightStatus.AVAILABLE : FlightStatus.UNPUBLISHED;
+	}
+
+	int size() {
+		return size;
+	}
+
+	long start(int i) {
+		return starts[i];
+	}
+
+	int id(int i) {
+		return ids[i];
+	}
+
+	void add(long start, int id) {
+		if (size == starts.length) {
+			starts = Arrays.copyOf(starts, Math.max(4, size * 2));
+			ids = Arrays.copyOf(ids, starts.length);
+		}
+		int i = from(start + 1);
+		System.arraycopy(starts, i, starts, i + 1, size - i);
+		System.arraycopy(ids, i, ids, i + 1, size - i);
+		starts[i] = start;
+		ids[i] = id;
+		size++;
+	}
+
+	void remove(int i) {
+		System.arraycopy(starts, i + 1, starts, i, size - i - 1);
+		System.arraycopy(ids, i + 1, ids, i, size - i - 1);
+		size--;
+	}
+
+	void clear() {
+		size = 0;
+	}
+
+	/**
+	 * @return index of the occurrence with the ID, -1 if none
+	 */
+	int indexOf(int id) {
+		for (int i = 0; i < size; i++) {
+			if (ids[i] == id) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	boolean contains(long start) {
+		int i = from(start);
+		return i < size && starts[i] == start;
+	}
+
+	/**
+	 * @return index of the first occurrence leaving at the time or later
+	 */
+	int from(long time) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (starts[middle] < time) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * move all of them, the order stays the same
+	 */
+	void shift(long shift) {
+		for (int i = 0; i < size; i++) {
+			starts[i] += shift;
+		}
+	}
+
+	long[] starts() {
+		return Arrays.copyOf(starts, size);
+	}
+
+	int[] ids() {
+		return Arrays.copyOf(ids, size);
+	}
+
+}
@@ -15,13 +15,26 @@ public class Order implements Serializable {
 	private Flight flight;
 	private Date createDate;
 	private OrderStatus status;
+	protected transient long version; // Version stamp of the last change
 	
 	public Order(Passenger passenger, Flight flight, int seat) throws StatusUnavailableException {
+		this(passenger, flight, seat, true);
+	}
+	
+	Order(Passenger passenger, Flight flight, int seat, boolean ignore) throws StatusUnavailableException {
+		this(passenger, flight, seat, ignore, new Date());
+	}
+	
+	/**
+	 * @param createDate when it was booked, a booking replayed from the journal keeps its own
+	 */
+	Order(Passenger passenger, Flight flight, int seat, boolean ignore, Date createDate) throws StatusUnavailableException {
 		this.passenger = passenger;
 		this.flight = flight;
-		createDate = new Date(); //now
+		this.createDate = createDate;
 		status = OrderStatus.UNPAID;
-		flight.addPassenger(passenger, seat, true);
+		flight.addPassenger(passenger, seat, ignore);
+		touch();
 	}
 	
 	public Order(Passenger passenger, Flight flight) throws StatusUnavailableException {
@@ -30,6 +43,21 @@ public class Order implements Serializable {
 		createDate = new Date(); //now
 		status = OrderStatus.UNPAID;
 		flight.addPassenger(passenger);
+		touch();
+	}
+	
+	/**
+	 * an order read back from the store, the flight already knows its passenger
+	 */
+	Order(Passenger passenger, Flight flight, Date createDate, OrderStatus status) {
+		this.passenger = passenger;
+		this.flight = flight;
+		this.createDate = createDate;
+		this.status = status;
+	}
+
+	protected void touch() {
+		version = Version.next();
 	}
 	
 	@Override
@@ -78,7 +106,7 @@ public class Order implements Serializable {
 	}
 
 	public Integer getSeat() {
-		return existFlight() ? flight.passagers().get(passenger) : null;
+		return existFlight() ? flight.getPassagers().get(passenger) : null;
 	}
 
 	public Flight getFlight() {
@@ -99,6 +127,7 @@ public class Order implements Serializable {
 	
 	protected void setCreatDate(Date creatDate) {
 		this.createDate = creatDate;
+		touch();
 	}
 
 	public OrderStatus getStatus() {
@@ -107,18 +136,16 @@ public class Order implements Serializable {
 	
 	protected void setStatus(OrderStatus status) {
 		this.status = status;
+		touch();
 		if (isCancle()) {
-			for (Passenger passenger : flight.getPassagers().keySet()) {
-				if (passenger == this.passenger) {
-					flight.getPassagers().remove(passenger);
-				}
-			}
+			flight.takePassenger(passenger);
 		}
 	}
 	
 	public void pay() throws StatusUnavailableException {
 		if (isUnpaid()) {
 			status = OrderStatus.PAID;
+			touch();
 		} else {
 			throw new StatusUnavailableException(status);
 		}
@@ -134,6 +161,7 @@ public class Order implements Serializable {
 			}
 			flight.removePassenger(passenger);			
 			status = OrderStatus.CANCLE;
+			touch();
 			return re;
 		} else {
 			throw new StatusUnavailableException(status);
@@ -157,15 +185,13 @@ public class Order implements Serializable {
 
 	public void remove() {
 		if (!isCancle()) {
-			for (Passenger passenger : flight.getPassagers().keySet()) {
-				if (passenger == this.passenger) {
-					flight.getPassagers().remove(passenger);
-				}
-			}
+			flight.takePassenger(passenger);
 			passenger.orderList.remove(this);
-			if (flight.getPassagers().size() < flight.getSeatCapacity()) {
+			if (flight.getRemainingSeats() > 0) {
 				flight.flightStatus = FlightStatus.AVAILABLE;
+				flight.touch();
 			} 
+			touch();
 		}
 	}
 
@@ -1,6 +1,7 @@
 package data;
 
 import java.util.ArrayList;
+import java.util.Date;
 
 import exceptions.StatusUnavailableException;
 
@@ -20,30 +21,43 @@ public class Passenger extends User {
 		this.userID = User.ID;
 		User.ID++;
 		passHash = hashPass(password);
+		touch();
 	}
 	
 	public String getIdentityID() {
 		return identityID;
 	}
 	
-	public void reserveFlight(Flight flight) throws StatusUnavailableException {
+	/**
+	 * @return the new order
+	 */
+	public Order reserveFlight(Flight flight) throws StatusUnavailableException {
 		if (flight.getPassagers().containsKey(this)) {
 			throw new StatusUnavailableException("has already reserved");			
 		}
 		Order order = new Order(this, flight);
 		this.addOrder(order);
+		return order;
+	}
+	
+	/**
+	 * reserve a given seat on the date it was booked, used when replaying the journal
+	 */
+	void reserveFlight(Flight flight, int seat, Date createDate) throws StatusUnavailableException {
+		Order order = new Order(this, flight, seat, false, createDate);
+		this.addOrder(order);
 	}
 	
-	public void addOrder(Order order) {
+	public synchronized void addOrder(Order order) {
 		orderList.add(order);
 	}
 	
 	@SuppressWarnings("unchecked")
-	public ArrayList<Order> getOrderList() {
+	public synchronized ArrayList<Order> getOrderList() {
 		return (ArrayList<Order>) orderList.clone();
 	}
 	
-	public boolean removeOrder(Order order){
+	public synchronized boolean removeOrder(Order order){
 		return orderList.remove(order);
 	}
 
@@ -0,0 +1,288 @@
+package data;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.TreeMap;
+
+/**
+ * Flights of DataManager.flights in departure order, for searches by date,
+ * and the same for each route (start city, arrive city) for searches by city
+ * flights are also grouped by lower case name, and the names by their trigrams,
+ * for searches by a part of the name
+ * a flight is filed under its start time and ID, and files itself again
+ * through Flight.schedule when its start time, a city or its name changes
+ * and its next status change is set in the deadlines each time
+ * daemons are filed by route and by name as well, so a search only builds
+ * the occurrences of the daemons that can match, DataManager files them again when they change
+ */
+class Schedule {
+
+	private TreeMap<Key, Flight> departures = new TreeMap<>();
+	private HashMap<Long, TreeMap<Key, Flight>> routes = new HashMap<>();
+	private HashMap<String, HashMap<Integer, Flight>> names = new HashMap<>(); // lower case name to flights by ID
+	private HashMap<String, HashSet<String>> trigrams = new HashMap<>(); // to the names having it, of flights or daemons
+	private Index<Key> keys = new Index<>(); // where each flight is filed, by ID
+	// daemons by ID, for their hash codes change with their fields
+	private HashMap<Long, HashMap<Integer, FlightDaemon>> daemonRoutes = new HashMap<>();
+	private HashMap<String, HashMap<Integer, FlightDaemon>> daemonNames = new HashMap<>(); // lower case name to daemons
+	private Index<Key> daemonKeys = new Index<>(); // where each daemon is filed, by daemon ID
+	private Deadlines deadlines;
+
+	static final Comparator<Flight> BY_ID = new Comparator<Flight>() {
+
+		@Override
+		public int compare(Flight o1, Flight o2) {
+			return Integer.compare(o1.getFlightID(), o2.getFlightID());
+		}
+	};
+
+	static final Comparator<Flight> BY_DEPARTURE = new Comparator<Flight>() {
+
+		@Override
+		public int compare(Flight o1, Flight o2) {
+			int c = o1.getStartTime().compareTo(o2.getStartTime());
+			return c != 0 ? c : Integer.compare(o1.getFlightID(), o2.getFlightID());
+		}
+	};
+
+	Schedule(Deadlines deadlines) {
+		this.deadlines = deadlines;
+	}
+
+	/**
+	 * start time, then ID; the route and name are not compared
+	 */
+	static class Key implements Comparable<Key> {
+		final long time;
+		final int id;
+		final long route;
+		final String name;
+
+		Key(long time, int id) {
+			this(time, id, 0, null);
+		}
+
+		Key(long time, int id, long route, String name) {
+			this.time = time;
+			this.id = id;
+			this.route = route;
+			this.name = name;
+		}
+
+		@Override
+		public int compareTo(Key o) {
+			if (time != o.time) {
+				return time < o.time ? -1 : 1;
+			}
+			return Integer.compare(id, o.id);
+		}
+	}
+
+	synchronized void add(Flight flight) {
+		remove(flight);
+		long route = route(flight.getStartCity(), flight.getArriveCity());
+		String name = flight.getFlightName() == null ? "" : flight.getFlightName().toLowerCase();
+		Key key = new Key(flight.getStartTime().getTime(), flight.getFlightID(), route, name);
+		departures.put(key, flight);
+		TreeMap<Key, Flight> departuresOfRoute = routes.get(route);
+		if (departuresOfRoute == null) {
+			departuresOfRoute = new TreeMap<>();
+			routes.put(route, departuresOfRoute);
+		}
+		departuresOfRoute.put(key, flight);
+		HashMap<Integer, Flight> flightsNamed = names.get(name);
+		if (flightsNamed == null) {
+			flightsNamed = new HashMap<>();
+			names.put(name, flightsNamed);
+			addTrigrams(name);
+		}
+		flightsNamed.put(flight.getFlightID(), flight);
+		keys.put(flight.getFlightID(), key);
+		flight.schedule = this;
+		deadlines.add(flight);
+	}
+
+	synchronized void remove(Flight flight) {
+		Key key = keys.get(flight.getFlightID());
+		if (key != null && departures.get(key) == flight) {
+			departures.remove(key);
+			TreeMap<Key, Flight> departuresOfRoute = routes.get(key.route);
+			departuresOfRoute.remove(key);
+			if (departuresOfRoute.isEmpty()) {
+				routes.remove(key.route);
+			}
+			HashMap<Integer, Flight> flightsNamed = names.get(key.name);
+			flightsNamed.remove(flight.getFlightID());
+			if (flightsNamed.isEmpty()) {
+				names.remove(key.name);
+				removeTrigrams(key.name);
+			}
+			keys.remove(flight.getFlightID(), key);
+		}
+		flight.schedule = null;
+	}
+
+	/**
+	 * file a daemon under its route and name, again if they changed
+	 */
+	synchronized void add(FlightDaemon daemon) {
+		remove(daemon);
+		long route = route(daemon.getStartCity(), daemon.getArriveCity());
+		String name = daemon.getFlightName() == null ? "" : daemon.getFlightName().toLowerCase();
+		HashMap<Integer, FlightDaemon> daemonsOfRoute = daemonRoutes.get(route);
+		if (daemonsOfRoute == null) {
+			daemonsOfRoute = new HashMap<>();
+			daemonRoutes.put(route, daemonsOfRoute);
+		}
+		daemonsOfRoute.put(daemon.getFlightDaemonID(), daemon);
+		HashMap<Integer, FlightDaemon> daemonsNamed = daemonNames.get(name);
+		if (daemonsNamed == null) {
+			daemonsNamed = new HashMap<>();
+			daemonNames.put(name, daemonsNamed);
+			addTrigrams(name);
+		}
+		daemonsNamed.put(daemon.getFlightDaemonID(), daemon);
+		daemonKeys.put(daemon.getFlightDaemonID(), new Key(0, daemon.getFlightDaemonID(), route, name));
+	}
+
+	synchronized void remove(FlightDaemon daemon) {
+		Key key = daemonKeys.get(daemon.getFlightDaemonID());
+		if (key == null || daemonRoutes.get(key.route).get(daemon.getFlightDaemonID()) != daemon) {
+			return;
+		}
+		HashMap<Integer, FlightDaemon> daemonsOfRoute = daemonRoutes.get(key.route);
+		daemonsOfRoute.remove(daemon.getFlightDaemonID());
+		if (daemonsOfRoute.isEmpty()) {
+			daemonRoutes.remove(key.route);
+		}
+		HashMap<Integer, FlightDaemon> daemonsNamed = daemonNames.get(key.name);
+		daemonsNamed.remove(daemon.getFlightDaemonID());
+		if (daemonsNamed.isEmpty()) {
+			daemonNames.remove(key.name);
+			removeTrigrams(key.name);
+		}
+		daemonKeys.remove(daemon.getFlightDaemonID(), key);
+	}
+
+	/**
+	 * index the trigrams of a name the first time a flight or daemon has it
+	 */
+	private void addTrigrams(String name) {
+		if (names.containsKey(name) && daemonNames.containsKey(name)) {
+			return; // the other one indexed it
+		}
+		for (int i = 0; i + 3 <= name.length(); i++) {
+			HashSet<String> namesOfTrigram = trigrams.get(name.substring(i, i + 3));
+			if (namesOfTrigram == null) {
+				namesOfTrigram = new HashSet<>();
+				trigrams.put(name.substring(i, i + 3), namesOfTrigram);
+			}
+			namesOfTrigram.add(name);
+		}
+	}
+
+	/**
+	 * drop the trigrams of a name once no flight and no daemon has it
+	 */
+	private void removeTrigrams(String name) {
+		if (names.containsKey(name) || daemonNames.containsKey(name)) {
+			return;
+		}
+		for (int i = 0; i + 3 <= name.length(); i++) {
+			HashSet<String> namesOfTrigram = trigrams.get(name.substring(i, i + 3));
+			namesOfTrigram.remove(name);
+			if (namesOfTrigram.isEmpty()) {
+				trigrams.remove(name.substring(i, i + 3));
+			}
+		}
+	}
+
+	/**
+	 * @return flights leaving between the two times, both included, in departure order
+	 */
+	synchronized ArrayList<Flight> between(long from, long to) {
+		return between(departures, from, to);
+	}
+
+	/**
+	 * @return flights from one city to another leaving between the two times, in departure order
+	 */
+	synchronized ArrayList<Flight> between(City startCity, City arriveCity, long from, long to) {
+		return between(routes.get(route(startCity, arriveCity)), from, to);
+	}
+
+	/**
+	 * @return flights whose name contains the text, ignoring case, in ID order
+	 * only the names having every trigram of the text are compared
+	 */
+	synchronized ArrayList<Flight> named(String text) {
+		String part = text.toLowerCase();
+		ArrayList<Flight> flights = new ArrayList<>();
+		for (String name : candidates(part, names.keySet())) {
+			HashMap<Integer, Flight> flightsNamed = names.get(name);
+			if (flightsNamed != null && name.contains(part)) {
+				flights.addAll(flightsNamed.values());
+			}
+		}
+		Collections.sort(flights, BY_ID);
+		return flights;
+	}
+
+	/**
+	 * @return daemons from one city to another
+	 */
+	synchronized ArrayList<FlightDaemon> daemons(City startCity, City arriveCity) {
+		HashMap<Integer, FlightDaemon> daemonsOfRoute = daemonRoutes.get(route(startCity, arriveCity));
+		return daemonsOfRoute == null ? new ArrayList<FlightDaemon>() : new ArrayList<>(daemonsOfRoute.values());
+	}
+
+	/**
+	 * @return daemons whose name contains the text, ignoring case
+	 */
+	synchronized ArrayList<FlightDaemon> daemonsNamed(String text) {
+		String part = text.toLowerCase();
+		ArrayList<FlightDaemon> daemons = new ArrayList<>();
+		for (String name : candidates(part, daemonNames.keySet())) {
+			HashMap<Integer, FlightDaemon> daemonsNamed = daemonNames.get(name);
+			if (daemonsNamed != null && name.contains(part)) {
+				daemons.addAll(daemonsNamed.values());
+			}
+		}
+		return daemons;
+	}
+
+	/**
+	 * @param all the names to compare when the text is shorter than a trigram
+	 * @return the names having every trigram of the text, of flights or daemons
+	 */
+	private Collection<String> candidates(String part, Collection<String> all) {
+		Collection<String> candidates = all;
+		for (int i = 0; i + 3 <= part.length(); i++) {
+			HashSet<String> namesOfTrigram = trigrams.get(part.substring(i, i + 3));
+			if (namesOfTrigram == null) {
+				return new ArrayList<>();
+			}
+			if (namesOfTrigram.size() < candidates.size()) {
+				candidates = namesOfTrigram;
+			}
+		}
+		return candidates;
+	}
+
+	private static ArrayList<Flight> between(TreeMap<Key, Flight> departures, long from, long to) {
+		if (departures == null || from > to) {
+			return new ArrayList<>();
+		}
+		return new ArrayList<>(departures.subMap(new Key(from, Integer.MIN_VALUE), true,
+				new Key(to, Integer.MAX_VALUE), true).values());
+	}
+
+	private static long route(City startCity, City arriveCity) {
+		return (long) Segment.cityID(startCity) << 32 | Segment.cityID(arriveCity) & 0xffffffffL;
+	}
+
+}
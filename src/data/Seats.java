@@ -0,0 +1,107 @@
+package data;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The taken seats of a flight, one bit each, seat s is bit s - 1
+ * a seat is claimed with a compare-and-set on its word, so bookings of a flight
+ * holding only the read lock of DataManager never get the same seat
+ * the capacity is fixed, Flight builds new ones under the write lock when it changes, see Flight.seats
+ */
+class Seats {
+
+	private final int capacity;
+	private final AtomicLongArray words;
+	private final AtomicInteger taken = new AtomicInteger();
+
+	Seats(int capacity) {
+		this.capacity = capacity;
+		words = new AtomicLongArray((capacity + 63) >>> 6);
+	}
+
+	int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return the seats taken, only grows while bookings run at once
+	 */
+	int taken() {
+		return taken.get();
+	}
+
+	/**
+	 * take the first free seat
+	 * @return the seat, -1 if none
+	 */
+	int claim() {
+		for (int i = 0; i < words.length(); i++) {
+			long word = words.get(i);
+			while (word != -1L) {
+				int seat = (i << 6) + Long.numberOfTrailingZeros(~word) + 1;
+				if (seat > capacity) {
+					return -1;
+				}
+				if (words.compareAndSet(i, word, word | 1L << (seat - 1))) {
+					taken.incrementAndGet();
+					return seat;
+				}
+				word = words.get(i);
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the first free seat without taking it, -1 if none
+	 */
+	int first() {
+		for (int i = 0; i < words.length(); i++) {
+			long word = words.get(i);
+			if (word != -1L) {
+				int seat = (i << 6) + Long.numberOfTrailingZeros(~word) + 1;
+				return seat <= capacity ? seat : -1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * take a given seat, a seat out of the capacity is only counted
+	 */
+	void take(int seat) {
+		if (seat < 1 || seat > capacity) {
+			taken.incrementAndGet();
+			return;
+		}
+		int i = (seat - 1) >>> 6;
+		long bit = 1L << (seat - 1);
+		long word;
+		do {
+			word = words.get(i);
+			if ((word & bit) != 0) {
+				return;
+			}
+		} while (!words.compareAndSet(i, word, word | bit));
+		taken.incrementAndGet();
+	}
+
+	void release(int seat) {
+		if (seat < 1 || seat > capacity) {
+			taken.decrementAndGet();
+			return;
+		}
+		int i = (seat - 1) >>> 6;
+		long bit = 1L << (seat - 1);
+		long word;
+		do {
+			word = words.get(i);
+			if ((word & bit) == 0) {
+				return;
+			}
+		} while (!words.compareAndSet(i, word, word & ~bit));
+		taken.decrementAndGet();
+	}
+
+}
@@ -0,0 +1,341 @@
+package data;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+
+/**
+ * One file of the store: the records of one entity type in one ID range
+ * records refer to each other by ID so every segment can be written on its own
+ */
+public class Segment {
+
+	public static final int SIZE = 1024; // IDs per segment
+	public static final String USERS = "users";
+	public static final String ORDERS = "orders";
+	public static final String CITIES = "cities";
+	public static final String DAEMONS = "daemons";
+	public static final String FLIGHTS = "flights";
+
+	String name;
+	ArrayList<Record> records = new ArrayList<>();
+
+	public Segment(String name) {
+		this.name = name;
+	}
+
+	public static String name(String type, int key) {
+		return type + "." + key;
+	}
+
+	public static int key(int id) {
+		return id / SIZE;
+	}
+
+	public String type() {
+		return name.substring(0, name.lastIndexOf('.'));
+	}
+
+	/**
+	 * @return whether the records are fixed width flight rows
+	 */
+	public boolean isTable() {
+		return type().equals(FLIGHTS) || type().equals(Archive.TYPE);
+	}
+
+	/**
+	 * a record writes its own fields, Codec adds the length prefix
+	 */
+	static abstract class Record {
+		abstract void write(DataOutputStream out) throws IOException;
+	}
+
+	/**
+	 * decode one record of a segment of the given type, flights are read by FlightTable
+	 */
+	static Record read(String type, DataInputStream in) throws IOException {
+		switch (type) {
+		case CITIES:
+			return CityRecord.read(in);
+		case USERS:
+			return UserRecord.read(in);
+		case DAEMONS:
+			return DaemonRecord.read(in);
+		case ORDERS:
+			return OrderRecord.read(in);
+		default:
+			throw new IOException("unknown segment type " + type);
+		}
+	}
+
+	static class CityRecord extends Record {
+		int id;
+		String name;
+
+		@Override
+		void write(DataOutputStream out) throws IOException {
+			out.writeInt(id);
+			Codec.writeString(out, name);
+		}
+
+		static CityRecord read(DataInputStream in) throws IOException {
+			CityRecord record = new CityRecord();
+			record.id = in.readInt();
+			record.name = Codec.readString(in);
+			return record;
+		}
+	}
+
+	static class UserRecord extends Record {
+		int id;
+		boolean admin;
+		String userName;
+		String passHash;
+		String identityID;
+
+		@Override
+		void write(DataOutputStream out) throws IOException {
+			out.writeInt(id);
+			out.writeBoolean(admin);
+			Codec.writeString(out, userName);
+			Codec.writeString(out, passHash);
+			Codec.writeString(out, identityID);
+		}
+
+		static UserRecord read(DataInputStream in) throws IOException {
+			UserRecord record = new UserRecord();
+			record.id = in.readInt();
+			record.admin = in.readBoolean();
+			record.userName = Codec.readString(in);
+			record.passHash = Codec.readString(in);
+			record.identityID = Codec.readString(in);
+			return record;
+		}
+	}
+
+	static class DaemonRecord extends Record {
+		int id;
+		String name;
+		long startTime;
+		long arriveTime;
+		int period;
+		int startCity;
+		int arriveCity;
+		int price;
+		int seatCapacity;
+		int distance;
+		boolean status;
+		long[] occurrenceStarts = new long[0]; // the flights not booked yet, see Occurrences
+		int[] occurrenceIDs = new int[0];
+
+		@Override
+		void write(DataOutputStream out) throws IOException {
+			out.writeInt(id);
+			Codec.writeString(out, name);
+			out.writeLong(startTime);
+			out.writeLong(arriveTime);
+			out.writeInt(period);
+			out.writeInt(startCity);
+			out.writeInt(arriveCity);
+			out.writeInt(price);
+			out.writeInt(seatCapacity);
+			out.writeInt(distance);
+			out.writeBoolean(status);
+			out.writeInt(occurrenceIDs.length);
+			for (int i = 0; i < occurrenceIDs.length; i++) {
+				out.writeLong(occurrenceStarts[i]);
+				out.writeInt(occurrenceIDs[i]);
+			}
+		}
+
+		static DaemonRecord read(DataInputStream in) throws IOException {
+			DaemonRecord record = new DaemonRecord();
+			record.id = in.readInt();
+			record.name = Codec.readString(in);
+			record.startTime = in.readLong();
+			record.arriveTime = in.readLong();
+			record.period = in.readInt();
+			record.startCity = in.readInt();
+			record.arriveCity = in.readInt();
+			record.price = in.readInt();
+			record.seatCapacity = in.readInt();
+			record.distance = in.readInt();
+			record.status = in.readBoolean();
+			if (in.available() > 0) { // older stores end here
+				int count = in.readInt();
+				record.occurrenceStarts = new long[count];
+				record.occurrenceIDs = new int[count];
+				for (int i = 0; i < count; i++) {
+					record.occurrenceStarts[i] = in.readLong();
+					record.occurrenceIDs[i] = in.readInt();
+				}
+			}
+			return record;
+		}
+	}
+
+	/**
+	 * flights are written as fixed width rows, see FlightTable for the layout
+	 */
+	static class FlightRecord extends Record {
+		int id;
+		String name;
+		long startTime;
+		long arriveTime;
+		int startCity;
+		int arriveCity;
+		int price;
+		int seatCapacity;
+		int distance;
+		int status;
+		boolean isDaemon;
+		int flightDaemon;
+
+		@Override
+		void write(DataOutputStream out) throws IOException {
+			out.writeInt(id);
+			out.writeLong(startTime);
+			out.writeLong(arriveTime);
+			out.writeInt(startCity);
+			out.writeInt(arriveCity);
+			out.writeInt(price);
+			out.writeInt(seatCapacity);
+			out.writeInt(distance);
+			out.writeByte(status);
+			out.writeBoolean(isDaemon);
+			out.writeInt(flightDaemon);
+			byte[] bytes = FlightTable.encodeName(name);
+			out.writeShort(name == null ? -1 : bytes.length);
+			out.write(bytes);
+			out.write(new byte[FlightTable.NAME - bytes.length]);
+		}
+
+		static FlightRecord read(ByteBuffer buffer, int offset) {
+			ByteBuffer row = buffer.duplicate();
+			row.position(offset);
+			FlightRecord record = new FlightRecord();
+			record.id = row.getInt();
+			record.startTime = row.getLong();
+			record.arriveTime = row.getLong();
+			record.startCity = row.getInt();
+			record.arriveCity = row.getInt();
+			record.price = row.getInt();
+			record.seatCapacity = row.getInt();
+			record.distance = row.getInt();
+			record.status = row.get();
+			record.isDaemon = row.get() != 0;
+			record.flightDaemon = row.getInt();
+			int length = row.getShort();
+			if (length >= 0) {
+				byte[] bytes = new byte[length];
+				row.get(bytes);
+				record.name = new String(bytes, StandardCharsets.UTF_8);
+			}
+			return record;
+		}
+
+		Flight toFlight(City startCity, City arriveCity) {
+			return new Flight(id, name, new Date(startTime), new Date(arriveTime), startCity, arriveCity, price,
+					seatCapacity, distance, FlightStatus.values()[status], isDaemon);
+		}
+	}
+
+	static class OrderRecord extends Record {
+		int passenger;
+		int flight;
+		long createDate;
+		int status;
+		int seat;
+
+		@Override
+		void write(DataOutputStream out) throws IOException {
+			out.writeInt(passenger);
+			out.writeInt(flight);
+			out.writeLong(createDate);
+			out.writeByte(status);
+			out.writeInt(seat);
+		}
+
+		static OrderRecord read(DataInputStream in) throws IOException {
+			OrderRecord record = new OrderRecord();
+			record.passenger = in.readInt();
+			record.flight = in.readInt();
+			record.createDate = in.readLong();
+			record.status = in.readByte();
+			record.seat = in.readInt();
+			return record;
+		}
+	}
+
+	static int cityID(City city) {
+		return city == null ? -1 : city.getCityID();
+	}
+
+	static CityRecord record(City city) {
+		CityRecord record = new CityRecord();
+		record.id = city.getCityID();
+		record.name = city.getCityName();
+		return record;
+	}
+
+	static UserRecord record(User user) {
+		UserRecord record = new UserRecord();
+		record.id = user.getID();
+		record.admin = user instanceof Admin;
+		record.userName = user.getUserName();
+		record.passHash = user.getPassHash();
+		record.identityID = user instanceof Passenger ? ((Passenger) user).getIdentityID() : null;
+		return record;
+	}
+
+	static DaemonRecord record(FlightDaemon daemon) {
+		DaemonRecord record = new DaemonRecord();
+		record.id = daemon.getFlightDaemonID();
+		record.name = daemon.getFlightName();
+		record.startTime = daemon.getStartTime().getTime();
+		record.arriveTime = daemon.getArriveTime().getTime();
+		record.period = daemon.getPeriod();
+		record.startCity = cityID(daemon.getStartCity());
+		record.arriveCity = cityID(daemon.getArriveCity());
+		record.price = daemon.getPrice();
+		record.seatCapacity = daemon.getSeatCapacity();
+		record.distance = daemon.getDistance();
+		record.status = daemon.getStatus();
+		record.occurrenceStarts = daemon.occurrences.starts();
+		record.occurrenceIDs = daemon.occurrences.ids();
+		return record;
+	}
+
+	static FlightRecord record(Flight flight) {
+		FlightRecord record = new FlightRecord();
+		record.id = flight.getFlightID();
+		record.name = flight.getFlightName();
+		record.startTime = flight.getStartTime().getTime();
+		record.arriveTime = flight.getArriveTime().getTime();
+		record.startCity = cityID(flight.getStartCity());
+		record.arriveCity = cityID(flight.getArriveCity());
+		record.price = flight.getPrice();
+		record.seatCapacity = flight.getSeatCapacity();
+		record.distance = flight.getDistance();
+		record.status = flight.getFlightStatus().ordinal();
+		record.isDaemon = flight.isDaemon();
+		record.flightDaemon = flight.getFlightDaemon() == null ? -1 : flight.getFlightDaemon().getFlightDaemonID();
+		return record;
+	}
+
+	static OrderRecord record(Order order) {
+		OrderRecord record = new OrderRecord();
+		record.passenger = order.getPassager().getID();
+		record.flight = order.existFlight() ? order.getFlight().getFlightID() : -1;
+		record.createDate = order.getCreatDate().getTime();
+		record.status = order.getStatus().ordinal();
+		Integer seat = order.isCancle() ? null : order.getSeat();
+		record.seat = seat == null ? -1 : seat;
+		return record;
+	}
+
+}
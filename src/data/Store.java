@@ -0,0 +1,504 @@
+package data;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Segmented on-disk store kept in one directory
+ * a checkpoint rewrites only the segments holding entities changed since the last one,
+ * untouched segment files are referenced again by the new manifest
+ * use capture() under the DataManager lock, then write() from any thread
+ * every segment file has a checksum in the manifest and they are loaded in parallel
+ */
+public class Store {
+
+	private static final String MANIFEST = "manifest";
+	private static final String CORRUPT = ".corrupt"; // suffix of damaged segments put aside
+	private static final int LOADERS = Runtime.getRuntime().availableProcessors();
+	private File dir;
+	private volatile Manifest manifest; // last one on disk
+
+	/**
+	 * what a checkpoint has to write, captured under the DataManager lock
+	 */
+	static class Checkpoint {
+		Manifest manifest;
+		ArrayList<Segment> segments = new ArrayList<>();
+		Archive archive;
+		ArrayList<Archive.Append> appends;
+
+		int getGeneration() {
+			return manifest.journalGeneration;
+		}
+	}
+
+	private static abstract class Kind<T> {
+		String type;
+
+		Kind(String type) {
+			this.type = type;
+		}
+
+		abstract int key(T t);
+
+		abstract long version(T t);
+
+		abstract Segment.Record record(T t);
+	}
+
+	private static final Kind<City> CITY = new Kind<City>(Segment.CITIES) {
+
+		@Override
+		int key(City city) {
+			return Segment.key(city.getCityID());
+		}
+
+		@Override
+		long version(City city) {
+			return city.version;
+		}
+
+		@Override
+		Segment.Record record(City city) {
+			return Segment.record(city);
+		}
+	};
+
+	private static final Kind<FlightDaemon> DAEMON = new Kind<FlightDaemon>(Segment.DAEMONS) {
+
+		@Override
+		int key(FlightDaemon daemon) {
+			return Segment.key(daemon.getFlightDaemonID());
+		}
+
+		@Override
+		long version(FlightDaemon daemon) {
+			return daemon.version;
+		}
+
+		@Override
+		Segment.Record record(FlightDaemon daemon) {
+			return Segment.record(daemon);
+		}
+	};
+
+	private static final Kind<Flight> FLIGHT = new Kind<Flight>(Segment.FLIGHTS) {
+
+		@Override
+		int key(Flight flight) {
+			return Segment.key(flight.getFlightID());
+		}
+
+		@Override
+		long version(Flight flight) {
+			return flight.version;
+		}
+
+		@Override
+		Segment.Record record(Flight flight) {
+			return Segment.record(flight);
+		}
+	};
+
+	private static final Kind<User> USER = new Kind<User>(Segment.USERS) {
+
+		@Override
+		int key(User user) {
+			return Segment.key(user.getID());
+		}
+
+		@Override
+		long version(User user) {
+			return user.version;
+		}
+
+		@Override
+		Segment.Record record(User user) {
+			return Segment.record(user);
+		}
+	};
+
+	private static final Kind<Order> ORDER = new Kind<Order>(Segment.ORDERS) {
+
+		@Override
+		int key(Order order) {
+			return Segment.key(order.getPassager().getID());
+		}
+
+		@Override
+		long version(Order order) {
+			return order.version;
+		}
+
+		@Override
+		Segment.Record record(Order order) {
+			return Segment.record(order);
+		}
+	};
+
+	private static final Comparator<Segment.Record> BY_ID = new Comparator<Segment.Record>() {
+
+		@Override
+		public int compare(Segment.Record a, Segment.Record b) {
+			return Integer.compare(((Segment.FlightRecord) a).id, ((Segment.FlightRecord) b).id);
+		}
+	};
+
+	public Store(String dirname) {
+		dir = new File(dirname);
+	}
+
+	public boolean exists() {
+		return new File(dir, MANIFEST).exists();
+	}
+
+	/**
+	 * copy the records of every segment changed since the last checkpoint
+	 * a segment is changed when it has an entity stamped after the last checkpoint
+	 * or its number of entities differs (something was removed)
+	 */
+	Checkpoint capture(DataManager manager, int generation) {
+		Checkpoint checkpoint = new Checkpoint();
+		Manifest last = manifest;
+		long stamp = last == null ? -1 : last.clock;
+		checkpoint.manifest = last == null ? new Manifest() : last.copy();
+		checkpoint.manifest.clock = Version.now();
+		checkpoint.manifest.journalGeneration = generation;
+		checkpoint.manifest.userID = User.ID;
+		checkpoint.manifest.flightID = Flight.ID;
+		checkpoint.manifest.cityID = City.ID;
+		checkpoint.manifest.flightDaemonID = FlightDaemon.ID;
+		ArrayList<Order> orders = new ArrayList<>();
+		for (User user : manager.users) {
+			if (user instanceof Passenger) {
+				orders.addAll(((Passenger) user).orderList);
+			}
+		}
+		capture(checkpoint, stamp, CITY, manager.cities, null);
+		capture(checkpoint, stamp, DAEMON, manager.flightDaemons, null);
+		capture(checkpoint, stamp, FLIGHT, manager.flights, manager.history);
+		capture(checkpoint, stamp, USER, manager.users, null);
+		capture(checkpoint, stamp, ORDER, orders, null);
+		checkpoint.archive = manager.archive;
+		checkpoint.appends = manager.archive.capture(checkpoint.manifest);
+		return checkpoint;
+	}
+
+	/**
+	 * @param history flights kept in their mapped rows, counted with the segments they are in
+	 */
+	private <T> void capture(Checkpoint checkpoint, long stamp, Kind<T> kind, Iterable<T> entities,
+			FlightTable history) {
+		int[] count = new int[1];
+		long[] latest = new long[1];
+		for (T t : entities) {
+			int key = kind.key(t);
+			if (key >= count.length) {
+				count = Arrays.copyOf(count, Math.max(key + 1, count.length * 2));
+				latest = Arrays.copyOf(latest, count.length);
+			}
+			count[key]++;
+			latest[key] = Math.max(latest[key], kind.version(t));
+		}
+		if (history != null) {
+			for (int key : history.keys()) {
+				if (key >= count.length) {
+					count = Arrays.copyOf(count, key + 1);
+					latest = Arrays.copyOf(latest, count.length);
+				}
+				count[key] += history.size(key);
+			}
+			for (Flight flight : history.loaded()) {
+				int key = Segment.key(flight.getFlightID());
+				latest[key] = Math.max(latest[key], flight.version);
+			}
+		}
+		Map<String, Manifest.Entry> segments = checkpoint.manifest.segments;
+		Iterator<String> names = segments.keySet().iterator();
+		while (names.hasNext()) {
+			int key = key(kind.type, names.next());
+			if (key >= count.length || (key >= 0 && count[key] == 0)) {
+				names.remove(); // every entity of the segment is gone
+			}
+		}
+		HashMap<Integer, Segment> dirty = new HashMap<>();
+		for (int key = 0; key < count.length; key++) {
+			Manifest.Entry entry = segments.get(Segment.name(kind.type, key));
+			if (count[key] > 0 && (entry == null || entry.count != count[key] || latest[key] > stamp)) {
+				dirty.put(key, new Segment(Segment.name(kind.type, key)));
+			}
+		}
+		if (dirty.isEmpty()) {
+			return;
+		}
+		for (T t : entities) {
+			Segment segment = dirty.get(kind.key(t));
+			if (segment != null) {
+				segment.records.add(kind.record(t));
+			}
+		}
+		if (history != null) {
+			for (Map.Entry<Integer, Segment> entry : dirty.entrySet()) {
+				history.records(entry.getKey(), entry.getValue().records);
+				entry.getValue().records.sort(BY_ID);
+			}
+		}
+		for (Segment segment : dirty.values()) {
+			String file = segment.name + ".v" + checkpoint.getGeneration();
+			segments.put(segment.name, new Manifest.Entry(file, segment.records.size()));
+			checkpoint.segments.add(segment);
+		}
+	}
+
+	/**
+	 * @return key of a segment name of the given type, -1 for other types
+	 */
+	private static int key(String type, String name) {
+		if (!name.startsWith(type + ".")) {
+			return -1;
+		}
+		return Integer.parseInt(name.substring(type.length() + 1));
+	}
+
+	/**
+	 * write the changed segments to new files, then switch the manifest to them
+	 * a crash before the switch leaves the last checkpoint untouched
+	 */
+	void write(Checkpoint checkpoint) throws IOException {
+		dir.mkdirs();
+		for (Segment segment : checkpoint.segments) {
+			Manifest.Entry entry = checkpoint.manifest.segments.get(segment.name);
+			entry.crc = Codec.writeSegment(new File(dir, entry.file), segment);
+		}
+		for (Archive.Append append : checkpoint.appends) {
+			checkpoint.manifest.segments.get(append.file).crc = Archive.append(dir, append);
+		}
+		File temp = new File(dir, MANIFEST + ".tmp");
+		Codec.writeManifest(temp, checkpoint.manifest);
+		Files.move(temp.toPath(), new File(dir, MANIFEST).toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		manifest = checkpoint.manifest;
+		checkpoint.archive.commit(manifest, checkpoint.appends);
+		clean();
+	}
+
+	/**
+	 * delete segment files the manifest does not use anymore,
+	 * including those of a checkpoint that failed halfway
+	 */
+	private void clean() {
+		HashSet<String> live = new HashSet<>();
+		live.add(MANIFEST);
+		for (Manifest.Entry entry : manifest.segments.values()) {
+			live.add(entry.file);
+		}
+		String[] files = dir.list();
+		if (files != null) {
+			for (String file : files) {
+				if (!live.contains(file) && !file.endsWith(CORRUPT)) {
+					new File(dir, file).delete();
+				}
+			}
+		}
+	}
+
+	/**
+	 * manifest entries of a segment type, in key order
+	 */
+	private ArrayList<Map.Entry<Integer, Manifest.Entry>> entries(String type) {
+		TreeMap<Integer, Manifest.Entry> entries = new TreeMap<>();
+		for (Map.Entry<String, Manifest.Entry> entry : manifest.segments.entrySet()) {
+			int key = key(type, entry.getKey());
+			if (key >= 0) {
+				entries.put(key, entry.getValue());
+			}
+		}
+		return new ArrayList<>(entries.entrySet());
+	}
+
+	/**
+	 * read all segments but the archive on a thread pool, flights are mapped into the history table
+	 * a damaged segment is put aside and left out, so the rest still loads
+	 * @return records by segment name
+	 */
+	private HashMap<String, ArrayList<Segment.Record>> readSegments(final DataManager manager) {
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(LOADERS, manifest.segments.size())),
+				new ThreadFactory() {
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "load");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		HashMap<String, Future<ArrayList<Segment.Record>>> futures = new HashMap<>();
+		try {
+			for (Map.Entry<String, Manifest.Entry> entry : manifest.segments.entrySet()) {
+				final String name = entry.getKey();
+				final File file = new File(dir, entry.getValue().file);
+				final long crc = entry.getValue().crc;
+				if (name.startsWith(Archive.TYPE + ".")) {
+					continue; // mapped when needed
+				}
+				futures.put(name, pool.submit(new Callable<ArrayList<Segment.Record>>() {
+
+					@Override
+					public ArrayList<Segment.Record> call() throws IOException {
+						if (name.startsWith(Segment.FLIGHTS + ".")) {
+							return manager.history.map(key(Segment.FLIGHTS, name), file, crc);
+						}
+						return Codec.readSegment(file, crc).records;
+					}
+				}));
+			}
+			HashMap<String, ArrayList<Segment.Record>> segments = new HashMap<>();
+			for (Map.Entry<String, Future<ArrayList<Segment.Record>>> future : futures.entrySet()) {
+				try {
+					segments.put(future.getKey(), future.getValue().get());
+				} catch (ExecutionException e) {
+					damaged(future.getKey(), e.getCause());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					damaged(future.getKey(), e);
+				}
+			}
+			return segments;
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * put a segment that cannot be read aside, the next checkpoint writes
+	 * a manifest without it
+	 */
+	private void damaged(String name, Throwable cause) {
+		Manifest.Entry entry = manifest.segments.remove(name);
+		new File(dir, entry.file).renameTo(new File(dir, entry.file + CORRUPT));
+		System.err.println("Segment " + name + " is damaged (" + cause.getMessage() + "), moved to " + entry.file
+				+ CORRUPT + ", loading the others");
+	}
+
+	/**
+	 * records of the segments of a type in key order
+	 */
+	private ArrayList<Segment.Record> records(HashMap<String, ArrayList<Segment.Record>> segments, String type) {
+		ArrayList<Segment.Record> records = new ArrayList<>();
+		for (Map.Entry<Integer, Manifest.Entry> entry : entries(type)) {
+			ArrayList<Segment.Record> segment = segments.get(Segment.name(type, entry.getKey()));
+			if (segment != null) {
+				records.addAll(segment);
+			}
+		}
+		return records;
+	}
+
+	/**
+	 * read every segment and link the entities by ID
+	 */
+	void load(DataManager manager) throws IOException {
+		manifest = Codec.readManifest(new File(dir, MANIFEST));
+		manager.cities = new ArrayList<>();
+		manager.flightDaemons = new ArrayList<>();
+		manager.flights = new ArrayList<>();
+		manager.users = new ArrayList<>();
+		manager.history = new FlightTable(manager);
+		manager.archive = new Archive(manager, dir);
+		HashMap<String, ArrayList<Segment.Record>> segments = readSegments(manager);
+		manager.archive.open(manifest);
+		HashMap<Integer, City> cities = new HashMap<>();
+		HashMap<Integer, FlightDaemon> daemons = new HashMap<>();
+		HashMap<Integer, Flight> flights = new HashMap<>();
+		HashMap<Integer, User> users = new HashMap<>();
+		for (Segment.Record r : records(segments, Segment.CITIES)) {
+			Segment.CityRecord record = (Segment.CityRecord) r;
+			City.ID = record.id;
+			City city = new City(record.name);
+			city.version = 0;
+			cities.put(record.id, city);
+			manager.cities.add(city);
+		}
+		for (Segment.Record r : records(segments, Segment.DAEMONS)) {
+			Segment.DaemonRecord record = (Segment.DaemonRecord) r;
+			FlightDaemon.ID = record.id;
+			FlightDaemon daemon = new FlightDaemon(record.name, new Date(record.startTime),
+					new Date(record.arriveTime), record.period, cities.get(record.startCity),
+					cities.get(record.arriveCity), record.price, record.seatCapacity, record.distance);
+			daemon.status = record.status;
+			daemon.occurrences = new Occurrences(record.occurrenceStarts, record.occurrenceIDs);
+			daemon.version = 0;
+			daemons.put(record.id, daemon);
+			manager.flightDaemons.add(daemon);
+		}
+		for (Segment.Record r : records(segments, Segment.FLIGHTS)) {
+			Segment.FlightRecord record = (Segment.FlightRecord) r;
+			Flight flight = record.toFlight(cities.get(record.startCity), cities.get(record.arriveCity));
+			flight.flightDaemon = daemons.get(record.flightDaemon);
+			if (flight.flightDaemon != null) {
+				flight.flightDaemon.children.add(flight);
+			}
+			flights.put(record.id, flight);
+			manager.flights.add(flight);
+		}
+		for (Segment.Record r : records(segments, Segment.USERS)) {
+			Segment.UserRecord record = (Segment.UserRecord) r;
+			User.ID = record.id;
+			User user = record.admin ? new Admin(record.userName, null)
+					: new Passenger(record.identityID, record.userName, null);
+			user.passHash = record.passHash;
+			user.version = 0;
+			users.put(record.id, user);
+			manager.users.add(user);
+		}
+		for (Segment.Record r : records(segments, Segment.ORDERS)) {
+			Segment.OrderRecord record = (Segment.OrderRecord) r;
+			Passenger passenger = (Passenger) users.get(record.passenger);
+			if (passenger == null) {
+				continue; // lost with a damaged segment
+			}
+			Flight flight = flights.get(record.flight);
+			if (flight == null && record.flight >= 0) {
+				flight = manager.history.get(record.flight); // terminated, created now for its orders
+			}
+			if (flight == null && record.flight >= 0) {
+				flight = manager.archive.get(record.flight);
+			}
+			Order order = new Order(passenger, flight, new Date(record.createDate),
+					OrderStatus.values()[record.status]);
+			order.version = 0;
+			passenger.orderList.add(order);
+			if (flight != null && record.seat >= 0) {
+				flight.putPassenger(passenger, record.seat);
+			}
+		}
+		User.ID = manifest.userID;
+		Flight.ID = manifest.flightID;
+		City.ID = manifest.cityID;
+		FlightDaemon.ID = manifest.flightDaemonID;
+		Version.restore(manifest.clock);
+		clean();
+	}
+
+	int getGeneration() {
+		return manifest.journalGeneration;
+	}
+
+}
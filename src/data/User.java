@@ -14,9 +14,15 @@ public abstract class User implements Serializable {
 	protected int userID; //ID is unchangeable.
 	protected String userName;
 	protected String passHash; //using sha-1;
+	protected transient long version; // Version stamp of the last change
 	
 	public void changePass(String newPass) { 
 		passHash = hashPass(newPass);
+		touch();
+	}
+
+	protected void touch() {
+		version = Version.next();
 	}
 	
 	public int getID() {
@@ -33,6 +39,7 @@ public abstract class User implements Serializable {
 	
 	public void setUserName(String userName) {
 		this.userName = userName;
+		touch();
 	}
 	
 	@Override
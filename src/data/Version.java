@@ -0,0 +1,32 @@
+package data;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Global change clock
+ * every entity keeps the stamp of its last change, so a checkpoint
+ * can tell which segments changed since the one before it
+ */
+public class Version {
+
+	private static final AtomicLong clock = new AtomicLong(); // bookings stamp their orders at once, no monitor
+
+	public static long next() {
+		return clock.incrementAndGet();
+	}
+
+	public static long now() {
+		return clock.get();
+	}
+
+	/**
+	 * continue from a saved clock, stamps must never go back
+	 */
+	public static void restore(long saved) {
+		long now = clock.get();
+		while (now < saved && !clock.compareAndSet(now, saved)) {
+			now = clock.get();
+		}
+	}
+
+}
@@ -6,14 +6,17 @@ import java.util.Scanner;
 
 import data.Flight;
 import data.FlightDaemon;
+import data.FlightTable;
 import exceptions.PermissionDeniedException;
 
 public class ControllerFlight {
 	MainServer server;
+	Session session;
 	Scanner scanner;
 	
-	public ControllerFlight(MainServer server, Scanner scanner) {
+	public ControllerFlight(MainServer server, Session session, Scanner scanner) {
 		this.server = server;
+		this.session = session;
 		this.scanner = scanner;
 	};
 	
@@ -56,7 +59,7 @@ public class ControllerFlight {
 	protected void addFlight(){
 		try {
 			systemMessage("Available City: ");
-			server.displayCity();
+			server.displayCity(session);
 			systemMessage("flightName: ");
 			String flightName = scanNextLine();
 			Date startTime = scanStartTime();
@@ -80,8 +83,8 @@ public class ControllerFlight {
 			systemMessage("distance(m): ");
 			int distance = scanner.nextInt();
 			scanNextLine();
-			if (!server.createFlightDaemon(flightName, startTime, arriveTime, period, startCityID, arriveCityID, price, seatCapacity, distance)) {
-				systemMessage("Error in cityID. retry?");
+			if (!server.createFlightDaemon(session, flightName, startTime, arriveTime, period, startCityID, arriveCityID, price, seatCapacity, distance)) {
+				systemMessage("Error in cityID or flight name too long. retry?");
 				if (scanNextLine().toLowerCase().equals("y")) {
 					addFlight();
 				}
@@ -98,8 +101,40 @@ public class ControllerFlight {
 		}
 	}
 	
+	/**
+	 * add flight [name] [starttime] [arrivetime] [period] [startCityID] [arriveCityID] [price] [capacity] [distance]
+	 * on one line, nothing is asked, the times are year-month-date-hr-min-sec
+	 */
+	protected void addFlight(String[] param) {
+		try {
+			Date startTime = toDate(param[1]);
+			Date arriveTime = toDate(param[2]);
+			int startCityID = strToInteger(param[4]);
+			int arriveCityID = strToInteger(param[5]);
+			if (arriveTime.before(startTime) || startTime.before(new Date()) || startCityID == arriveCityID) {
+				throw new NumberFormatException();
+			}
+			if (!server.createFlightDaemon(session, param[0], startTime, arriveTime, strToInteger(param[3]), startCityID, arriveCityID,
+					strToInteger(param[6]), strToInteger(param[7]), strToInteger(param[8]))) {
+				systemMessage("Error in cityID or flight name too long");
+			} else {
+				systemMessage("Flight added successfully");
+			}
+		} catch (PermissionDeniedException e) {
+			systemMessage(e.getMessage());
+		} catch (IndexOutOfBoundsException | NumberFormatException e) {
+			systemMessage("Format error: use 'add flight [name] [starttime] [arrivetime] [period] [startCityID] [arriveCityID] [price] [capacity] [distance]'");
+		}
+	}
+
+	private static Date toDate(String time) {
+		String[] t = time.split("-");
+		return Flight.calendar(strToInteger(t[0]), strToInteger(t[1]), strToInteger(t[2]),
+				strToInteger(t[3]), strToInteger(t[4]), strToInteger(t[5]));
+	}
+	
 	private FlightDaemon serverGetDaemon(int flightID) throws PermissionDeniedException {
-		FlightDaemon flight = server.getDaemon(flightID);
+		FlightDaemon flight = server.getDaemon(session, flightID);
 		if (flight == null) {
 			System.out.printf("Cannot find flight daemon with ID '%d'\n", flightID);
 			return null;
@@ -108,7 +143,7 @@ public class ControllerFlight {
 			return null;
 		}
 		systemMessage("ID\tName\tStartCity\tArriveCity\tBeginTime\t\t\tTime\tPeriod\tPrice\tSeatCapacity");
-		System.out.println(server.getDaemon(flightID));
+		System.out.println(server.getDaemon(session, flightID));
 		systemMessage("Usage: "
 				+ "\tname=newname\n"
 				+ "\tstarttime=yyyy-mm-dd-hr-mim-sec\n"
@@ -120,54 +155,62 @@ public class ControllerFlight {
 				+ "\tdistance=newdistance\n"
 				+ "\texit|e\n"
 				+ "Available City: \n");
-		server.displayCity();
+		server.displayCity(session);
 		return flight;
 	}
 
-	private void setFlightName(FlightDaemon flight, String string) {
-		flight.setFlightName(string);
+	private void changeDaemon(FlightDaemon flight, String field, String value) throws PermissionDeniedException {
+		server.changeDaemon(session, flight.getFlightDaemonID(), field, value);
+	}
+
+	private void setFlightName(FlightDaemon flight, String string) throws PermissionDeniedException {
+		if (!FlightTable.fits(string)) {
+			systemMessage("Flight name too long\n");
+			return;
+		}
+		changeDaemon(flight, "name", string);
 	}
 	
-	private void setFlightStartTime(FlightDaemon flight, String[] sdate) {
-		flight.setStartTime(Flight.calendar(
+	private void setFlightStartTime(FlightDaemon flight, String[] sdate) throws PermissionDeniedException {
+		changeDaemon(flight, "starttime", String.valueOf(Flight.calendar(
 			strToInteger(sdate[0]), 
 			strToInteger(sdate[1]), 
 			strToInteger(sdate[2]), 
 			strToInteger(sdate[3]), 
 			strToInteger(sdate[4]),
-			strToInteger(sdate[5]))
+			strToInteger(sdate[5])).getTime())
 		);
 	}
 	
-	private void setFlightArriveTime(FlightDaemon flight, String[] adate) {
-		flight.setArriveTime(Flight.calendar(
+	private void setFlightArriveTime(FlightDaemon flight, String[] adate) throws PermissionDeniedException {
+		changeDaemon(flight, "arrivetime", String.valueOf(Flight.calendar(
 			strToInteger(adate[0]), 
 			strToInteger(adate[1]), 
 			strToInteger(adate[2]), 
 			strToInteger(adate[3]), 
 			strToInteger(adate[4]),
-			strToInteger(adate[5]))
+			strToInteger(adate[5])).getTime())
 		);
 	}
 
-	private void flightSetDistance(FlightDaemon flight, int i) {
-		flight.setDistance(i);
+	private void flightSetDistance(FlightDaemon flight, int i) throws PermissionDeniedException {
+		changeDaemon(flight, "distance", String.valueOf(i));
 	}
 
-	private void flighSetSeatCapacity(FlightDaemon flight, int i) {
-		flight.setSeatCapacity(i);
+	private void flighSetSeatCapacity(FlightDaemon flight, int i) throws PermissionDeniedException {
+		changeDaemon(flight, "capacity", String.valueOf(i));
 	}
 
-	private void flightSetPrice(FlightDaemon flight, int i) {
-		flight.setPrice(i);
+	private void flightSetPrice(FlightDaemon flight, int i) throws PermissionDeniedException {
+		changeDaemon(flight, "price", String.valueOf(i));
 	}
 
 	private void flightSetArriveCity(FlightDaemon flight, int i) throws PermissionDeniedException {
-		flight.setArriveCity(server.getCity(i));
+		changeDaemon(flight, "arrivecity", String.valueOf(i));
 	}
 
 	private void flightSetStartCity(FlightDaemon flight, int i) throws PermissionDeniedException {
-		flight.setStartCity(server.getCity(i));
+		changeDaemon(flight, "startcity", String.valueOf(i));
 	}
 	
 	protected void changeFlight(int flightID) throws PermissionDeniedException {
@@ -177,53 +220,75 @@ public class ControllerFlight {
 		do {
 			systemMessage("Please input what to change: ");
 			input = scanner.nextLine().replace(" ", "").split("=");
-			int i = strToInteger(input[1]);
-			try {	
-				switch (input[0]) {
-					case "name":
-						setFlightName(flight, input[1]);
-						systemMessage("Succeed!");
-						break;
-					case "starttime":
-						String[] sdate = input[1].split("-");
-						setFlightStartTime(flight, sdate);
-						systemMessage("Succeed!");
-						break;
-					case "arrivetime":
-						String[] adate = input[1].split("-");
-						setFlightArriveTime(flight, adate);
-						systemMessage("Succeed!");
-						break;
-					case "startcity":
-						flightSetStartCity(flight, i);
-						break;
-					case "arrivecity":
-						flightSetArriveCity(flight, i);
-						systemMessage("Succeed!");
-						break;
-					case "price":
-						flightSetPrice(flight, i);
-						systemMessage("Succeed!");
-						break;
-					case "capacity":
-						flighSetSeatCapacity(flight, i);
-						systemMessage("Succeed!");
-						break;
-					case "distance":
-						flightSetDistance(flight, i);
-						systemMessage("Succeed!");
-						break;
-					case "exit":
-					case "e":
-						break;
-					default:
-						systemMessage("Command error");
-						break;
+			if (input[0].equals("e") || input[0].equals("exit")) {
+				break;
+			}
+			try {
+				if (changeField(flight, input[0], input[1])) {
+					systemMessage("Succeed!");
+				} else {
+					systemMessage("Command error");
 				}
 			} catch (IndexOutOfBoundsException | NumberFormatException e) {
 				systemMessage("Format error");
 			}
-		} while (!(input[0].equals("e") || input[0].equals("exit")));
+		} while (true);
+	}
+
+	/**
+	 * change flight [ID] [field=value] ... on one line, nothing is asked
+	 */
+	protected void changeFlight(int flightID, String[] changes) throws PermissionDeniedException {
+		FlightDaemon flight = server.getDaemon(session, flightID);
+		if (flight == null || !flight.getStatus()) {
+			System.out.printf("Cannot find flight daemon with ID '%d'\n", flightID);
+			return;
+		}
+		for (String change : changes) {
+			String[] input = change.split("=");
+			try {
+				if (!changeField(flight, input[0], input[1])) {
+					System.out.printf("no field named '%s'\n", input[0]);
+				}
+			} catch (IndexOutOfBoundsException | NumberFormatException e) {
+				System.out.printf("'%s' is not field=value\n", change);
+			}
+		}
+	}
+
+	/**
+	 * @return false if there is no such field
+	 */
+	private boolean changeField(FlightDaemon flight, String field, String value) throws PermissionDeniedException {
+		switch (field) {
+			case "name":
+				setFlightName(flight, value);
+				break;
+			case "starttime":
+				setFlightStartTime(flight, value.split("-"));
+				break;
+			case "arrivetime":
+				setFlightArriveTime(flight, value.split("-"));
+				break;
+			case "startcity":
+				flightSetStartCity(flight, strToInteger(value));
+				break;
+			case "arrivecity":
+				flightSetArriveCity(flight, strToInteger(value));
+				break;
+			case "price":
+				flightSetPrice(flight, strToInteger(value));
+				break;
+			case "capacity":
+				flighSetSeatCapacity(flight, strToInteger(value));
+				break;
+			case "distance":
+				flightSetDistance(flight, strToInteger(value));
+				break;
+			default:
+				return false;
+		}
+		return true;
 	}
 	
 }
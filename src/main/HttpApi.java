@@ -0,0 +1,503 @@
+package main;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import data.Admin;
+import data.City;
+import data.Flight;
+import data.FlightDaemon;
+import data.Jobs;
+import data.Order;
+import data.User;
+import exceptions.PermissionDeniedException;
+import exceptions.StatusUnavailableException;
+
+/**
+ * The operations of MainServer as JSON over HTTP, see Main --http
+ * a request runs on a virtual thread when the JDK has them, else on a bounded pool
+ * the session is found by the token of the X-Session header, /login gives one
+ * parameters come from the query or a form body, times are year-month-date[-hr-min-sec], e.g.
+ * <pre>curl -d 'userName=Admin&amp;password=admin' localhost:8080/login</pre>
+ * answers are written to the response as they go, an error is {"error":message} with a 4xx status
+ * the paths changing anything take only POST
+ * it listens on the loopback interface only, unless started for all of them, see Main --http-public
+ */
+public class HttpApi {
+
+	public static final int PORT = 8080;
+	public static final int THREADS = 32; // the pool without virtual threads
+	public static final int QUEUE = 1024; // requests waiting for the pool, then the accepting thread runs them
+	public static final int BODY = 4096; // bytes of a request body at most, the forms are small
+	public static final String SESSION = "X-Session";
+	private MainServer server;
+	private HttpServer http;
+	private ExecutorService executor;
+
+	public HttpApi(MainServer server) {
+		this.server = server;
+	}
+
+	/**
+	 * listen on the loopback interface only
+	 * @param port 0 for any free one, see getPort
+	 */
+	public void start(int port) throws IOException {
+		start(port, false);
+	}
+
+	/**
+	 * @param port 0 for any free one, see getPort
+	 * @param everywhere listen on every interface, other hosts may call it then
+	 */
+	public void start(int port, boolean everywhere) throws IOException {
+		if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+			// an answer ends with a small chunk of its own, Nagle would hold it until the client acknowledges
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+		http = HttpServer.create(everywhere ? new InetSocketAddress(port)
+				: new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		executor = executor();
+		http.setExecutor(executor);
+		http.createContext("/", new HttpHandler() {
+
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					HttpApi.this.handle(exchange);
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		http.start();
+	}
+
+	public int getPort() {
+		return http.getAddress().getPort();
+	}
+
+	/**
+	 * the requests going on get a second to end
+	 */
+	public void stop() {
+		http.stop(1);
+		executor.shutdown();
+	}
+
+	/**
+	 * a virtual thread for each request on JDK 21 and later, found by reflection so it builds for older ones
+	 */
+	static ExecutorService executor() {
+		try {
+			Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) method.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return new ThreadPoolExecutor(THREADS, THREADS, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(QUEUE),
+					new ThreadFactory() {
+						private int count = 0;
+
+						@Override
+						public synchronized Thread newThread(Runnable r) {
+							return new Thread(r, "http-" + ++count);
+						}
+					}, new ThreadPoolExecutor.CallerRunsPolicy());
+		}
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		String path = exchange.getRequestURI().getPath();
+		try {
+			HashMap<String, String> params = params(exchange);
+			if (params == null) {
+				error(exchange, 413, "request body over " + BODY + " bytes");
+				return;
+			}
+			String token = exchange.getRequestHeaders().getFirst(SESSION);
+			Session session = server.getSession(token);
+			if (session == null) {
+				session = new Session(null); // a guest for this request
+			}
+			if (isChange(path) && !exchange.getRequestMethod().equals("POST")) {
+				error(exchange, 405, "use POST for " + path);
+				return;
+			}
+			route(exchange, path, params, session);
+		} catch (PermissionDeniedException e) {
+			error(exchange, 403, e.getMessage());
+		} catch (StatusUnavailableException e) {
+			error(exchange, 409, e.getMessage());
+		} catch (IllegalArgumentException | IndexOutOfBoundsException e) { // NumberFormatException as well
+			error(exchange, 400, e.getMessage());
+		} catch (RuntimeException e) {
+			System.err.println("HTTP " + path + " failed: " + e);
+			error(exchange, 500, e.toString());
+		}
+	}
+
+	private static boolean isChange(String path) {
+		switch (path) {
+		case "/login":
+		case "/logout":
+		case "/register":
+		case "/reserve":
+		case "/pay":
+		case "/cancel":
+		case "/city/add":
+		case "/city/rename":
+		case "/city/delete":
+		case "/daemon/add":
+		case "/daemon/change":
+		case "/daemon/delete":
+		case "/flight/publish":
+		case "/flight/delete":
+		case "/user/delete":
+		case "/admin/add":
+		case "/job/run":
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	private void route(HttpExchange exchange, String path, HashMap<String, String> params, Session session)
+			throws IOException, PermissionDeniedException, StatusUnavailableException {
+		switch (path) {
+		case "/login":
+			login(exchange, params);
+			break;
+		case "/logout":
+			found(exchange, server.closeSession(session));
+			break;
+		case "/register":
+			ok(exchange, server.addPassenger(session, param(params, "userName"), param(params, "idNumber"),
+					param(params, "password")));
+			break;
+		case "/search":
+			ArrayList<Flight> flights;
+			if (params.containsKey("name")) {
+				flights = server.searchFlights(session, params.get("name"));
+			} else {
+				flights = server.searchFlights(session, number(params, "from"), number(params, "to"),
+						time(params.get("begin")), time(params.get("end")));
+			}
+			writeFlights(exchange, flights);
+			break;
+		case "/reserve":
+			found(exchange, server.reserveFlight(session, number(params, "flight")));
+			break;
+		case "/pay":
+			server.pay(session, number(params, "index"));
+			ok(exchange, true);
+			break;
+		case "/cancel":
+			boolean refunded = server.cancel(session, number(params, "index"));
+			begin(exchange, 200).beginObject().name("ok").value(true).name("refunded").value(refunded).endObject()
+					.flush();
+			break;
+		case "/orders":
+			writeOrders(exchange, server.getOrders(session));
+			break;
+		case "/cities":
+			writeCities(exchange, server.getCities(session));
+			break;
+		case "/city/add":
+			server.addCity(session, param(params, "name"));
+			ok(exchange, true);
+			break;
+		case "/city/rename":
+			found(exchange, server.renameCity(session, number(params, "id"), param(params, "name")));
+			break;
+		case "/city/delete":
+			found(exchange, server.deleteCity(session, number(params, "id")));
+			break;
+		case "/daemons":
+			writeDaemons(exchange, server.getDaemons(session));
+			break;
+		case "/daemon/add":
+			ok(exchange, server.createFlightDaemon(session, param(params, "name"), time(param(params, "startTime")),
+					time(param(params, "arriveTime")), number(params, "period"), number(params, "startCity"),
+					number(params, "arriveCity"), number(params, "price"), number(params, "capacity"),
+					number(params, "distance")));
+			break;
+		case "/daemon/change":
+			String field = param(params, "field");
+			String value = param(params, "value");
+			if (field.equals("starttime") || field.equals("arrivetime")) {
+				value = String.valueOf(time(value).getTime());
+			}
+			found(exchange, server.changeDaemon(session, number(params, "id"), field, value));
+			break;
+		case "/daemon/delete":
+			found(exchange, server.deleteFlightDaemon(session, number(params, "id")));
+			break;
+		case "/flight/publish":
+			found(exchange, server.publishFlight(session, number(params, "id")));
+			break;
+		case "/flight/delete":
+			found(exchange, server.deleteFlight(session, number(params, "id")));
+			break;
+		case "/users":
+			writeUsers(exchange, server.getUsers(session));
+			break;
+		case "/user/delete":
+			found(exchange, server.deleteUser(session, number(params, "id")));
+			break;
+		case "/admin/add":
+			ok(exchange, server.addAdmin(session, param(params, "userName"), param(params, "password")));
+			break;
+		case "/jobs":
+			writeJobs(exchange, server.getJobs(session));
+			break;
+		case "/job/run":
+			found(exchange, server.runJob(session, param(params, "name")));
+			break;
+		default:
+			error(exchange, 404, "no such path " + path);
+			break;
+		}
+	}
+
+	private void login(HttpExchange exchange, HashMap<String, String> params) throws IOException {
+		Session session = server.openSession();
+		if (!server.login(session, param(params, "userName"), param(params, "password"))) {
+			server.closeSession(session);
+			error(exchange, 403, "Login failed");
+			return;
+		}
+		begin(exchange, 200).beginObject().name("token").value(session.getToken()).name("admin")
+				.value(session.isAdmin()).endObject().flush();
+	}
+
+	//------------answers-----------------
+
+	/**
+	 * the status is sent first, the body goes out in chunks as it is written
+	 */
+	private static JsonWriter begin(HttpExchange exchange, int status) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, 0);
+		return new JsonWriter(new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8)));
+	}
+
+	/**
+	 * once the status of an answer is sent the error cannot be, the answer is cut short instead
+	 */
+	private static void error(HttpExchange exchange, int status, String message) throws IOException {
+		if (exchange.getResponseCode() != -1) {
+			exchange.close();
+			return;
+		}
+		begin(exchange, status).beginObject().name("error").value(message).endObject().flush();
+	}
+
+	/**
+	 * @param ok false for a request that was refused, e.g. a user name taken
+	 */
+	private static void ok(HttpExchange exchange, boolean ok) throws IOException {
+		begin(exchange, ok ? 200 : 409).beginObject().name("ok").value(ok).endObject().flush();
+	}
+
+	/**
+	 * @param found false when the ID given is not there
+	 */
+	private static void found(HttpExchange exchange, boolean found) throws IOException {
+		if (found) {
+			ok(exchange, true);
+		} else {
+			error(exchange, 404, "not found");
+		}
+	}
+
+	private static void writeFlights(HttpExchange exchange, ArrayList<Flight> flights) throws IOException {
+		JsonWriter json = begin(exchange, 200).beginArray();
+		for (Flight flight : flights) {
+			writeFlight(json, flight);
+		}
+		json.endArray().flush();
+	}
+
+	private static void writeFlight(JsonWriter json, Flight flight) throws IOException {
+		json.beginObject()
+			.name("id").value(flight.getFlightID())
+			.name("name").value(flight.getFlightName())
+			.name("startCity").value(flight.getStartCity().getCityName())
+			.name("arriveCity").value(flight.getArriveCity().getCityName())
+			.name("startTime").value(flight.getStartTime().getTime())
+			.name("arriveTime").value(flight.getArriveTime().getTime())
+			.name("price").value(flight.getPrice())
+			.name("remain").value(flight.getRemainingSeats())
+			.name("status").value(flight.getFlightStatus().name())
+			.endObject();
+	}
+
+	private static void writeOrders(HttpExchange exchange, ArrayList<Order> orders) throws IOException {
+		JsonWriter json = begin(exchange, 200).beginArray();
+		for (int i = 0; i < orders.size(); i++) {
+			Order order = orders.get(i);
+			json.beginObject().name("index").value(i).name("status").value(order.getStatus().name());
+			json.name("created").value(order.getCreatDate().getTime());
+			if (order.existFlight()) {
+				Integer seat = order.getSeat();
+				json.name("seat").value(seat == null ? -1 : seat);
+				json.name("flight");
+				writeFlight(json, order.getFlight());
+			}
+			json.endObject();
+		}
+		json.endArray().flush();
+	}
+
+	private static void writeCities(HttpExchange exchange, ArrayList<City> cities) throws IOException {
+		JsonWriter json = begin(exchange, 200).beginArray();
+		for (City city : cities) {
+			json.beginObject().name("id").value(city.getCityID()).name("name").value(city.getCityName()).endObject();
+		}
+		json.endArray().flush();
+	}
+
+	private static void writeDaemons(HttpExchange exchange, ArrayList<FlightDaemon> daemons) throws IOException {
+		JsonWriter json = begin(exchange, 200).beginArray();
+		for (FlightDaemon daemon : daemons) {
+			json.beginObject()
+				.name("id").value(daemon.getFlightDaemonID())
+				.name("name").value(daemon.getFlightName())
+				.name("startCity").value(daemon.getStartCity().getCityName())
+				.name("arriveCity").value(daemon.getArriveCity().getCityName())
+				.name("startTime").value(daemon.getStartTime().getTime())
+				.name("arriveTime").value(daemon.getArriveTime().getTime())
+				.name("period").value(daemon.getPeriod())
+				.name("price").value(daemon.getPrice())
+				.name("capacity").value(daemon.getSeatCapacity())
+				.name("distance").value(daemon.getDistance())
+				.name("running").value(daemon.getStatus())
+				.endObject();
+		}
+		json.endArray().flush();
+	}
+
+	private static void writeUsers(HttpExchange exchange, ArrayList<User> users) throws IOException {
+		JsonWriter json = begin(exchange, 200).beginArray();
+		for (User user : users) {
+			json.beginObject().name("id").value(user.getID()).name("name").value(user.getUserName()).name("admin")
+					.value(user instanceof Admin).endObject();
+		}
+		json.endArray().flush();
+	}
+
+	private static void writeJobs(HttpExchange exchange, ArrayList<Jobs.Job> jobs) throws IOException {
+		JsonWriter json = begin(exchange, 200).beginArray();
+		for (Jobs.Job job : jobs) {
+			json.beginObject()
+				.name("name").value(job.getName())
+				.name("period").value(job.getPeriod())
+				.name("runs").value(job.getRuns())
+				.name("failures").value(job.getFailures())
+				.name("lastTime").value(job.getLastTime())
+				.name("maxTime").value(job.getMaxTime())
+				.name("lastError").value(job.getLastError())
+				.endObject();
+		}
+		json.endArray().flush();
+	}
+
+	//------------parameters-----------------
+
+	/**
+	 * the query and a form body, a name given twice keeps the last value
+	 * @return null if the body is longer than BODY, reading stops there
+	 */
+	private static HashMap<String, String> params(HttpExchange exchange) throws IOException {
+		String length = exchange.getRequestHeaders().getFirst("Content-Length");
+		try {
+			if (length != null && Long.parseLong(length.trim()) > BODY) {
+				return null;
+			}
+		} catch (NumberFormatException e) { /* the read below stops at BODY anyway */ }
+		HashMap<String, String> params = new HashMap<>();
+		parse(exchange.getRequestURI().getRawQuery(), params);
+		InputStream in = exchange.getRequestBody();
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		for (int n; (n = in.read(buffer)) > 0;) {
+			body.write(buffer, 0, n);
+			if (body.size() > BODY) {
+				return null;
+			}
+		}
+		parse(new String(body.toByteArray(), StandardCharsets.UTF_8), params);
+		return params;
+	}
+
+	private static void parse(String text, HashMap<String, String> params) throws UnsupportedEncodingException {
+		if (text == null || text.isEmpty()) {
+			return;
+		}
+		for (String pair : text.split("&")) {
+			int eq = pair.indexOf('=');
+			if (eq < 0) {
+				params.put(URLDecoder.decode(pair, "UTF-8"), "");
+			} else {
+				params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+						URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+			}
+		}
+	}
+
+	private static String param(HashMap<String, String> params, String name) {
+		String value = params.get(name);
+		if (value == null) {
+			throw new IllegalArgumentException("missing " + name);
+		}
+		return value;
+	}
+
+	private static int number(HashMap<String, String> params, String name) {
+		try {
+			return Integer.parseInt(param(params, name));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(name + " is not a number");
+		}
+	}
+
+	/**
+	 * year-month-date, or year-month-date-hr-min-sec as the console takes it
+	 * @return null for null or ""
+	 */
+	private static Date time(String time) {
+		if (time == null || time.isEmpty()) {
+			return null;
+		}
+		String[] s = time.split("-");
+		if (s.length == 3) {
+			return Flight.calendar(Integer.parseInt(s[0]), Integer.parseInt(s[1]), Integer.parseInt(s[2]), 0, 0, 0);
+		} else if (s.length == 6) {
+			return Flight.calendar(Integer.parseInt(s[0]), Integer.parseInt(s[1]), Integer.parseInt(s[2]),
+					Integer.parseInt(s[3]), Integer.parseInt(s[4]), Integer.parseInt(s[5]));
+		}
+		throw new IllegalArgumentException("time must be year-month-date or year-month-date-hr-min-sec: " + time);
+	}
+
+}
@@ -0,0 +1,121 @@
+package main;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes JSON straight to a writer, nothing is built in memory
+ * the commas are put by the writer, e.g.
+ * <pre>json.beginObject().name("id").value(1).name("tags").beginArray().value("a").endArray().endObject();</pre>
+ */
+class JsonWriter {
+
+	private final Writer out;
+	private boolean[] first = new boolean[16]; // for each open object or array, whether nothing is in it yet
+	private int depth = 0;
+	private boolean named = false; // a name was written, its value comes next
+
+	JsonWriter(Writer out) {
+		this.out = out;
+	}
+
+	JsonWriter beginObject() throws IOException {
+		return open('{');
+	}
+
+	JsonWriter endObject() throws IOException {
+		return close('}');
+	}
+
+	JsonWriter beginArray() throws IOException {
+		return open('[');
+	}
+
+	JsonWriter endArray() throws IOException {
+		return close(']');
+	}
+
+	JsonWriter name(String name) throws IOException {
+		comma();
+		string(name);
+		out.write(':');
+		named = true;
+		return this;
+	}
+
+	JsonWriter value(String value) throws IOException {
+		comma();
+		if (value == null) {
+			out.write("null");
+		} else {
+			string(value);
+		}
+		return this;
+	}
+
+	JsonWriter value(long value) throws IOException {
+		comma();
+		out.write(Long.toString(value));
+		return this;
+	}
+
+	JsonWriter value(boolean value) throws IOException {
+		comma();
+		out.write(value ? "true" : "false");
+		return this;
+	}
+
+	void flush() throws IOException {
+		out.flush();
+	}
+
+	private JsonWriter open(char c) throws IOException {
+		comma();
+		out.write(c);
+		if (depth == first.length) {
+			boolean[] larger = new boolean[depth * 2];
+			System.arraycopy(first, 0, larger, 0, depth);
+			first = larger;
+		}
+		first[depth++] = true;
+		return this;
+	}
+
+	private JsonWriter close(char c) throws IOException {
+		depth--;
+		out.write(c);
+		return this;
+	}
+
+	/**
+	 * a comma before all but the first value of an object or array, none after a name
+	 */
+	private void comma() throws IOException {
+		if (named) {
+			named = false;
+		} else if (depth > 0) {
+			if (first[depth - 1]) {
+				first[depth - 1] = false;
+			} else {
+				out.write(',');
+			}
+		}
+	}
+
+	private void string(String value) throws IOException {
+		out.write('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				out.write('\\');
+				out.write(c);
+			} else if (c < 0x20) {
+				out.write(String.format("\\u%04x", (int) c));
+			} else {
+				out.write(c);
+			}
+		}
+		out.write('"');
+	}
+
+}
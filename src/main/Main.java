@@ -1,10 +1,17 @@
 package main;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.Arrays;
 import java.util.Scanner;
+import java.util.regex.Pattern;
 
-import data.City;
-import data.Flight;
-import data.User;
 import exceptions.PermissionDeniedException;
 import exceptions.StatusUnavailableException;
 
@@ -27,16 +34,21 @@ import exceptions.StatusUnavailableException;
  */
 public class Main {
 	static {
-		printHelp(true);
 		scanner = new Scanner(System.in);
 		server = new MainServer();
 	}
 	
 	static Scanner scanner;
 	static MainServer server;
-	static MainSearch search = new MainSearch(server, scanner);
-	static MainCRUD crud = new MainCRUD(server, scanner);
-	static ControllerFlight ctrFlight = new ControllerFlight(server, scanner);
+	static Session session = server.openSession(); // the person at the console
+	static MainSearch search = new MainSearch(server, session, scanner);
+	static MainCRUD crud = new MainCRUD(server, session, scanner);
+	static ControllerFlight ctrFlight = new ControllerFlight(server, session, scanner);
+
+	static final Pattern SPACES = Pattern.compile("\\s+");
+	static final int BUFFER = 1 << 16; // bytes of output kept before writing in a batch
+	static final int FLUSH_COMMANDS = 100; // commands of a batch between two writes at most
+	static boolean batch = false; // commands come from a script, nothing is asked, see runBatch
 
 	public static void menu(String string, String[] param) {
 		switch(string) {
@@ -57,14 +69,20 @@ public class Main {
 				break;
 			case "register":
 			case "r":
-				register();
+				register(param);
 				break;
 			case "search":
 			case "s":
 				if (param == null || param.length == 0) {
-					search();
+					if (batch) {
+						systemMessage("Format error: use 'search [flightName]' or 'search [CityFromId-CityToId] [yyyy-mm-dd~yyyy-mm-dd]'");
+					} else {
+						search();
+					}
+				} else if (param[0].matches("\\d*-\\d*")) {
+					search.search(param);
 				} else {
-					server.search(param[0]);
+					server.search(session, param[0]);
 				}
 				break;
 			case "add":
@@ -80,10 +98,10 @@ public class Main {
 				break;
 			case "unsubscribe":
 			case "unsub":
-				unsubscribe();
+				unsubscribe(param);
 				break;
 			case "pay":
-				pay();
+				pay(param);
 				break;
 			case "publish":
 			case "pub":
@@ -92,6 +110,15 @@ public class Main {
 			case "change":
 				change(param);
 				break;
+			case "import":
+				crud.importFile(param);
+				break;
+			case "export":
+				crud.exportFile(param);
+				break;
+			case "run":
+				run(param);
+				break;
 			default:
 				if (!string.equals("")) {
 					systemMessage("Unknown command: Type 'help' for more information.");
@@ -100,32 +127,111 @@ public class Main {
 		}
 	}
 
+	/**
+	 * @param args --http [port] to serve the HTTP API as well on the loopback interface, see HttpApi
+	 * 		--http-public [port] to serve it on every interface
+	 * 		--batch [script] to run the commands of a file, or of the standard input if none, see runBatch
+	 */
 	public static void main(String[] args) {
 		// DONE(Dong) UI design
 		String string = "";
 		String[] param;
-		while (!(string.equals("exit") || string.equals("e"))) {
-			systemMessage(">");
-			string = scanNextLine();
-			string = string.replaceAll("\\s+", " ");
-			string = string.replaceAll("^\\s+", "");
-			string = string.replaceAll("\\s+$", "");
-			if (string.contains(" ")) {
-				String[] cmd = string.split(" ");
-				string = cmd[0];
-				param = new String[cmd.length - 1];
-				for (int i = 1; i < cmd.length; i++) {
-					param[i - 1] = cmd[i]; 
+		String script = null;
+		HttpApi http = null;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--batch")) {
+				batch = true;
+				if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+					script = args[++i];
+				}
+			} else if (args[i].equals("--http") || args[i].equals("--http-public")) {
+				boolean everywhere = args[i].equals("--http-public");
+				int port = HttpApi.PORT;
+				if (i + 1 < args.length && args[i + 1].matches("\\d+")) {
+					port = Integer.parseInt(args[++i]);
+				}
+				http = new HttpApi(server);
+				try {
+					http.start(port, everywhere);
+					systemMessage("HTTP API on port " + http.getPort());
+				} catch (IOException e) {
+					systemMessage("Cannot serve HTTP on port " + port + ": " + e.getMessage());
+					http = null;
 				}
-			} else {
-				param = null;
 			}
+		}
+		if (batch) {
+			runBatch(script);
+		} else {
+			printHelp(true);
+		}
+		while (!batch && !(string.equals("exit") || string.equals("e"))) {
+			systemMessage(">");
+			String[] cmd = tokens(scanNextLine());
+			string = cmd[0];
+			param = params(cmd);
 			menu(string, param);
 		}
 		scanner.close();
+		if (http != null) {
+			http.stop();
+		}
 		server.stop();
 	}
 	
+	/**
+	 * run the commands of a script one per line, lines starting with # are skipped
+	 * the output is written in large blocks, not a line at a time: when the buffer is full,
+	 * every FLUSH_COMMANDS commands and at each error line
+	 * errors go to the same stream, in order with the output around them
+	 * @param script the file, null or - for the standard input
+	 */
+	private static void runBatch(String script) {
+		PrintStream console = System.out;
+		PrintStream consoleErr = System.err;
+		PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), BUFFER), false);
+		System.setOut(out);
+		System.setErr(new PrintStream(out, true)); // println flushes out as well
+		int commands = 0;
+		try (BufferedReader reader = new BufferedReader(script == null || script.equals("-") ?
+				new InputStreamReader(System.in) : new FileReader(script), BUFFER)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] cmd = tokens(line);
+				if (cmd[0].startsWith("#")) {
+					continue;
+				}
+				if (cmd[0].equals("exit") || cmd[0].equals("e")) {
+					break;
+				}
+				menu(cmd[0], params(cmd));
+				if (++commands % FLUSH_COMMANDS == 0) {
+					out.flush();
+				}
+			}
+		} catch (IOException e) {
+			System.err.println("Cannot read the script: " + e.getMessage());
+		} finally {
+			out.flush();
+			System.setOut(console);
+			System.setErr(consoleErr);
+		}
+	}
+
+	/**
+	 * split a command line on spaces, the first one is the command, "" for an empty line
+	 */
+	static String[] tokens(String line) {
+		return SPACES.split(line.trim());
+	}
+
+	/**
+	 * @return what follows the command, null if nothing
+	 */
+	private static String[] params(String[] cmd) {
+		return cmd.length > 1 ? Arrays.copyOfRange(cmd, 1, cmd.length) : null;
+	}
+
 	private static void systemMessage(String str) {
 		System.out.println(str);
 	}
@@ -142,7 +248,11 @@ public class Main {
 			switch (param[0]) {
 			case "flight":
 				try {
-					ctrFlight.changeFlight(Integer.valueOf(param[1]));
+					if (batch) {
+						ctrFlight.changeFlight(Integer.valueOf(param[1]), Arrays.copyOfRange(param, 2, param.length));
+					} else {
+						ctrFlight.changeFlight(Integer.valueOf(param[1]));
+					}
 				} catch (NumberFormatException e) {
 					System.out.printf("'%s' is not a flight ID\n", param[1]);
 				} catch (PermissionDeniedException e) {
@@ -151,9 +261,7 @@ public class Main {
 				break;
 			case "city":
 				try {
-					City city = server.getCity(Integer.valueOf(param[1]));
-					if (city != null) {
-						city.setCityName(param[2]);
+					if (server.renameCity(session, Integer.valueOf(param[1]), param[2])) {
 						systemMessage("Succeed!");
 					} else {
 						systemMessage("Failed: no such city");
@@ -166,17 +274,18 @@ public class Main {
 				break;
 			case "username":
 				try {
-					User user = server.getCurrentUser();
-					user.setUserName(param[1]);
-					systemMessage("Succeed!");
+					if (server.changeUserName(session, param[1])) {
+						systemMessage("Succeed!");
+					} else {
+						systemMessage("Failed: the username is taken");
+					}
 				} catch (PermissionDeniedException e) {
 					systemMessage(e.getMessage());
 				}
 				break;
 			case "password":
 				try {
-					User user = server.getCurrentUser();
-					user.changePass(param[1]);
+					server.changePassword(session, param[1]);
 					systemMessage("Succeed!");
 				} catch (PermissionDeniedException e) {
 					systemMessage(e.getMessage());
@@ -191,13 +300,17 @@ public class Main {
 		}		
 	}
 
-	private static void pay() {
+	private static void pay(String[] param) {
+		if (batch) {
+			orders(param, true);
+			return;
+		}
 		try {
 			systemMessage("Please input your password: ");
-			if (!server.checkPass(scanNextLine())) {
+			if (!server.checkPass(session, scanNextLine())) {
 				throw new PermissionDeniedException("Password Error");
 			}
-			server.displayOrder();
+			server.displayOrder(session);
 			do {
 				systemMessage("please select the index of order to pay(-1 to exit): ");
 				try {
@@ -207,7 +320,7 @@ public class Main {
 					}
 					systemMessage("Are you sure to pay this order?");
 					if (scanNextLine().toLowerCase().equals("y")) {
-						server.pay(index);
+						server.pay(session, index);
 						systemMessage("Succeed!");						
 					} else {
 						systemMessage("Cancled");
@@ -225,13 +338,17 @@ public class Main {
 		}
 	}
 
-	private static void unsubscribe() {
+	private static void unsubscribe(String[] param) {
+		if (batch) {
+			orders(param, false);
+			return;
+		}
 		try {
 			systemMessage("Please Input your password: ");
-			if (!server.checkPass(scanNextLine())) {
+			if (!server.checkPass(session, scanNextLine())) {
 				throw new PermissionDeniedException("Password Error");
 			}
-			server.displayOrder();
+			server.displayOrder(session);
 			do {
 				systemMessage("please select the index of order to cancel(-1 to exit): ");
 				try {
@@ -241,7 +358,7 @@ public class Main {
 					}
 					systemMessage("Are you sure to cancel this order?");
 					if (scanNextLine().toLowerCase().equals("y")) {
-						if (server.cancel(index)) {
+						if (server.cancel(session, index)) {
 							systemMessage("Reserving money has returned");
 						}
 						systemMessage("Succeed!");	
@@ -262,6 +379,52 @@ public class Main {
 		}
 	}
 
+	/**
+	 * pay|unsub [index1] [index2] ... in a batch, no password or confirmation is asked
+	 */
+	private static void orders(String[] param, boolean pay) {
+		if (param == null) {
+			systemMessage("Format error: use 'pay|unsub [index1] [index2] ...'");
+			return;
+		}
+		for (String p : param) {
+			try {
+				if (pay) {
+					server.pay(session, Integer.valueOf(p));
+				} else if (server.cancel(session, Integer.valueOf(p))) {
+					systemMessage("Reserving money has returned");
+				}
+				systemMessage("Succeed in " + p);
+			} catch (NumberFormatException e) {
+				System.out.printf("'%s' is not an order index\n", p);
+			} catch (StatusUnavailableException e) {
+				System.out.printf("%s failed in %s: %s\n", pay ? "Pay" : "Cancel", p, e.getMessage());
+			} catch (IndexOutOfBoundsException e) {
+				System.out.printf("Error: no order %s\n", p);
+			} catch (PermissionDeniedException e) {
+				systemMessage(e.getMessage());
+			}
+		}
+	}
+
+	private static void run(String[] param) {
+		if (param != null && param.length >= 1) {
+			for (String name : param) {
+				try {
+					if (server.runJob(session, name)) {
+						systemMessage("started " + name);
+					} else {
+						System.out.printf("no job named '%s'\n", name);
+					}
+				} catch (PermissionDeniedException e) {
+					systemMessage(e.getMessage());
+				}
+			}
+		} else {
+			systemMessage("Format error: use 'run [job1] [job2] ...' to run jobs, 'list job' to see them");
+		}
+	}
+
 	private static void list(String[] param) {
 		crud.list(param);
 	}
@@ -270,10 +433,7 @@ public class Main {
 		if (param != null && param.length >= 1) {
 			for (String p : param) {
 				try {
-					Flight flight = server.getFlight(Integer.valueOf(p));
-					if (flight != null) {
-						flight.publish();
-					} else {
+					if (!server.publishFlight(session, Integer.valueOf(p))) {
 						System.out.printf("can't find flight with id '%s'\n", p);
 					}
 				} catch (NumberFormatException e) {
@@ -289,9 +449,9 @@ public class Main {
 
 	private static void login(String[] param) {
 		if (param != null && param.length == 2) {
-			if (server.login(param[0], param[1])) {
+			if (server.login(session, param[0], param[1])) {
 				systemMessage("Login succeed: ");
-				if (server.isAdmin()) {
+				if (session.isAdmin()) {
 					systemMessage("You are administrator");
 				} else {
 					systemMessage("You are passenger");
@@ -308,7 +468,7 @@ public class Main {
 		if (param != null && param.length >= 1) {
 			for (String para : param) {
 				try {
-					if (server.reserveFlight(Integer.parseInt(para))) {
+					if (server.reserveFlight(session, Integer.parseInt(para))) {
 						systemMessage("succeed in " + para);
 					} else {
 						systemMessage("no flight with id " + para);
@@ -327,17 +487,29 @@ public class Main {
 		if (param != null && param.length > 0) {
 			switch (param[0]) {
 			case "city":
-				try {
+				if (param.length > 1) {
 					addCity(param[1]);
-				} catch (IndexOutOfBoundsException e) {
+				} else if (batch) {
+					systemMessage("Format error: use 'add city [cityname]'");
+				} else {
 					addCity(null);
 				}
 				break;
 			case "flight":
-				addFlight();
+				if (batch) {
+					ctrFlight.addFlight(Arrays.copyOfRange(param, 1, param.length));
+				} else {
+					addFlight();
+				}
 				break;
 			case "admin":
-				addAdmin();
+				if (!batch) {
+					addAdmin(null, null);
+				} else if (param.length == 3) {
+					addAdmin(param[1], param[2]);
+				} else {
+					systemMessage("Format error: use 'add admin [username] [password]'");
+				}
 				break;
 			default:
 				systemMessage("You can only add a city, flight or admin");
@@ -357,25 +529,49 @@ public class Main {
 		search.search();
 	}
 	
-	private static void addAdmin() {
+	/**
+	 * asks for the username and password if they are null
+	 */
+	private static void addAdmin(String userName, String password) {
 		// DONE(Peng) addAdmin UI
-		systemMessage("Please enter the Username : ");
-		String userName = scanNextLine();
-		systemMessage("Please enter the password : ");
-		String password = scanNextLine();
+		if (userName == null) {
+			systemMessage("Please enter the Username : ");
+			userName = scanNextLine();
+			systemMessage("Please enter the password : ");
+			password = scanNextLine();
+		}
 		try {
-			server.addAdmin(userName, password);
-			systemMessage("Added successfully");
+			if (server.addAdmin(session, userName, password)) {
+				systemMessage("Added successfully");
+			} else {
+				systemMessage("Failed: the username is taken");
+			}
 		} catch (PermissionDeniedException e) {
 			systemMessage(e.getMessage());
 		}
 	}
 
-	private static void register() {
+	private static void register(String[] param) {
 		// DONE(Zhu) register UI
+		if (batch) {
+			if (param == null || param.length != 3) {
+				systemMessage("Format error: use 'register [username] [idNumber] [password]'");
+			} else if (param[1].length() != 18) {
+				systemMessage("Please input the correct identity card number, 18 characters");
+			} else if (server.addPassenger(session, param[0], param[1], param[2])) {
+				systemMessage("Succeed in creating your account!");
+			} else {
+				systemMessage("Failed: the username is taken");
+			}
+			return;
+		}
 		systemMessage("Please input your username: ");
 		String username;
 		username = scanNextLine();
+		while (server.isUserNameTaken(session, username)) {
+			systemMessage("The username is taken, please input another one: ");
+			username = scanNextLine();
+		}
 		systemMessage("Please input your identity card number: ");
 		String idNumber;
 		idNumber = scanNextLine();
@@ -390,8 +586,11 @@ public class Main {
 			systemMessage("Please input your password again: ");
 		password2 = scanNextLine();	
 		} while (!(password.equals(password2)));		
-		server.addPassenger(username, idNumber, password2);
-		systemMessage("Succeed in creating your account!");
+		if (server.addPassenger(session, username, idNumber, password2)) {
+			systemMessage("Succeed in creating your account!");
+		} else {
+			systemMessage("Failed: the username is taken");
+		}
 		
 	}
 
@@ -407,7 +606,7 @@ public class Main {
 			cityname = scanNextLine();
 		}
 		try {
-			server.addCity(cityname);
+			server.addCity(session, cityname);
 			systemMessage("City added successfully");
 		} catch (PermissionDeniedException e) {
 			systemMessage(e.getMessage());
@@ -427,18 +626,29 @@ public class Main {
 					+ "\t\tlogin with username and password\n\n"
 					+ "\tregister\n"
 					+ "\t\tregister an account\n\n"
+					+ "\tregister [username] [idNumber] [password]\n"
+					+ "\t\tregister an account at once(only in batch)\n\n"
 					+ "\tsearch|s [flightName]\n"
 					+ "\t\tsearch flight with specific name\n\n"
 					+ "\tsearch|s\n"
 					+ "\t\tsearch flight with some filter\n\n"
+					+ "\tsearch|s [CityFromId-CityToId] [yyyy-mm-dd~yyyy-mm-dd]\n"
+					+ "\t\tsearch flight between the cities leaving in the dates\n\n"
 					+ "\tlist|l (city|user|flight) [ID]\n"
-					+ "\t\tlist all city, users(only for adminstrator), flight and in the server, or list the element with specific ID in detail\n\n"
+					+ "\t\tlist all city, users(only for adminstrator), flight not terminated and in the server, or list the element with specific ID in detail\n\n"
 					+ "\tlist|l order\n"
 					+ "\t\tlist the order\n\n"
 					+ "\tlist|l daemon\n"
 					+ "\t\tlist flight daemon\n\n"
+					+ "\tlist|l archive [yyyy-mm-dd~yyyy-mm-dd]\n"
+					+ "\t\tlist terminated and archived flights leaving in the dates(only for adminstrator)\n\n"
+					+ "\tlist|l job\n"
+					+ "\t\tlist background jobs with their runs, failures, run times and lags(only for adminstrator)\n\n"
 					+ "\tadd (city|admin|flight)\n"
 					+ "\t\tadd a city administrator or flight daemon(only for adminstrator)\n\n"
+					+ "\tadd admin [username] [password]\n"
+					+ "\tadd flight [name] [starttime] [arrivetime] [period] [startCityID] [arriveCityID] [price] [capacity] [distance]\n"
+					+ "\t\tadd at once(only in batch), times are yyyy-mm-dd-hr-min-sec\n\n"
 					+ "\tdelete|d (city|user|flight|daemon) [ID1] [ID2] ....\n"
 					+ "\t\tdelete city, user, flight or flight daemon with specific ID(only for adminstrator)\n"
 					+ "\t\t\t**caution: delete flight daemon will also delete corresponding flight with status UNPUBLISHED\n\n"
@@ -448,12 +658,22 @@ public class Main {
 					+ "\t\tgoes into unsubscribe page\n\n"
 					+ "\tpay\n"
 					+ "\t\tgoes into pay page\n\n"
+					+ "\tpay|unsub [index1] [index2] ...\n"
+					+ "\t\tpay or cancel orders at once(only in batch)\n\n"
 					+ "\tchange flight [ID]\n"
 					+ "\t\tchange flight daemon information with specific ID(only for adminstrator)\n\n"
+					+ "\tchange flight [ID] [field=value] ...\n"
+					+ "\t\tchange flight daemon information at once(only in batch)\n\n"
 					+ "\tchange city [ID] [newName]\n"
 					+ "\t\tchange city name with specific ID(only for adminstrator)\n\n"
 					+ "\tchange (username|password) [newName|newPass]\n"
 					+ "\t\tchange username or password\n\n"
+					+ "\trun [job1] [job2] ...\n"
+					+ "\t\trun background jobs now, such as checkpoint(only for adminstrator)\n\n"
+					+ "\timport [file.csv|file.jsonl]\n"
+					+ "\t\tadd the cities, flight daemons and passengers of a file at once(only for adminstrator)\n\n"
+					+ "\texport [file.csv|file.jsonl]\n"
+					+ "\t\twrite cities, flight daemons and passengers to a file(only for adminstrator)\n\n"
 					+ "\thelp|h\n"
 					+ "\t\tprint this help information\n\n"
 					+ "\texit|e\n"
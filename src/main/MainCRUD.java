@@ -1,16 +1,22 @@
 package main;
 
+import java.io.IOException;
+import java.util.Date;
 import java.util.Scanner;
 
+import data.Bulk;
+import data.Flight;
 import exceptions.PermissionDeniedException;
 import exceptions.StatusUnavailableException;
 
 public class MainCRUD {
 	private static MainServer server;
+	private static Session session;
 	private static Scanner scanner;
 		
-	public MainCRUD(MainServer ms_server, Scanner ms_scanner){
+	public MainCRUD(MainServer ms_server, Session ms_session, Scanner ms_scanner){
 		server = ms_server;
+		session = ms_session;
 		scanner = ms_scanner;
 	}
 	
@@ -24,10 +30,10 @@ public class MainCRUD {
 		
 	public static void listCity(String[] param) {
 		if (param.length == 1) {
-			server.displayCity();
+			server.displayCity(session);
 		} else {
 			for (int i = 1; i < param.length; i++) {
-				server.displayCity(Integer.valueOf(param[i]));
+				server.displayCity(session, Integer.valueOf(param[i]));
 			}
 		}
 	}
@@ -35,11 +41,11 @@ public class MainCRUD {
 	public static void listFlight(String[] param) {
 		int param_len = param.length;
 		if (param_len == 1) {
-			server.displayFlight();						
+			server.displayFlight(session);						
 		} else {
 			for (int i = 1; i < param_len; i++) {
 				try {
-					server.displayFlight(Integer.valueOf(param[i]));
+					server.displayFlight(session, Integer.valueOf(param[i]));
 				} catch (NumberFormatException e) {
 					System.out.printf("'%s' is not a flight\n", param[i]);
 				}								
@@ -47,18 +53,45 @@ public class MainCRUD {
 		}
 	}
 	
+	/**
+	 * list archive [yyyy-mm-dd~yyyy-mm-dd | ~yyyy-mm-dd | yyyy-mm-dd~]
+	 */
+	public static void listArchive(String[] param) throws PermissionDeniedException {
+		Date from = null;
+		Date to = null;
+		if (param.length > 1) {
+			try {
+				String[] dates = param[1].split("~", -1);
+				from = toDate(dates[0]);
+				to = toDate(dates[1]);
+			} catch (NumberFormatException | IndexOutOfBoundsException e) {
+				systemMessage("Date format error: yyyy-mm-dd~yyyy-mm-dd");
+				return;
+			}
+		}
+		server.displayArchive(session, from, to);
+	}
+
+	private static Date toDate(String date) {
+		if (date.equals("")) {
+			return null;
+		}
+		String[] s = date.split("-");
+		return Flight.calendar(Integer.valueOf(s[0]), Integer.valueOf(s[1]), Integer.valueOf(s[2]), 0, 0, 0);
+	}
+
 	public static void listUser(String[] param) throws PermissionDeniedException {
 		int param_len = param.length;
 		if (param_len == 1) {
 			try {
-				server.displayUser();
+				server.displayUser(session);
 			} catch (PermissionDeniedException e) {
 				systemMessage(e.getMessage());
 			}							
 		} else {
 			for (int i = 1; i < param_len; i++) {
 				try {
-					if (!server.displayUser(Integer.valueOf(param[i]))) {
+					if (!server.displayUser(session, Integer.valueOf(param[i]))) {
 						System.out.printf("Can't find user with id '%s'\n", param[i]);
 					}
 				} catch (NumberFormatException e) {
@@ -79,17 +112,25 @@ public class MainCRUD {
 					listFlight(param);						
 					break;
 				case "daemon":
-					server.displayDaemon();						
+					server.displayDaemon(session);						
+					break;
+				case "archive":
+					listArchive(param);
+					break;
+				case "job":
+					server.displayJobs(session);
 					break;
 				case "user":
 					listUser(param);
 					break;
 				case "order":
-					systemMessage("Please Input your password: ");
-					if (!server.checkPass(scanNextLine())) {
-						throw new PermissionDeniedException("Password Error");
+					if (!Main.batch) {
+						systemMessage("Please Input your password: ");
+						if (!server.checkPass(session, scanNextLine())) {
+							throw new PermissionDeniedException("Password Error");
+						}
 					}
-					server.displayOrder();
+					server.displayOrder(session);
 					break;
 				default:
 					systemMessage("Format error: you can only list city, user, flight or order");
@@ -103,11 +144,50 @@ public class MainCRUD {
 		}
 	}
 	
+	/**
+	 * import [file.csv|file.jsonl], nothing is imported if a line is wrong
+	 */
+	public void importFile(String[] param) {
+		if (param == null || param.length != 1) {
+			systemMessage("Format error: please use 'import [file.csv|file.jsonl]'");
+			return;
+		}
+		try {
+			Bulk bulk = server.importFile(session, param[0]);
+			if (bulk.getErrors().isEmpty()) {
+				System.out.printf("Imported %d lines from '%s'\n", bulk.size(), param[0]);
+			} else {
+				System.out.printf("Nothing imported, %d errors:\n", bulk.getErrors().size());
+				for (String error : bulk.getErrors()) {
+					systemMessage("\t" + error);
+				}
+			}
+		} catch (PermissionDeniedException e) {
+			systemMessage(e.getMessage());
+		} catch (IOException e) {
+			System.out.printf("Reading '%s' failed: %s\n", param[0], e.getMessage());
+		}
+	}
+
+	public void exportFile(String[] param) {
+		if (param == null || param.length != 1) {
+			systemMessage("Format error: please use 'export [file.csv|file.jsonl]'");
+			return;
+		}
+		try {
+			System.out.printf("Exported %d lines to '%s'\n", server.exportFile(session, param[0]), param[0]);
+		} catch (PermissionDeniedException e) {
+			systemMessage(e.getMessage());
+		} catch (IOException e) {
+			System.out.printf("Writing '%s' failed: %s\n", param[0], e.getMessage());
+		}
+	}
+
 	public void deleteFlight(String[] param) {
 		try {
 			for (int i = 1; i < param.length; i++) {
 				try {
-					if (server.deleteFlight(Integer.parseInt(param[i]))) {
+					if (server.deleteFlight(session, Integer.parseInt(param[i]))) {
 						System.out.printf("Successfully delete flight '%s'!\n", param[i]);
 					} else {
 						System.out.printf("Delete flight '%s' failed: no such flight\n", param[i]);
@@ -127,7 +207,7 @@ public class MainCRUD {
 		try {
 			for (int i = 1; i < param.length; i++) {
 				try {
-					if (server.deleteFlightDaemon(Integer.parseInt(param[i]))) {
+					if (server.deleteFlightDaemon(session, Integer.parseInt(param[i]))) {
 						System.out.printf("Successfully delete flight daemon '%s'!\n", param[i]);
 					} else {
 						System.out.printf("Delete flight daemon '%s' failed: no such flight daemon\n", param[i]);
@@ -147,7 +227,7 @@ public class MainCRUD {
 		try {
 			for (int i = 1; i < param.length; i++) {
 				try {
-					if (server.deleteCity(Integer.parseInt(param[i]))) {
+					if (server.deleteCity(session, Integer.parseInt(param[i]))) {
 						System.out.printf("Successfully delete city '%s'!\n", param[i]);
 					} else {
 						System.out.printf("Delete city '%s' failed: no such city\n", param[i]);
@@ -167,7 +247,7 @@ public class MainCRUD {
 		try {
 			for (int i = 1; i < param.length; i++) {
 				try {
-					if (server.deleteUser(Integer.parseInt(param[i]))) {
+					if (server.deleteUser(session, Integer.parseInt(param[i]))) {
 						System.out.printf("Successfully delete user '%s'!\n", param[i]);
 					} else {
 						System.out.printf("Delete user '%s' failed: no such user\n", param[i]);
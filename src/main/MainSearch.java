@@ -7,6 +7,7 @@ import data.Flight;
 
 public class MainSearch {
 	private static MainServer server;
+	private static Session session;
 	private static Scanner scanner;
 	
 	Date date1 = null;
@@ -14,8 +15,9 @@ public class MainSearch {
 	int cityFromId = -1;
 	int cityToId = -1;
 	
-	public MainSearch(MainServer ms_server, Scanner ms_scanner){
+	public MainSearch(MainServer ms_server, Session ms_session, Scanner ms_scanner){
 		server = ms_server;
+		session = ms_session;
 		scanner = ms_scanner;
 	}
 	
@@ -106,22 +108,13 @@ public class MainSearch {
 		date1 = null;
 		date2 = null;
 		printHeadInfo();
-		server.displayCity();
+		server.displayCity(session);
 		do {
 			printCurrentFilter();
 			systemMessage(">>");
-			String param;
-			String input = scanner.nextLine();
-			input = input.replaceAll("\\s+", " ");
-			input = input.replaceAll("^\\s+", "");
-			input = input.replaceAll("\\s+$", "");
-			if (input.contains(" ")) {
-				cmd = input.split(" ")[0];
-				param = input.split(" ")[1];
-			} else {
-				cmd = input;
-				param = "";
-			}
+			String[] input = Main.tokens(scanner.nextLine());
+			cmd = input[0];
+			String param = input.length > 1 ? input[1] : "";
 			switch (cmd) {
 			case "city":
 				searchByCity(param);
@@ -134,7 +127,7 @@ public class MainSearch {
 				break;
 			case "print":
 			case "p":
-				server.search(cityFromId, cityToId, date1, date2);
+				server.search(session, cityFromId, cityToId, date1, date2);
 				break;
 			default:
 				systemMessage("unknown command");
@@ -142,4 +135,20 @@ public class MainSearch {
 			}
 		} while (!(cmd.equals("exit") || cmd.equals("e")));
 	}
+
+	/**
+	 * search with the filters on one line, nothing is asked
+	 * @param param CityFromId-CityToId and optionally yyyy-mm-dd~yyyy-mm-dd
+	 */
+	protected void search(String[] param) {
+		cityFromId = -1;
+		cityToId = -1;
+		date1 = null;
+		date2 = null;
+		searchByCity(param[0]);
+		if (param.length > 1) {
+			searchByDate(param[1]);
+		}
+		server.search(session, cityFromId, cityToId, date1, date2);
+	}
 }
@@ -1,15 +1,29 @@
 package main;
 
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.function.Predicate;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
 
 import data.Admin;
+import data.Bulk;
 import data.City;
 import data.DataManager;
 import data.Flight;
 import data.FlightDaemon;
+import data.FlightTable;
 import data.FlightStatus;
+import data.Jobs;
 import data.Order;
 import data.OrderStatus;
 import data.Passenger;
@@ -17,57 +31,108 @@ import data.User;
 import exceptions.PermissionDeniedException;
 import exceptions.StatusUnavailableException;
 
+/**
+ * The operations of the flight system, each for the person of the session given
+ * many sessions may use one server at once, see Session
+ */
 public class MainServer {
 	
+	public static final long SESSION_TIMEOUT = 30*60*1000l; // 30 minutes unused, then its token is dropped
 	private DataManager dataManager;
-	private User currentUser;
-	private boolean isLogin;
-	private boolean isAdmin;
+	private ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>(); // by token
+	private SecureRandom random = new SecureRandom();
 	
 	public MainServer() {
-		isLogin = false;
-		isAdmin = false;
 		dataManager = new DataManager();
+		dataManager.getJobs().add("expire-sessions", SESSION_TIMEOUT, SESSION_TIMEOUT / 6, new Runnable() {
+
+			@Override
+			public void run() {
+				expireSessions();
+			}
+		});
 	}
 
 	public void stop() {
 		dataManager.stop();
 	}
 		
-	public boolean login(String userName, String pass) {
-		isLogin = false;
-		isAdmin = false;
-		currentUser = dataManager.validateUser(userName, pass);
-		if (currentUser != null) {
-			isLogin = true;
-			if (currentUser instanceof Admin) {					
-				isAdmin = true;
-			}
-			return true;
+	/**
+	 * a new session of a guest, it can be found by its token until unused for SESSION_TIMEOUT
+	 */
+	public Session openSession() {
+		byte[] bytes = new byte[16];
+		random.nextBytes(bytes);
+		StringBuilder token = new StringBuilder();
+		for (byte b : bytes) {
+			token.append(String.format("%02x", b));
 		}
-		return false;
+		Session session = new Session(token.toString());
+		sessions.put(session.getToken(), session);
+		return session;
+	}
+	
+	/**
+	 * @return the session with the token, null if none or expired
+	 */
+	public Session getSession(String token) {
+		Session session = token == null ? null : sessions.get(token);
+		if (session == null) {
+			return null;
+		}
+		long now = System.currentTimeMillis();
+		if (now - session.lastUsed > SESSION_TIMEOUT) {
+			sessions.remove(token, session);
+			return null;
+		}
+		session.lastUsed = now;
+		return session;
+	}
+	
+	/**
+	 * @return false if the session was not open, e.g. a guest of one HTTP request
+	 */
+	public boolean closeSession(Session session) {
+		session.setUser(null);
+		return session.getToken() != null && sessions.remove(session.getToken(), session);
 	}
 	
-	public boolean checkPass(String pass) throws PermissionDeniedException {
-		checkPermission(false);
-		return currentUser.getPassHash().equals(User.hashPass(pass));
+	private void expireSessions() {
+		long now = System.currentTimeMillis();
+		for (Iterator<Session> it = sessions.values().iterator(); it.hasNext();) {
+			if (now - it.next().lastUsed > SESSION_TIMEOUT) {
+				it.remove();
+			}
+		}
+	}
+		
+	public boolean login(Session session, String userName, String pass) {
+		User user = dataManager.validateUser(userName, pass);
+		session.setUser(user);
+		return user != null;
 	}
 	
-	public boolean isLogin() {
-		return isLogin;
+	public void logout(Session session) {
+		session.setUser(null);
 	}
 	
-	public boolean isAdmin() {
-		return isAdmin;
+	public boolean checkPass(Session session, String pass) throws PermissionDeniedException {
+		User user = checkPermission(session, false);
+		return user.getPassHash().equals(User.hashPass(pass));
 	}
 	
-	private void checkPermission(boolean requireAdmin) throws PermissionDeniedException {
+	/**
+	 * @return the user of the session, read once as another request of the session may log it out meanwhile
+	 */
+	private User checkPermission(Session session, boolean requireAdmin) throws PermissionDeniedException {
 		// Require
-		if (!isLogin) {
+		User user = session.getUser();
+		if (user == null) {
 			throw new PermissionDeniedException("please login");
-		} else if (requireAdmin && !isAdmin) {
+		} else if (requireAdmin && !(user instanceof Admin)) {
 			throw new PermissionDeniedException("you are not administrator");
 		}
+		return user;
 	}
 	
 	/*
@@ -76,48 +141,84 @@ public class MainServer {
 	 *  you can see some example(completed) below to know how to throw it
 	 *  **make full use of private method searchFlightByID & searchUserByID**
 	 */
-	public boolean createFlightDaemon(String flightName, Date startTime, Date arriveTime, int period, int startCityID, int arriveCityID,
+	public boolean createFlightDaemon(Session session, String flightName, Date startTime, Date arriveTime, int period, int startCityID, int arriveCityID,
 			int price, int seatCapacity, int distence) throws PermissionDeniedException { // false when error cityID
 		// DONE(Peng) creatFlight
-		checkPermission(true);
+		checkPermission(session, true);
+		if (!FlightTable.fits(flightName)) {
+			return false;
+		}
 		try {
-			dataManager.flightDaemons.add(new FlightDaemon(flightName, startTime, arriveTime, period*24*3600*1000,
-				getCity(startCityID), getCity(arriveCityID), price, seatCapacity, distence));
+			dataManager.addFlightDaemon(flightName, startTime, arriveTime, period*24*3600*1000,
+				getCity(session, startCityID), getCity(session, arriveCityID), price, seatCapacity, distence);
 			return true;
 		} catch (NullPointerException e) {
 			return false;
 		}
 	}
 	
-	public User getUser(int userID) throws PermissionDeniedException { //give you user to change freely
-		checkPermission(true);
+	/**
+	 * import cities, flight daemons and passengers from a CSV or JSON-lines file, see Bulk
+	 * @return the batch read, it was applied if it has no errors
+	 */
+	public Bulk importFile(Session session, String fileName) throws PermissionDeniedException, IOException {
+		checkPermission(session, true);
+		Bulk bulk;
+		Reader reader = new InputStreamReader(new FileInputStream(fileName), StandardCharsets.UTF_8);
+		try {
+			bulk = Bulk.read(reader, Bulk.isJson(fileName));
+		} finally {
+			reader.close();
+		}
+		dataManager.importBatch(bulk);
+		return bulk;
+	}
+
+	/**
+	 * export cities, running flight daemons and passengers to a file importFile can read
+	 * @return number of lines written
+	 */
+	public int exportFile(Session session, String fileName) throws PermissionDeniedException, IOException {
+		checkPermission(session, true);
+		Bulk bulk = dataManager.exportBatch();
+		Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(fileName), StandardCharsets.UTF_8));
+		try {
+			bulk.write(writer, Bulk.isJson(fileName));
+		} finally {
+			writer.close();
+		}
+		return bulk.size();
+	}
+
+	public User getUser(Session session, int userID) throws PermissionDeniedException { //give you user to change freely
+		checkPermission(session, true);
 		return dataManager.getUserByID(userID);
 	}
 	
-	public Flight getFlight(int flightID) throws PermissionDeniedException { //give you flight to change freely
-		checkPermission(true);
+	public Flight getFlight(Session session, int flightID) throws PermissionDeniedException { //give you flight to change freely
+		checkPermission(session, true);
 		return dataManager.getFlightByID(flightID);
 	}
 	
 	
-	public FlightDaemon getDaemon(int flightID) throws PermissionDeniedException {
-		checkPermission(true);
+	public FlightDaemon getDaemon(Session session, int flightID) throws PermissionDeniedException {
+		checkPermission(session, true);
 		return dataManager.getFlightDaemonByID(flightID);
 	}
 	
-	public City getCity(int cityID) throws PermissionDeniedException { //give you city to change freely
-		checkPermission(true);
+	public City getCity(Session session, int cityID) throws PermissionDeniedException { //give you city to change freely
+		checkPermission(session, true);
 		return dataManager.getCityByID(cityID);	
 	}
 	
-	public boolean deleteFlight(int flightID) throws PermissionDeniedException, StatusUnavailableException	 {
+	public boolean deleteFlight(Session session, int flightID) throws PermissionDeniedException, StatusUnavailableException	 {
 		// DONE(Peng) deleteFlight
-		checkPermission(true);
+		checkPermission(session, true);
 		Flight f =dataManager.getFlightByID(flightID);
 		
 		if (f != null) {
 			if (f.getFlightStatus() == FlightStatus.UNPUBLISHED) {
-				f.delete();
+				dataManager.deleteFlight(f);
 				return true;
 			} else {
 				throw new StatusUnavailableException(f.getFlightStatus());
@@ -126,94 +227,135 @@ public class MainServer {
 		return false; 
 	}
 	
-	public boolean deleteFlightDaemon(int daemonID) throws PermissionDeniedException, StatusUnavailableException {
-		checkPermission(true);
+	public boolean publishFlight(Session session, int flightID) throws PermissionDeniedException, StatusUnavailableException {
+		checkPermission(session, true);
+		Flight flight = dataManager.getFlightByID(flightID);
+		if (flight == null) {
+			return false;
+		}
+		dataManager.publishFlight(flight);
+		return true;
+	}
+	
+	/**
+	 * change a field of flight daemon, see DataManager.changeFlightDaemon
+	 */
+	public boolean changeDaemon(Session session, int daemonID, String field, String value) throws PermissionDeniedException {
+		checkPermission(session, true);
+		FlightDaemon daemon = dataManager.getFlightDaemonByID(daemonID);
+		if (daemon == null || (field.equals("name") && !FlightTable.fits(value))) {
+			return false;
+		}
+		dataManager.changeFlightDaemon(daemon, field, value);
+		return true;
+	}
+	
+	public boolean deleteFlightDaemon(Session session, int daemonID) throws PermissionDeniedException, StatusUnavailableException {
+		checkPermission(session, true);
 		FlightDaemon daemon = dataManager.getFlightDaemonByID(daemonID);
 		if (daemon != null) {
 			if (daemon.getStatus() == false) {
 				throw new StatusUnavailableException("already Deleted");
 			}
-			ArrayList<Flight> flights = daemon.getChildren();
-			dataManager.flights.removeIf(new Predicate<Flight>() {
-
-				@Override
-				public boolean test(Flight t) {
-					return flights.contains(t) && t.getFlightStatus() == FlightStatus.UNPUBLISHED;
-				}
-			});
-			daemon.removeFlight();
+			dataManager.removeFlightDaemon(daemon);
 			return true;
 		}
 		return false;
 	}
 	
-	public void addPassenger(String username, String idNumber, String password){
-		dataManager.users.add(new Passenger(idNumber, username, password));
+	public boolean isUserNameTaken(Session session, String userName) {
+		return dataManager.getUserByName(userName) != null;
 	}
 	
-	public void addAdmin(String userName, String password) throws PermissionDeniedException {
+	/**
+	 * @return false when the user name is taken
+	 */
+	public boolean addPassenger(Session session, String username, String idNumber, String password){
+		return dataManager.addPassenger(idNumber, username, password) != null;
+	}
+	
+	public boolean addAdmin(Session session, String userName, String password) throws PermissionDeniedException {
 		// DONE(Peng) addAdmin
-		checkPermission(true);
-		dataManager.users.add(new Admin(userName, password));
+		checkPermission(session, true);
+		return dataManager.addAdmin(userName, password) != null;
 	}
 	
-	public void addCity(String cityName) throws PermissionDeniedException{
+	public void addCity(Session session, String cityName) throws PermissionDeniedException{
 		//DONE(Zhu) addCity
-		checkPermission(true);
-		dataManager.cities.add(new City(cityName));
+		checkPermission(session, true);
+		dataManager.addCity(cityName);
 	}
 	
-	public void removeUser(User user) {
-		dataManager.users.remove(user);
+	public boolean renameCity(Session session, int cityID, String cityName) throws PermissionDeniedException {
+		checkPermission(session, true);
+		City city = dataManager.getCityByID(cityID);
+		if (city == null) {
+			return false;
+		}
+		dataManager.setCityName(city, cityName);
+		return true;
 	}
 	
-	public boolean deleteUser(int userID) throws PermissionDeniedException {
+	/**
+	 * the sessions of the user are logged out
+	 */
+	private void removeUser(User user) {
+		dataManager.removeUser(user);
+		for (Session session : sessions.values()) {
+			if (session.getUser() == user) {
+				session.setUser(null);
+			}
+		}
+	}
+	
+	public boolean deleteUser(Session session, int userID) throws PermissionDeniedException {
 		/* DONE(Peng) deleteUser
 		 * first to test if user is a passenger (using instanceof)
 		 * **be sure to remove user from the flight**
 		 */
-		checkPermission(true);
-		User u = getUser(userID);
+		checkPermission(session, true);
+		User u = getUser(session, userID);
 		if (u == null) {
 			return false;
 		}
-		if (u instanceof Passenger) {
-			Passenger passenger = (Passenger) u;
-			for (Order order : passenger.getOrderList()) {
-				order.remove();
-			}
-			removeUser(u);
-		} else {
-			removeUser(u);
-		}
+		removeUser(u); // orders of a passenger are removed as well
 		return true;
 	}
 	
-	public User getCurrentUser() throws PermissionDeniedException { // to update user info
-		checkPermission(false);
-		return currentUser;
+	public User getCurrentUser(Session session) throws PermissionDeniedException { // to update user info
+		return checkPermission(session, false);
+	}
+	
+	public boolean changeUserName(Session session, String userName) throws PermissionDeniedException {
+		User user = checkPermission(session, false);
+		return dataManager.setUserName(user, userName);
 	}
 	
-	public boolean reserveFlight(int flightID) throws PermissionDeniedException, StatusUnavailableException {
+	public void changePassword(Session session, String newPass) throws PermissionDeniedException {
+		User user = checkPermission(session, false);
+		dataManager.changePass(user, newPass);
+	}
+	
+	public boolean reserveFlight(Session session, int flightID) throws PermissionDeniedException, StatusUnavailableException {
 		// DONE(Zhu) reserveFlight
-		checkPermission(false);
-		if (isAdmin) {
+		User user = checkPermission(session, false);
+		if (user instanceof Admin) {
 			throw new PermissionDeniedException("adminstrator cannot reserve flight");
 		}
 		Flight flight = dataManager.getFlightByID(flightID);
 		if (flight != null) {
-			((Passenger) currentUser).reserveFlight(flight);
+			dataManager.reserveFlight((Passenger) user, flight);
 			return true;
 		}
 		return false;
 	}
 	
-	public void pay(int index) throws PermissionDeniedException, StatusUnavailableException {
+	public void pay(Session session, int index) throws PermissionDeniedException, StatusUnavailableException {
 		// DONE(Peng) pay an order (index is the index of the order in ArrayList<Order>)
-		checkPermission(false);
-		   if (!isAdmin){
-			   Passenger passenger = (Passenger) currentUser;
-			   passenger.getOrderList().get(index).pay();
+		User user = checkPermission(session, false);
+		   if (!(user instanceof Admin)){
+			   Passenger passenger = (Passenger) user;
+			   dataManager.pay(passenger, index);
 			
 		   } else {
 			   throw new PermissionDeniedException("sorry you are not the user");
@@ -221,24 +363,24 @@ public class MainServer {
 		
 	}
 	
-	public boolean cancel(int index) throws PermissionDeniedException, StatusUnavailableException{
+	public boolean cancel(Session session, int index) throws PermissionDeniedException, StatusUnavailableException{
 		// DONE(Peng) cancel an order (index is the index of the order in ArrayList<Order>)
-		checkPermission(false);
-		if (!isAdmin) {
-			Passenger passenger = (Passenger) currentUser;
-			return passenger.getOrderList().get(index).cancle();
+		User user = checkPermission(session, false);
+		if (!(user instanceof Admin)) {
+			Passenger passenger = (Passenger) user;
+			return dataManager.cancel(passenger, index);
 		} else {
 			throw new PermissionDeniedException("sorry you are not the user");
 		}
 	}
 	
-	public void removeCity(City city) {
-		dataManager.cities.remove(city);
+	private void removeCity(City city) {
+		dataManager.removeCity(city);
 	}
 	
-	public boolean deleteCity(int cityID) throws PermissionDeniedException, StatusUnavailableException {
-		checkPermission(true);
-		City city = getCity(cityID);
+	public boolean deleteCity(Session session, int cityID) throws PermissionDeniedException, StatusUnavailableException {
+		checkPermission(session, true);
+		City city = getCity(session, cityID);
 		if (city != null) {
 			if (city.getFlightsIn().size() == 0 && city.getFlightsOut().size() == 0) {
 				removeCity(city);					
@@ -258,10 +400,10 @@ public class MainServer {
 	 * .	.		 .
 	 * tips: see <Flight>.toString() and <Order>.toString()
 	 */
-	public void displayCity() {
+	public void displayCity(Session session) {
 		// DONE(Zhu) displayCity
 		System.out.println("ID\tname");
-		for(City city : dataManager.cities)
+		for(City city : dataManager.getCities())
 		System.out.printf("%d\t%s\n", city.getCityID(), city);
 	}
 
@@ -269,30 +411,70 @@ public class MainServer {
 		System.out.println("ID\tName\tStartCity\tArriveCity\tStartTime\t\t\tArriveTime\t\t\tPrice\tRemain\n");
 	}
 	
-	public void displayFlight() {
+	/**
+	 * the flights not terminated, the terminated ones are listed by displayArchive
+	 */
+	public void displayFlight(Session session) {
 		// DONE(Zhu) displayFlight
 		displayHeaderFlight();
-		for(Flight fl : dataManager.flights)
+		for(Flight fl : dataManager.getFlights())
 			System.out.println(fl);
 	}
 
+	/**
+	 * terminated flights leaving between the dates, archived or not, null for no bound
+	 */
+	public void displayArchive(Session session, Date from, Date to) throws PermissionDeniedException {
+		checkPermission(session, true);
+		displayHeaderFlight();
+		long bdate = from == null ? Long.MIN_VALUE : from.getTime();
+		long edate = to == null ? Long.MAX_VALUE : to.getTime();
+		for(Flight fl : dataManager.getArchive().search(bdate, edate))
+			System.out.println(fl);
+		for(Flight fl : dataManager.getHistory()) {
+			long start = fl.getStartTime().getTime();
+			if (start >= bdate && start <= edate)
+				System.out.println(fl);
+		}
+	}
+
+	/**
+	 * the background jobs with their runs, failures, run times and lags in ms
+	 */
+	public void displayJobs(Session session) throws PermissionDeniedException {
+		checkPermission(session, true);
+		System.out.println("Name\tPeriod\tRuns\tFailures\tLast\tMax\tAverage\tLag\tMaxLag\tLastError");
+		for (Jobs.Job job : dataManager.getJobs().list())
+			System.out.println(job);
+	}
+
+	/**
+	 * run a background job now
+	 * @return false if there is no job with the name
+	 */
+	public boolean runJob(Session session, String name) throws PermissionDeniedException {
+		checkPermission(session, true);
+		Jobs.Job job = dataManager.getJobs().get(name);
+		return job != null && job.trigger();
+	}
+
 	public void displayHeaderDaemon() {
 		System.out.println("ID\tName\tStartCity\tArriveCity\tBeginTime\t\t\tTime\tPeriod\tPrice\tSeatCapacity");
 	}
 	
-	public void displayDaemon() {
+	public void displayDaemon(Session session) {
 		// DONE(Zhu) displayDaemon
 		displayHeaderDaemon();
-		for(FlightDaemon fd : dataManager.flightDaemons)
+		for(FlightDaemon fd : dataManager.getFlightDaemons())
 			System.out.println(fd);
 	}
 
-	public void displayUser() throws PermissionDeniedException {
+	public void displayUser(Session session) throws PermissionDeniedException {
 		//DONE(Peng)
-		checkPermission(true);
+		checkPermission(session, true);
 		StringBuilder resultbuilder = new StringBuilder();
 		resultbuilder.append("userID\tuserName\tisAdmin\n");
-		for (User user : dataManager.users) {
+		for (User user : dataManager.getUsers()) {
 			resultbuilder.append(String.format("%d\t%-8s\t%s\n", user.getID(), user, user instanceof Admin));		
 		}
 		System.out.print(resultbuilder);
@@ -317,12 +499,12 @@ public class MainServer {
 		return resultbuilder;
 	}
 	
-	public void displayFlight(int flightID) {
+	public void displayFlight(Session session, int flightID) {
 		// DONE(Dong)
 		StringBuilder resultbuilder = new StringBuilder();
 		Flight flight = dataManager.getFlightByID(flightID);
 		resultbuilder.append(flight.toString() + "\n");
-		if (isAdmin) {
+		if (session.isAdmin()) {
 			resultbuilder.append("\tPasengers:\n");
 			for (Passenger passenger : flight.passagers().keySet()) {
 				resultbuilder.append(displayFlightOrders(flight, passenger));
@@ -334,7 +516,7 @@ public class MainServer {
 	/*
 	 * when it comes to display a object with specific id, you need provide more specific information(see above)
 	 */
-	public void displayCity(int CityID) {
+	public void displayCity(Session session, int CityID) {
 		// DONE(Peng) print flightIn and flightOut as well
 		System.out.println("the name of the City is : " + dataManager.getCityByID(CityID).getCityName());
 		System.out.println("Flights to this City are : ");
@@ -349,10 +531,10 @@ public class MainServer {
 		}
 	}
 	
-	public boolean displayUser(int userID) throws PermissionDeniedException {
+	public boolean displayUser(Session session, int userID) throws PermissionDeniedException {
 		// DONE(Zhu) print User order(if it is passenger) as well
-		checkPermission(true);
-		User u = getUser(userID);
+		checkPermission(session, true);
+		User u = getUser(session, userID);
 		if (u == null) {
 			return false;
 		}
@@ -373,10 +555,10 @@ public class MainServer {
 		}
 	}
 	
-	public void displayOrder() throws PermissionDeniedException {
-		checkPermission(false);
-		if(!isAdmin){
-			displayOrder((Passenger) currentUser);
+	public void displayOrder(Session session) throws PermissionDeniedException {
+		User user = checkPermission(session, false);
+		if(!(user instanceof Admin)){
+			displayOrder((Passenger) user);
 		}
 		else{
 			throw new PermissionDeniedException("You are not Ueser");
@@ -385,31 +567,34 @@ public class MainServer {
 
 	//------------boundary-----------------
 	
-	private ArrayList<Flight> searchActiveFlights(long bdate, long edate) {
+	private ArrayList<Flight> searchActiveFlights(City from, City to, long bdate, long edate) {
 		ArrayList<Flight> flights = new ArrayList<>();
-		for (Flight flight : dataManager.flights) {
-			if (flight.getStartTime().getTime() >= bdate 
-					&& flight.getStartTime().getTime() <= edate 
-					&& flight.getFlightStatus() != FlightStatus.TERMINATE) {
+		for (Flight flight : dataManager.getFlightsLeaving(from, to, bdate, edate)) {
+			if (flight.getFlightStatus() != FlightStatus.TERMINATE) {
 				flights.add(flight);
 			}
 		}
 		return flights;
 	}
 	
-	private String stringSearchFlights(City from, City to, ArrayList<Flight> flights) {
+	private String stringSearchFlights(ArrayList<Flight> flights) {
 		StringBuilder builder = new StringBuilder();
 		builder.append("ID\tName\tStartCity\tArriveCity\tStartTime\t\t\tArriveTime\t\t\tPrice\tRemain\n");
 		for (Flight flight : flights) {
-			if (flight.getStartCity().equals(from) && flight.getArriveCity().equals(to)) {
-				builder.append(flight.toString() + "\n");
-			}
+			builder.append(flight.toString() + "\n");
 		}
 		return builder.toString();
 	}
 
-	public void search(int cityFromId, int cityToId, Date date1, Date date2) {
+	public void search(Session session, int cityFromId, int cityToId, Date date1, Date date2) {
 		// DONE(Dong) give up...
+		System.out.print(stringSearchFlights(searchFlights(session, cityFromId, cityToId, date1, date2)));
+	}
+	
+	/**
+	 * flights not terminated between the cities leaving between the dates, null for no bound
+	 */
+	public ArrayList<Flight> searchFlights(Session session, int cityFromId, int cityToId, Date date1, Date date2) {
 		City from = dataManager.getCityByID(cityFromId);
 		City to = dataManager.getCityByID(cityToId);
 		long bdate;
@@ -424,19 +609,52 @@ public class MainServer {
 		} else {
 			edate = date2.getTime();
 		}
-		ArrayList<Flight> flights = searchActiveFlights(bdate, edate);
-		System.out.print(stringSearchFlights(from, to, flights));
+		return searchActiveFlights(from, to, bdate, edate);
 	}
 	
-	public void search(String flightName) {
-		StringBuilder builder = new StringBuilder();
-		builder.append("ID\tName\tStartCity\tArriveCity\tStartTime\t\t\tArriveTime\t\t\tPrice\tRemain\n");
-		for (Flight flight : dataManager.flights) {
-			if (flight.getFlightStatus() != FlightStatus.TERMINATE && flight.getFlightName().toLowerCase().contains(flightName.toLowerCase())) {
-				builder.append(flight.toString() + "\n");
+	public void search(Session session, String flightName) {
+		System.out.print(stringSearchFlights(searchFlights(session, flightName)));
+	}
+	
+	/**
+	 * flights not terminated with the name
+	 */
+	public ArrayList<Flight> searchFlights(Session session, String flightName) {
+		ArrayList<Flight> flights = new ArrayList<>();
+		for (Flight flight : dataManager.getFlightsNamed(flightName)) {
+			if (flight.getFlightStatus() != FlightStatus.TERMINATE) {
+				flights.add(flight);
 			}
 		}
-		System.out.print(builder);
+		return flights;
+	}
+	
+	//------------lists, for callers writing their own output-----------------
+	
+	public ArrayList<Order> getOrders(Session session) throws PermissionDeniedException {
+		User user = checkPermission(session, false);
+		if (user instanceof Admin) {
+			throw new PermissionDeniedException("You are not Ueser");
+		}
+		return ((Passenger) user).getOrderList();
+	}
+	
+	public ArrayList<City> getCities(Session session) {
+		return dataManager.getCities();
+	}
+	
+	public ArrayList<FlightDaemon> getDaemons(Session session) {
+		return dataManager.getFlightDaemons();
+	}
+	
+	public ArrayList<User> getUsers(Session session) throws PermissionDeniedException {
+		checkPermission(session, true);
+		return dataManager.getUsers();
+	}
+	
+	public ArrayList<Jobs.Job> getJobs(Session session) throws PermissionDeniedException {
+		checkPermission(session, true);
+		return dataManager.getJobs().list();
 	}
 
 }
@@ -0,0 +1,45 @@
+package main;
+
+import data.Admin;
+import data.User;
+
+/**
+ * One person using the server, a guest until login, see MainServer.openSession
+ * each operation of MainServer checks its permission against the session given
+ * the token finds it again, e.g. for a request over the network
+ */
+public class Session {
+
+	private final String token;
+	private volatile User user; // null until login
+	volatile long lastUsed; // when it was last found by its token, see MainServer.getSession
+
+	Session(String token) {
+		this.token = token;
+		lastUsed = System.currentTimeMillis();
+	}
+
+	public String getToken() {
+		return token;
+	}
+
+	/**
+	 * @return the user logged in, null if none
+	 */
+	public User getUser() {
+		return user;
+	}
+
+	void setUser(User user) {
+		this.user = user;
+	}
+
+	public boolean isLogin() {
+		return user != null;
+	}
+
+	public boolean isAdmin() {
+		return user instanceof Admin;
+	}
+
+}